@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A populated system for benchmarks: merchants, products, orders and
+ * invoices generated from a fixed seed, so every run measures the same data.
+ */
+public class BenchData {
+
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+	private static final int HISTORY_DAYS = 365;
+
+	final AccountManagement_API accounts = new AccountManagement_API();
+	final ProductCatalogue_API catalogue = new ProductCatalogue_API();
+	final OrderManagment_API orders = new OrderManagment_API(accounts, catalogue);
+	final Reporting_API reporting = new Reporting_API(accounts, orders, catalogue);
+
+	final String[] merchantIDs;
+	final Product[] products;
+	final List<String> orderIDs = new ArrayList<>();
+	final List<String> invoiceIDs = new ArrayList<>();
+	// Logs every change while set; null when the system is not persisted
+	PersistenceManager persistence;
+	private final long now = System.currentTimeMillis();
+
+	private BenchData(int merchantCount, int productCount) {
+		this.merchantIDs = new String[merchantCount];
+		this.products = new Product[productCount];
+	}
+
+	/**
+	 * Builds a system holding the given number of each entity. Order dates are
+	 * spread over the last year; 5% of orders are cancelled and 30% dispatched.
+	 * @param merchants
+	 * @param products
+	 * @param orders
+	 * @param invoices raised for the oldest orders, at most one per order
+	 * @param seed
+	 */
+	static BenchData generate(int merchants, int products, int orders, int invoices, long seed) {
+		return generate(merchants, products, orders, invoices, seed, null);
+	}
+
+	/**
+	 * The same, with every change logged to a write-ahead log in the directory
+	 * as it is generated. The log is never forced; close persistence when done.
+	 * @param merchants
+	 * @param products
+	 * @param orders
+	 * @param invoices
+	 * @param seed
+	 * @param logDirectory empty or missing, or null for no log
+	 */
+	static BenchData generate(int merchants, int products, int orders, int invoices, long seed,
+							  Path logDirectory) {
+		BenchData data = new BenchData(merchants, products);
+		Random random = new Random(seed);
+		if (logDirectory != null) {
+			data.persistence = new PersistenceManager(logDirectory, WriteAheadLog.FsyncPolicy.NEVER, 0,
+					data.accounts, data.catalogue, data.orders);
+			try {
+				data.persistence.open();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		for (int i = 0; i < merchants; i++) {
+			Merchant merchant = new Merchant();
+			merchant.setMerchantID(String.format("M%05d", i));
+			merchant.setName("Pharmacy " + i);
+			merchant.setAddress(i + " High Street, London");
+			merchant.setCreditLimit(1e12);
+			merchant.setStatus(MerchantStatus.ACTIVE);
+			data.accounts.CreateMerchant(merchant);
+			data.merchantIDs[i] = merchant.getMerchantID();
+		}
+
+		for (int i = 0; i < products; i++) {
+			Product product = new Product();
+			product.setProductID(String.valueOf(50000000 + i));
+			product.setName("Generic product " + i + ", " + (10 + random.nextInt(490)) + " mg");
+			product.setPrice((10 + random.nextInt(4990)) / 100.0);
+			// Enough stock that no benchmark runs out
+			product.setStockLevel(1_000_000_000);
+			product.setMinimumStockLevel(100 + random.nextInt(400));
+			data.catalogue.addProduct(product);
+			data.products[i] = product;
+		}
+
+		for (int i = 0; i < orders; i++) {
+			Order order = data.newOrder(random);
+			order.setOrderDate(new Date(data.now - (long) (random.nextDouble() * HISTORY_DAYS * DAY_MILLIS)));
+			String orderID = data.orders.createOrder(order);
+			data.orderIDs.add(orderID);
+
+			int fate = random.nextInt(100);
+			if (fate < 5) {
+				data.orders.cancelOrder(orderID);
+			} else if (fate < 35) {
+				data.orders.updateOrderStatus(orderID, OrderStatus.DISPATCHED);
+			}
+		}
+
+		for (int i = 0; i < invoices && i < data.orderIDs.size(); i++) {
+			data.invoiceIDs.add(data.orders.raiseInvoice(data.orderIDs.get(i)).getInvoiceID());
+		}
+		return data;
+	}
+
+	// An order for a random merchant with one to four lines, dated now
+	Order newOrder(Random random) {
+		Order order = new Order();
+		order.setMerchantID(merchantIDs[random.nextInt(merchantIDs.length)]);
+		order.setOrderDate(new Date());
+		OrderItem[] items = new OrderItem[1 + random.nextInt(4)];
+		for (int i = 0; i < items.length; i++) {
+			Product product = products[random.nextInt(products.length)];
+			items[i] = new OrderItem();
+			items[i].setProductID(product.getProductID());
+			items[i].setQuantity(1 + random.nextInt(10));
+			items[i].setUnitPrice(product.getPrice());
+		}
+		order.setItems(items);
+		return order;
+	}
+
+	Payment newPayment(Random random, String merchantID) {
+		Payment payment = new Payment();
+		payment.setPaymentID("PAY" + random.nextInt(Integer.MAX_VALUE));
+		payment.setMerchantID(merchantID);
+		payment.setAmount((100 + random.nextInt(100000)) / 100.0);
+		payment.setDate(new Date());
+		return payment;
+	}
+
+	String randomMerchant(Random random) {
+		return merchantIDs[random.nextInt(merchantIDs.length)];
+	}
+
+	// The last quarter, as used by turnover benchmarks
+	DateRange lastQuarter() {
+		DateRange period = new DateRange();
+		period.setStart(new Date(now - 91 * DAY_MILLIS));
+		period.setEnd(new Date(now));
+		return period;
+	}
+
+}
@@ -0,0 +1,46 @@
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * One measured operation and the state it runs against. The runner calls
+ * setup once per parameter combination, beforeIteration before each warmup
+ * and measurement iteration, then run from every benchmark thread until the
+ * iteration ends.
+ */
+public abstract class Benchmark {
+
+	public abstract String getName();
+
+	// Parameter names with the values tried by default, in run order
+	public Map<String, String[]> getParameters() {
+		return Collections.emptyMap();
+	}
+
+	/**
+	 *
+	 * @param params one value for every name in getParameters
+	 */
+	public void setup(Map<String, String> params) throws Exception {
+	}
+
+	// Untimed; lets a benchmark rebuild state its operations use up
+	public void beforeIteration() throws Exception {
+	}
+
+	/**
+	 * Performs one operation. The result is consumed so the work cannot be
+	 * optimised away.
+	 * @param thread index of the calling benchmark thread
+	 * @param iteration count of operations this thread has run so far
+	 */
+	public abstract Object run(int thread, long iteration) throws Exception;
+
+	// Operations per iteration for benchmarks that use up prepared state; 0 runs for the iteration time
+	public long getOperationsPerIteration() {
+		return 0;
+	}
+
+	public void teardown() throws Exception {
+	}
+
+}
@@ -0,0 +1,412 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the IPOS-SA benchmarks and writes the results as JSON or CSV.
+ *
+ * Build and run from the IPOS-SA directory:
+ *   javac -encoding UTF-8 -d out/production/IPOS-SA src/*.java
+ *   javac -encoding UTF-8 -cp out/production/IPOS-SA -d out/bench bench/*.java
+ *   java -cp out/production/IPOS-SA:out/bench BenchmarkRunner [options]
+ *
+ * Options:
+ *   -l                 list benchmarks and their parameters
+ *   -f regex           run only benchmarks whose name matches
+ *   -p name=v1,v2      override a parameter's values
+ *   -wi n              warmup iterations (default 3)
+ *   -i n               measurement iterations (default 5)
+ *   -r millis          time per iteration (default 1000)
+ *   -fork n            fresh JVMs per parameter combination, 0 to run in this one (default 1)
+ *   -ls n              time one operation in n for the latency percentiles (default 8)
+ *   -rf json|csv       result format (default json)
+ *   -rff file          result file (default bench-results/results-[timestamp].[format])
+ *
+ * Each result holds throughput (ops/s, mean and standard deviation over the
+ * measurement iterations of every fork, plus the raw per-iteration scores)
+ * and latency percentiles of single operations.
+ *
+ * This is not JMH: the project builds in IntelliJ with no Maven or Gradle
+ * build to host a JMH module, and JMH cannot be fetched offline here. It
+ * borrows what matters most from it. Each parameter combination runs in its
+ * own JVM, so JIT profiles and heap state from one cannot skew the next.
+ * Throughput is counted without timing each call, and only sampled calls
+ * are timed for latency. Every result is compared against a volatile
+ * field, as JMH's Blackhole does. A single timed call still includes the
+ * ~20-30 ns cost of System.nanoTime, so percentiles below about 100 ns are
+ * an upper bound; compare throughput for operations that fast.
+ */
+public class BenchmarkRunner {
+
+	private int warmupIterations = 3;
+	private int measurementIterations = 5;
+	private long iterationMillis = 1000;
+	private Pattern filter = Pattern.compile(".*");
+	private final Map<String, String[]> overrides = new LinkedHashMap<>();
+	private String format = "json";
+	private Path resultFile;
+	private int forks = 1;
+	private int latencySampling = 8;
+	// Set in a forked JVM: where to write its one result for the parent
+	private Path childResultFile;
+
+	// Every result is compared against this; a volatile read the JIT cannot fold, so the work cannot be discarded
+	private volatile Object trap = new Object();
+	private volatile Object sink;
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		boolean list = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "-l": list = true; break;
+				case "-f": runner.filter = Pattern.compile(args[++i]); break;
+				case "-wi": runner.warmupIterations = Integer.parseInt(args[++i]); break;
+				case "-i": runner.measurementIterations = Integer.parseInt(args[++i]); break;
+				case "-r": runner.iterationMillis = Long.parseLong(args[++i]); break;
+				case "-rf": runner.format = args[++i]; break;
+				case "-rff": runner.resultFile = Paths.get(args[++i]); break;
+				case "-fork": runner.forks = Integer.parseInt(args[++i]); break;
+				case "-ls": runner.latencySampling = Math.max(1, Integer.parseInt(args[++i])); break;
+				case "-child": runner.childResultFile = Paths.get(args[++i]); break;
+				case "-p": {
+					String[] override = args[++i].split("=", 2);
+					runner.overrides.put(override[0], override[1].split(","));
+					break;
+				}
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<>();
+		benchmarks.addAll(OrderBenchmarks.all());
+		benchmarks.addAll(ReportingBenchmarks.all());
+		benchmarks.addAll(PersistenceBenchmarks.all());
+
+		if (list) {
+			for (Benchmark benchmark : benchmarks) {
+				System.out.println(benchmark.getName());
+				for (Map.Entry<String, String[]> parameter : benchmark.getParameters().entrySet()) {
+					System.out.println("  " + parameter.getKey() + " = " + String.join(",", parameter.getValue()));
+				}
+			}
+			return;
+		}
+
+		List<Result> results = new ArrayList<>();
+		for (Benchmark benchmark : benchmarks) {
+			if (runner.filter.matcher(benchmark.getName()).find()) {
+				results.addAll(runner.run(benchmark));
+			}
+		}
+		if (runner.childResultFile != null) {
+			runner.writeChildResult(results);
+		} else {
+			runner.writeResults(results);
+		}
+	}
+
+	private List<Result> run(Benchmark benchmark) throws Exception {
+		Map<String, String[]> parameters = new LinkedHashMap<>(benchmark.getParameters());
+		for (Map.Entry<String, String[]> override : overrides.entrySet()) {
+			if (parameters.containsKey(override.getKey())) {
+				parameters.put(override.getKey(), override.getValue());
+			}
+		}
+
+		List<Result> results = new ArrayList<>();
+		for (Map<String, String> params : combinations(parameters)) {
+			results.add(forks > 0 && childResultFile == null ? runForked(benchmark, params) : run(benchmark, params));
+		}
+		return results;
+	}
+
+	private Result run(Benchmark benchmark, Map<String, String> params) throws Exception {
+		System.out.println("# " + benchmark.getName() + " " + params);
+		benchmark.setup(params);
+		int threads = Integer.parseInt(params.getOrDefault("threads", "1"));
+
+		for (int i = 0; i < warmupIterations; i++) {
+			benchmark.beforeIteration();
+			double score = iteration(benchmark, threads, new LatencyRecorder());
+			System.out.printf("  warmup %d: %.1f ops/s%n", i + 1, score);
+		}
+
+		LatencyRecorder latency = new LatencyRecorder();
+		double[] scores = new double[measurementIterations];
+		for (int i = 0; i < measurementIterations; i++) {
+			benchmark.beforeIteration();
+			scores[i] = iteration(benchmark, threads, latency);
+			System.out.printf("  iteration %d: %.1f ops/s%n", i + 1, scores[i]);
+		}
+		benchmark.teardown();
+
+		Result result = new Result(benchmark.getName(), params, threads, scores, latency);
+		printResult(result);
+		return result;
+	}
+
+	// Runs the combination once in each of forks fresh JVMs and pools their iterations
+	private Result runForked(Benchmark benchmark, Map<String, String> params) throws Exception {
+		Result pooled = null;
+		for (int fork = 1; fork <= forks; fork++) {
+			Path file = Files.createTempFile("bench-fork", ".bin");
+			try {
+				List<String> command = new ArrayList<>();
+				command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+				command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+				command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+						BenchmarkRunner.class.getName(), "-f", "^" + Pattern.quote(benchmark.getName()) + "$",
+						"-wi", Integer.toString(warmupIterations), "-i", Integer.toString(measurementIterations),
+						"-r", Long.toString(iterationMillis), "-ls", Integer.toString(latencySampling),
+						"-child", file.toString()));
+				for (Map.Entry<String, String> param : params.entrySet()) {
+					command.add("-p");
+					command.add(param.getKey() + "=" + param.getValue());
+				}
+				if (forks > 1) System.out.println("# fork " + fork + " of " + forks);
+				int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+				if (exit != 0) {
+					throw new IllegalStateException(benchmark.getName() + " failed in fork " + fork + ", exit " + exit);
+				}
+
+				Result result;
+				try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+					result = (Result) in.readObject();
+				}
+				pooled = pooled == null ? result : pooled.pool(result);
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		}
+		if (forks > 1) {
+			System.out.println("# " + benchmark.getName() + " " + params + " over " + forks + " forks");
+			printResult(pooled);
+		}
+		return pooled;
+	}
+
+	private void writeChildResult(List<Result> results) throws IOException {
+		if (results.size() != 1) {
+			throw new IllegalStateException("A fork runs one parameter combination, but ran " + results.size());
+		}
+		try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(childResultFile)))) {
+			out.writeObject(results.get(0));
+		}
+	}
+
+	private static void printResult(Result result) {
+		System.out.printf("  result: %.1f ± %.1f ops/s, p50 %d ns, p99 %d ns%n", result.mean(), result.stdev(),
+				result.latency.getPercentile(50), result.latency.getPercentile(99));
+	}
+
+	// Runs one iteration on every thread and returns its throughput in ops/s
+	private double iteration(Benchmark benchmark, int threads, LatencyRecorder latency) throws Exception {
+		long quota = benchmark.getOperationsPerIteration();
+		AtomicLong remaining = new AtomicLong(quota);
+		AtomicLong operations = new AtomicLong();
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(threads);
+		Throwable[] failure = new Throwable[1];
+		AtomicBoolean stop = new AtomicBoolean();
+
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			workers[t] = new Thread(() -> {
+				long done = 0;
+				try {
+					start.await();
+					// Each thread times a different share of its calls, so sampling never lines up with a pattern in the work
+					long untimed = thread % latencySampling;
+					while (true) {
+						if (quota > 0) {
+							if (remaining.getAndDecrement() <= 0) break;
+						} else if (stop.get()) {
+							break;
+						}
+						Object result;
+						if (untimed == 0) {
+							long begin = System.nanoTime();
+							result = benchmark.run(thread, done);
+							latency.record(System.nanoTime() - begin);
+							untimed = latencySampling;
+						} else {
+							result = benchmark.run(thread, done);
+						}
+						untimed--;
+						if (result == trap) sink = result;
+						done++;
+					}
+				} catch (Throwable e) {
+					synchronized (failure) {
+						if (failure[0] == null) failure[0] = e;
+					}
+				} finally {
+					operations.addAndGet(done);
+					finished.countDown();
+				}
+			}, "bench-" + t);
+			workers[t].start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		if (quota <= 0) {
+			finished.await(iterationMillis, TimeUnit.MILLISECONDS);
+			stop.set(true);
+		}
+		finished.await();
+		long elapsed = System.nanoTime() - begin;
+
+		if (failure[0] != null) {
+			throw new IllegalStateException(benchmark.getName() + " failed", failure[0]);
+		}
+		return operations.get() * 1e9 / elapsed;
+	}
+
+	// Every combination of parameter values, first parameter varying slowest
+	private static List<Map<String, String>> combinations(Map<String, String[]> parameters) {
+		List<Map<String, String>> combinations = new ArrayList<>();
+		combinations.add(new LinkedHashMap<>());
+		for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+			List<Map<String, String>> expanded = new ArrayList<>();
+			for (Map<String, String> partial : combinations) {
+				for (String value : parameter.getValue()) {
+					Map<String, String> combination = new LinkedHashMap<>(partial);
+					combination.put(parameter.getKey(), value);
+					expanded.add(combination);
+				}
+			}
+			combinations = expanded;
+		}
+		return combinations;
+	}
+
+	private void writeResults(List<Result> results) throws IOException {
+		Path file = resultFile;
+		if (file == null) {
+			String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+			file = Paths.get("bench-results", "results-" + timestamp + "." + format);
+		}
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			if ("csv".equals(format)) {
+				writeCsv(out, results);
+			} else {
+				writeJson(out, results);
+			}
+		}
+		System.out.println("Results written to " + file.toAbsolutePath());
+	}
+
+	private void writeJson(Writer out, List<Result> results) throws IOException {
+		out.write("{\n");
+		out.write("  \"jvm\": " + quote(System.getProperty("java.vm.name") + " " + System.getProperty("java.version")) + ",\n");
+		out.write("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+		out.write("  \"date\": " + quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date())) + ",\n");
+		out.write("  \"warmupIterations\": " + warmupIterations + ",\n");
+		out.write("  \"measurementIterations\": " + measurementIterations + ",\n");
+		out.write("  \"iterationMillis\": " + iterationMillis + ",\n");
+		out.write("  \"forks\": " + forks + ",\n");
+		out.write("  \"latencySampling\": " + latencySampling + ",\n");
+		out.write("  \"results\": [\n");
+		for (int r = 0; r < results.size(); r++) {
+			Result result = results.get(r);
+			out.write("    {\"benchmark\": " + quote(result.name) + ", \"threads\": " + result.threads + ", \"params\": {");
+			int p = 0;
+			for (Map.Entry<String, String> param : result.params.entrySet()) {
+				out.write((p++ > 0 ? ", " : "") + quote(param.getKey()) + ": " + quote(param.getValue()));
+			}
+			out.write("},\n     \"score\": " + round(result.mean()) + ", \"scoreError\": " + round(result.stdev())
+					+ ", \"scoreUnit\": \"ops/s\", \"rawData\": [");
+			for (int i = 0; i < result.scores.length; i++) {
+				out.write((i > 0 ? ", " : "") + round(result.scores[i]));
+			}
+			out.write("],\n     \"latencyNanos\": {\"p50\": " + result.latency.getPercentile(50)
+					+ ", \"p90\": " + result.latency.getPercentile(90)
+					+ ", \"p99\": " + result.latency.getPercentile(99)
+					+ ", \"p99.9\": " + result.latency.getPercentile(99.9) + "}}");
+			out.write(r < results.size() - 1 ? ",\n" : "\n");
+		}
+		out.write("  ]\n}\n");
+	}
+
+	private void writeCsv(Writer out, List<Result> results) throws IOException {
+		out.write("benchmark,params,threads,score,scoreError,unit,p50Nanos,p99Nanos\n");
+		for (Result result : results) {
+			StringBuilder params = new StringBuilder();
+			for (Map.Entry<String, String> param : result.params.entrySet()) {
+				if (params.length() > 0) params.append(';');
+				params.append(param.getKey()).append('=').append(param.getValue());
+			}
+			out.write(result.name + "," + params + "," + result.threads + "," + round(result.mean()) + ","
+					+ round(result.stdev()) + ",ops/s," + result.latency.getPercentile(50) + ","
+					+ result.latency.getPercentile(99) + "\n");
+		}
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static String round(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static class Result implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final String name;
+		final Map<String, String> params;
+		final int threads;
+		final double[] scores;
+		final LatencyRecorder latency;
+
+		Result(String name, Map<String, String> params, int threads, double[] scores, LatencyRecorder latency) {
+			this.name = name;
+			this.params = params;
+			this.threads = threads;
+			this.scores = scores;
+			this.latency = latency;
+		}
+
+		// This result's iterations followed by the other's, with both latency histograms
+		Result pool(Result other) {
+			double[] pooled = Arrays.copyOf(scores, scores.length + other.scores.length);
+			System.arraycopy(other.scores, 0, pooled, scores.length, other.scores.length);
+			LatencyRecorder latencies = new LatencyRecorder();
+			latencies.add(latency);
+			latencies.add(other.latency);
+			return new Result(name, params, threads, pooled, latencies);
+		}
+
+		double mean() {
+			double sum = 0;
+			for (double score : scores) sum += score;
+			return scores.length == 0 ? 0 : sum / scores.length;
+		}
+
+		double stdev() {
+			if (scores.length < 2) return 0;
+			double mean = mean();
+			double squares = 0;
+			for (double score : scores) squares += (score - mean) * (score - mean);
+			return Math.sqrt(squares / (scores.length - 1));
+		}
+	}
+
+}
@@ -0,0 +1,514 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmarks for the order, stock, invoice and payment write paths.
+ */
+public class OrderBenchmarks {
+
+	static List<Benchmark> all() {
+		return Arrays.asList(new CreateOrder(), new CreateOrdersBatch(), new CancelOrder(),
+				new RaiseInvoice(), new RecordPayment(), new ReserveStock(), new AddStock(),
+				new MutateStock(), new AddStockPublishing(), new CreateOrderDuringReports(),
+				new InvoiceLookup(), new MerchantLedger());
+	}
+
+	// Adds a "threads" parameter so the runner measures the path under contention
+	private static Map<String, String[]> withThreads(Map<String, String[]> parameters) {
+		parameters.put("threads", new String[] {"1", "4"});
+		return parameters;
+	}
+
+	// Scales the invoices already raised instead of the orders, so lookup cost can be
+	// compared across invoice counts. A million invoices take about 0.8 GB of heap, so
+	// run -p invoices=10000000 with -Xmx12g or more
+	private static Map<String, String[]> withInvoiceCounts(Map<String, String[]> parameters) {
+		parameters.remove("orders");
+		parameters.put("invoices", new String[] {"10000", "100000", "1000000"});
+		return parameters;
+	}
+
+	static class CreateOrder extends SystemBenchmark {
+
+		@Override
+		public String getName() {
+			return "createOrder";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			return withThreads(super.getParameters());
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			return data.orders.createOrder(data.newOrder(random(thread)));
+		}
+
+	}
+
+	static class CreateOrdersBatch extends SystemBenchmark {
+
+		@Override
+		public String getName() {
+			return "createOrders";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = withThreads(super.getParameters());
+			parameters.put("batch", new String[] {"100"});
+			return parameters;
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			Random random = random(thread);
+			List<Order> batch = new ArrayList<>();
+			for (int i = intParam("batch"); i > 0; i--) {
+				batch.add(data.newOrder(random));
+			}
+			return data.orders.createOrders(batch);
+		}
+
+	}
+
+	// Cancels a fresh pool of pending orders each iteration
+	static class CancelOrder extends SystemBenchmark {
+
+		private String[] pending;
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Override
+		public String getName() {
+			return "cancelOrder";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = withThreads(super.getParameters());
+			parameters.put("pool", new String[] {"50000"});
+			return parameters;
+		}
+
+		@Override
+		public void beforeIteration() {
+			Random random = new Random(7);
+			pending = new String[intParam("pool")];
+			for (int i = 0; i < pending.length; i++) {
+				pending[i] = data.orders.createOrder(data.newOrder(random));
+			}
+			next.set(0);
+		}
+
+		@Override
+		public long getOperationsPerIteration() {
+			return intParam("pool");
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			return data.orders.cancelOrder(pending[next.getAndIncrement()]);
+		}
+
+	}
+
+	// Invoices a fresh pool of orders each iteration
+	static class RaiseInvoice extends SystemBenchmark {
+
+		private String[] uninvoiced;
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Override
+		public String getName() {
+			return "raiseInvoice";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = withThreads(withInvoiceCounts(super.getParameters()));
+			parameters.put("pool", new String[] {"50000"});
+			return parameters;
+		}
+
+		@Override
+		public void beforeIteration() {
+			Random random = new Random(11);
+			uninvoiced = new String[intParam("pool")];
+			for (int i = 0; i < uninvoiced.length; i++) {
+				uninvoiced[i] = data.orders.createOrder(data.newOrder(random));
+			}
+			next.set(0);
+		}
+
+		@Override
+		public long getOperationsPerIteration() {
+			return intParam("pool");
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			return data.orders.raiseInvoice(uninvoiced[next.getAndIncrement()]);
+		}
+
+	}
+
+	static class RecordPayment extends SystemBenchmark {
+
+		@Override
+		public String getName() {
+			return "recordPayment";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			return withThreads(super.getParameters());
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			Random random = random(thread);
+			String merchantID = data.randomMerchant(random);
+			return data.orders.recordPayment(merchantID, data.newPayment(random, merchantID));
+		}
+
+	}
+
+	// Reserves and commits stock; a small hot set makes every thread contend on the same products
+	static class ReserveStock extends SystemBenchmark {
+
+		@Override
+		public String getName() {
+			return "reserveStock";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = withThreads(super.getParameters());
+			parameters.put("orders", new String[] {"10000"});
+			parameters.put("hotProducts", new String[] {"10", "1000"});
+			return parameters;
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			Random random = random(thread);
+			int hot = Math.min(intParam("hotProducts"), data.products.length);
+			OrderItem[] items = new OrderItem[1 + random.nextInt(4)];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = new OrderItem();
+				items[i].setProductID(data.products[random.nextInt(hot)].getProductID());
+				items[i].setQuantity(1 + random.nextInt(10));
+			}
+			StockReservation reservation = data.catalogue.reserveStock(items);
+			data.catalogue.commitReservation(reservation);
+			return reservation;
+		}
+
+	}
+
+	// Adds stock by item number, as the stock-control client does
+	static class AddStock extends SystemBenchmark {
+
+		protected int[] itemNumbers;
+
+		@Override
+		public String getName() {
+			return "addStock";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = withThreads(super.getParameters());
+			parameters.put("orders", new String[] {"10000"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			super.setup(params);
+			itemNumbers = new int[data.products.length];
+			for (int i = 0; i < itemNumbers.length; i++) {
+				itemNumbers[i] = Integer.parseInt(data.products[i].getProductID());
+			}
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			int itemNumber = itemNumbers[random(thread).nextInt(itemNumbers.length)];
+			data.catalogue.addStock(itemNumber, 1);
+			return data.catalogue;
+		}
+
+	}
+
+	// Stock changes from the pharmacy client, one at a time or a batch per call; half take stock out
+	static class MutateStock extends AddStock {
+
+		private I_IPOS_CA stockControl;
+		private int[][] batchItems;
+		private int[][] batchDeltas;
+		private int[][] levels;
+
+		@Override
+		public String getName() {
+			return "mutateStock";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("batch", new String[] {"1", "100"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			super.setup(params);
+			stockControl = new IPOS_CA_API(data.catalogue);
+			int batch = intParam("batch");
+			Random random = new Random(5);
+			batchItems = new int[64][batch];
+			batchDeltas = new int[64][batch];
+			for (int i = 0; i < batchItems.length; i++) {
+				for (int line = 0; line < batch; line++) {
+					batchItems[i][line] = itemNumbers[random.nextInt(itemNumbers.length)];
+					batchDeltas[i][line] = random.nextBoolean() ? 1 : -1;
+				}
+			}
+			levels = new int[256][batch];
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			int i = (int) (iteration & 63);
+			if (batchItems[i].length == 1) {
+				return stockControl.mutateStock(batchItems[i][0], batchDeltas[i][0]);
+			}
+			return stockControl.mutateStock(batchItems[i], batchDeltas[i], levels[thread]);
+		}
+
+	}
+
+	// addStock with the catalogue publishing each change to subscribers that drain the bus
+	static class AddStockPublishing extends AddStock {
+
+		private EventBus bus;
+
+		@Override
+		public String getName() {
+			return "addStockPublishing";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("subscribers", new String[] {"1", "4"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			super.setup(params);
+			bus = new EventBus();
+			for (int i = intParam("subscribers"); i > 0; i--) {
+				bus.subscribe("bench-" + i, events -> { });
+			}
+			data.catalogue.setEventBus(bus);
+		}
+
+		@Override
+		public void teardown() {
+			bus.close();
+			super.teardown();
+		}
+
+	}
+
+	// Order entry while another thread runs reports back to back, to show what
+	// opening a ReadView for each report costs the writers
+	static class CreateOrderDuringReports extends CreateOrder {
+
+		private Thread reporter;
+		private volatile boolean stopping;
+
+		@Override
+		public String getName() {
+			return "createOrderDuringReports";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("reports", new String[] {"none", "turnover", "merchant"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			super.setup(params);
+			if ("none".equals(params.get("reports"))) return;
+
+			BenchData system = data;
+			DateRange quarter = system.lastQuarter();
+			stopping = false;
+			reporter = new Thread(() -> {
+				Random random = new Random(7);
+				ReportWriter out = new ReportWriter(Writer.nullWriter());
+				try {
+					while (!stopping) {
+						if ("turnover".equals(params.get("reports"))) {
+							system.reporting.writeTurnoverReport(quarter, out);
+						} else {
+							system.reporting.writeMerchantReport(system.randomMerchant(random), out);
+						}
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}, "bench-reporter");
+			reporter.setDaemon(true);
+			reporter.start();
+		}
+
+		@Override
+		public void teardown() {
+			stopping = true;
+			if (reporter != null) {
+				try {
+					reporter.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				reporter = null;
+			}
+			super.teardown();
+		}
+
+	}
+
+	// Reads invoices through each index: the existing invoice for an order,
+	// a merchant's invoices and the first unpaid invoice due
+	static class InvoiceLookup extends SystemBenchmark {
+
+		@Override
+		public String getName() {
+			return "invoiceLookup";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = withInvoiceCounts(super.getParameters());
+			parameters.put("lookup", new String[] {"raiseExisting", "byMerchant", "firstUnpaidDue"});
+			return parameters;
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			Random random = random(thread);
+			switch (params.get("lookup")) {
+				case "raiseExisting":
+					return data.orders.raiseInvoice(data.orderIDs.get(random.nextInt(data.invoiceIDs.size())));
+				case "byMerchant":
+					return data.orders.getInvoicesForMerchant(data.randomMerchant(random)).size();
+				case "firstUnpaidDue":
+					return data.orders.getFirstUnpaidDueDateFrom(new Date());
+				default:
+					throw new IllegalArgumentException("Unknown lookup: " + params.get("lookup"));
+			}
+		}
+
+	}
+
+	// Charges and pays a few merchants held near their credit limit from every thread, and fails
+	// the run if a balance ever goes over the limit or ends up different from the sum of its changes
+	static class MerchantLedger extends SystemBenchmark {
+
+		private static final long CREDIT_LIMIT_PENCE = 100000;
+
+		private Merchant[] hot;
+		private long[] startPence;
+		private LongAdder[] changedPence;
+		private final AtomicBoolean overLimit = new AtomicBoolean();
+
+		@Override
+		public String getName() {
+			return "merchantLedger";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = withThreads(super.getParameters());
+			parameters.put("orders", new String[] {"0"});
+			parameters.put("hotMerchants", new String[] {"1", "100"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			super.setup(params);
+			hot = new Merchant[Math.min(intParam("hotMerchants"), data.merchantIDs.length)];
+			startPence = new long[hot.length];
+			changedPence = new LongAdder[hot.length];
+			for (int i = 0; i < hot.length; i++) {
+				data.accounts.UpdateCreditLimit(data.merchantIDs[i], Money.toPounds(CREDIT_LIMIT_PENCE));
+				hot[i] = data.accounts.getMerchant(data.merchantIDs[i]);
+				changedPence[i] = new LongAdder();
+			}
+		}
+
+		@Override
+		public void beforeIteration() {
+			verify();
+			for (int i = 0; i < hot.length; i++) {
+				startPence[i] = hot[i].getBalancePence();
+				changedPence[i].reset();
+			}
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			Random random = random(thread);
+			int i = random.nextInt(hot.length);
+			long amountPence = 1 + random.nextInt(5000);
+			if (random.nextInt(4) == 0) {
+				Payment payment = new Payment();
+				payment.setPaymentID("PAY" + iteration);
+				payment.setAmountPence(amountPence);
+				data.accounts.ApplyPayment(hot[i].getMerchantID(), payment);
+				changedPence[i].add(-amountPence);
+			} else if (data.accounts.reserveCredit(hot[i], amountPence)) {
+				changedPence[i].add(amountPence);
+			}
+			if (hot[i].getBalancePence() > CREDIT_LIMIT_PENCE) {
+				overLimit.set(true);
+			}
+			return hot[i];
+		}
+
+		@Override
+		public void teardown() {
+			verify();
+			super.teardown();
+		}
+
+		private void verify() {
+			if (overLimit.get()) {
+				throw new IllegalStateException("A balance went over the credit limit");
+			}
+			for (int i = 0; i < hot.length; i++) {
+				long expected = startPence[i] + changedPence[i].sum();
+				if (hot[i].getBalancePence() != expected) {
+					throw new IllegalStateException(hot[i].getMerchantID() + " balance is " +
+							hot[i].getBalancePence() + ", expected " + expected);
+				}
+			}
+		}
+
+	}
+
+}
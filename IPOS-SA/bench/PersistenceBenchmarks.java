@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for the write-ahead log: append latency under each fsync
+ * policy, and the time a restart takes to rebuild the stores from the
+ * latest snapshot and the log written after it. Logs are written to a
+ * temporary directory that is deleted on teardown.
+ */
+public class PersistenceBenchmarks {
+
+	static List<Benchmark> all() {
+		return Arrays.asList(new WalAppend(), new Recovery());
+	}
+
+	static void delete(Path directory) throws IOException {
+		if (directory == null || !Files.exists(directory)) return;
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	// One record appended per operation; under EVERY_COMMIT that includes the wait for its fsync
+	static class WalAppend extends Benchmark {
+
+		private Path directory;
+		private WriteAheadLog wal;
+		private byte[] payload;
+
+		@Override
+		public String getName() {
+			return "walAppend";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = new LinkedHashMap<>();
+			parameters.put("fsync", new String[] {"EVERY_COMMIT", "INTERVAL", "NEVER"});
+			parameters.put("payloadBytes", new String[] {"64", "1024"});
+			parameters.put("threads", new String[] {"1", "4"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			directory = Files.createTempDirectory("ipos-wal-bench");
+			wal = WriteAheadLog.open(directory, WriteAheadLog.FsyncPolicy.valueOf(params.get("fsync")), 10, 1);
+			payload = new byte[Integer.parseInt(params.get("payloadBytes"))];
+			new Random(42).nextBytes(payload);
+		}
+
+		// Keeps only the current iteration's records on disk
+		@Override
+		public void beforeIteration() throws Exception {
+			wal.deleteSegmentsBefore(wal.rotate());
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			return wal.append((byte) 1, payload);
+		}
+
+		@Override
+		public void teardown() throws Exception {
+			wal.close();
+			delete(directory);
+		}
+
+	}
+
+	// Opens a fresh set of stores on a log holding a snapshot plus the records written after it
+	static class Recovery extends Benchmark {
+
+		private Path directory;
+
+		@Override
+		public String getName() {
+			return "recovery";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = new LinkedHashMap<>();
+			parameters.put("orders", new String[] {"10000", "100000"});
+			// Orders placed after the snapshot, replayed from the log
+			parameters.put("logOrders", new String[] {"0", "10000"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			directory = Files.createTempDirectory("ipos-recovery-bench");
+			int orders = Integer.parseInt(params.get("orders"));
+			BenchData data = BenchData.generate(100, 1000, orders, orders / 3, 42, directory);
+			data.persistence.checkpoint();
+			Random random = new Random(7);
+			for (int i = Integer.parseInt(params.get("logOrders")); i > 0; i--) {
+				data.orders.createOrder(data.newOrder(random));
+			}
+			data.persistence.close();
+		}
+
+		@Override
+		public Object run(int thread, long iteration) throws Exception {
+			AccountManagement_API accounts = new AccountManagement_API();
+			ProductCatalogue_API catalogue = new ProductCatalogue_API();
+			OrderManagment_API orders = new OrderManagment_API(accounts, catalogue);
+			PersistenceManager persistence = new PersistenceManager(directory, WriteAheadLog.FsyncPolicy.NEVER, 0,
+					accounts, catalogue, orders);
+			persistence.open();
+			persistence.close();
+			return orders;
+		}
+
+		@Override
+		public void teardown() throws Exception {
+			delete(directory);
+		}
+
+	}
+
+}
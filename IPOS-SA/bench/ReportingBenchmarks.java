@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Benchmarks for every Reporting_API report, both as a returned String and
+ * streamed to a Writer that discards its input, and for the all-merchant
+ * reports run sequentially and in parallel.
+ */
+public class ReportingBenchmarks {
+
+	static List<Benchmark> all() {
+		return Arrays.asList(new GenerateReport(), new AllMerchantReport(), new RecentOrders(),
+				new FirstPage(), new LineScan(), new ProductSearch());
+	}
+
+	static class GenerateReport extends SystemBenchmark {
+
+		private DateRange quarter;
+
+		@Override
+		public String getName() {
+			return "report";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("products", new String[] {"1000", "20000"});
+			parameters.put("report", new String[] {"merchant", "stock", "orderSummary",
+					"salesPerformance", "overdue", "turnover"});
+			parameters.put("output", new String[] {"string", "stream"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			super.setup(params);
+			quarter = data.lastQuarter();
+		}
+
+		@Override
+		public Object run(int thread, long iteration) throws IOException {
+			Reporting_API reporting = data.reporting;
+			String merchantID = data.randomMerchant(random(thread));
+
+			if ("string".equals(params.get("output"))) {
+				switch (params.get("report")) {
+					case "merchant": return reporting.generateMerchantReport(merchantID);
+					case "stock": return reporting.generateStockReport();
+					case "orderSummary": return reporting.generateOrderSummary(merchantID);
+					case "salesPerformance": return reporting.generateSalesPerformanceReport(merchantID);
+					case "overdue": return reporting.generateOverduePaymentsReport();
+					case "turnover": return reporting.generateTurnoverReport(quarter);
+					default: throw new IllegalArgumentException("Unknown report: " + params.get("report"));
+				}
+			}
+
+			ReportWriter out = new ReportWriter(Writer.nullWriter());
+			switch (params.get("report")) {
+				case "merchant": reporting.writeMerchantReport(merchantID, out); break;
+				case "stock": reporting.writeStockReport(out); break;
+				case "orderSummary": reporting.writeOrderSummary(merchantID, out); break;
+				case "salesPerformance": reporting.writeSalesPerformanceReport(merchantID, out); break;
+				case "overdue": reporting.writeOverduePaymentsReport(out); break;
+				case "turnover": reporting.writeTurnoverReport(quarter, out); break;
+				default: throw new IllegalArgumentException("Unknown report: " + params.get("report"));
+			}
+			return out;
+		}
+
+	}
+
+	static class AllMerchantReport extends SystemBenchmark {
+
+		private DateRange quarter;
+
+		@Override
+		public String getName() {
+			return "allMerchantReport";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("merchants", new String[] {"100", "100000"});
+			parameters.put("orders", new String[] {"100000"});
+			parameters.put("report", new String[] {"overdue", "turnover"});
+			parameters.put("engine", new String[] {"sequential", "forkJoin"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			super.setup(params);
+			quarter = data.lastQuarter();
+			data.reporting.setReportEngine("sequential".equals(params.get("engine"))
+					? ParallelReportEngine.sequential() : new ParallelReportEngine());
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			switch (params.get("report")) {
+				case "overdue": return data.reporting.generateOverduePaymentsReport();
+				case "turnover": return data.reporting.generateTurnoverReport(quarter);
+				default: throw new IllegalArgumentException("Unknown report: " + params.get("report"));
+			}
+		}
+
+	}
+
+	// The newest page of a merchant's orders, as a screen would show it, read
+	// from a copy of the whole history or in place
+	static class RecentOrders extends SystemBenchmark {
+
+		private static final int PAGE = 50;
+
+		@Override
+		public String getName() {
+			return "recentOrders";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("merchants", new String[] {"1", "100"});
+			parameters.put("orders", new String[] {"100000"});
+			parameters.put("read", new String[] {"copy", "inPlace"});
+			return parameters;
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			String merchantID = data.randomMerchant(random(thread));
+			if ("copy".equals(params.get("read"))) {
+				Order[] history = data.orders.orderHistory(merchantID);
+				return Arrays.asList(history).subList(Math.max(0, history.length - PAGE), history.length);
+			}
+			List<Order> history = data.orders.getOrderHistory(merchantID);
+			return history.subList(Math.max(0, history.size() - PAGE), history.size());
+		}
+
+	}
+
+	// The first page of a find query, as a screen listing rows would fetch it,
+	// against copying the whole collection as the list methods do
+	static class FirstPage extends SystemBenchmark {
+
+		private static final int PAGE = 50;
+
+		@Override
+		public String getName() {
+			return "firstPage";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("orders", new String[] {"100000"});
+			parameters.put("query", new String[] {"orders", "pendingOrders", "merchantOrders",
+					"invoices", "products", "merchants"});
+			parameters.put("read", new String[] {"list", "find"});
+			return parameters;
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			boolean find = "find".equals(params.get("read"));
+			switch (params.get("query")) {
+				case "orders":
+					return find ? data.orders.findOrders(null, null, null, null, PAGE, null)
+							: data.orders.getAllOrders();
+				case "pendingOrders":
+					return find ? data.orders.findOrders(null, OrderStatus.PENDING, null, null, PAGE, null)
+							: data.orders.getOrdersByStatus(OrderStatus.PENDING);
+				case "merchantOrders": {
+					String merchantID = data.randomMerchant(random(thread));
+					return find ? data.orders.findOrders(merchantID, null, null, null, PAGE, null)
+							: data.orders.orderHistory(merchantID);
+				}
+				case "invoices":
+					return find ? data.orders.findInvoices(null, InvoiceStatus.ISSUED, PAGE, null)
+							: data.orders.getInvoicesByStatus(InvoiceStatus.ISSUED);
+				case "products":
+					return find ? data.catalogue.findProducts(false, PAGE, null) : data.catalogue.listProducts();
+				case "merchants":
+					return find ? data.accounts.findMerchants(null, null, PAGE, null) : data.accounts.getAllMerchants();
+				default: throw new IllegalArgumentException("Unknown query: " + params.get("query"));
+			}
+		}
+
+	}
+
+	// A quarter's sales per product summed from the columnar order lines, or by walking the
+	// Order and OrderItem objects the way reports did before the line store. At 1M orders
+	// the generated system needs about 3 GB of heap (-Xmx4g)
+	static class LineScan extends SystemBenchmark {
+
+		private List<Order> orders;
+		private long firstDay;
+		private long lastDay;
+
+		@Override
+		public String getName() {
+			return "lineScan";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("orders", new String[] {"100000", "1000000"});
+			parameters.put("layout", new String[] {"columnar", "objects"});
+			return parameters;
+		}
+
+		@Override
+		public void setup(Map<String, String> params) throws Exception {
+			super.setup(params);
+			orders = new ArrayList<>(data.orders.getAllOrders());
+			DateRange quarter = data.lastQuarter();
+			firstDay = SalesAggregates.epochDay(quarter.getStart());
+			lastDay = SalesAggregates.epochDay(new Date(quarter.getEnd().getTime() - 1));
+
+			// Both layouts must do the same work
+			SalesAggregates.Turnover columnar = scanColumns();
+			SalesAggregates.Turnover objects = walkObjects();
+			if (columnar.getOrders() != objects.getOrders() || columnar.getRevenuePence() != objects.getRevenuePence()) {
+				throw new IllegalStateException("Layouts disagree: " + columnar.getOrders() + " orders, "
+						+ columnar.getRevenuePence() + "p against " + objects.getOrders() + " orders, "
+						+ objects.getRevenuePence() + "p");
+			}
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			return "columnar".equals(params.get("layout")) ? scanColumns() : walkObjects();
+		}
+
+		private SalesAggregates.Turnover scanColumns() {
+			SalesAggregates.Turnover turnover = new SalesAggregates.Turnover();
+			OrderLineStore lines = data.orders.getOrderLineStore();
+			lines.addTurnover(turnover, firstDay, lastDay, lines.size());
+			return turnover;
+		}
+
+		private SalesAggregates.Turnover walkObjects() {
+			long from = SalesAggregates.startOfDay(firstDay);
+			long to = SalesAggregates.startOfDay(lastDay + 1);
+			Map<String, long[]> products = new HashMap<>();
+			long count = 0;
+			for (Order order : orders) {
+				long placed = order.getOrderDate().getTime();
+				if (placed < from || placed >= to || order.getStatus() == OrderStatus.CANCELLED) continue;
+				count++;
+				for (OrderItem item : order.getItems()) {
+					long[] totals = products.computeIfAbsent(item.getProductID(), k -> new long[2]);
+					totals[0] += item.getQuantity();
+					totals[1] += Money.times(item.getUnitPricePence(), item.getQuantity());
+				}
+			}
+
+			SalesAggregates.Turnover turnover = new SalesAggregates.Turnover();
+			turnover.addOrders(count);
+			for (Map.Entry<String, long[]> product : products.entrySet()) {
+				turnover.addProduct(product.getKey(), product.getValue()[0], product.getValue()[1]);
+			}
+			return turnover;
+		}
+
+		@Override
+		public void teardown() {
+			orders = null;
+			super.teardown();
+		}
+
+	}
+
+	// A page of ranked search results from ProductSearchIndex, or from scanning every
+	// product and ranking the matches in the same tiers. Queries hit each tier in turn:
+	// an ID prefix, a word of the name, and a run of characters inside a name
+	static class ProductSearch extends SystemBenchmark {
+
+		private static final int PAGE = 20;
+
+		@Override
+		public String getName() {
+			return "productSearch";
+		}
+
+		@Override
+		public Map<String, String[]> getParameters() {
+			Map<String, String[]> parameters = super.getParameters();
+			parameters.put("orders", new String[] {"0"});
+			parameters.put("products", new String[] {"1000", "100000"});
+			parameters.put("query", new String[] {"idPrefix", "word", "substring"});
+			parameters.put("search", new String[] {"index", "scan"});
+			return parameters;
+		}
+
+		@Override
+		public Object run(int thread, long iteration) {
+			Random random = random(thread);
+			int products = data.products.length;
+			String query;
+			switch (params.get("query")) {
+				case "idPrefix": query = String.valueOf(50000000 + random.nextInt(products)).substring(0, 6); break;
+				case "word": query = String.valueOf(10 + random.nextInt(490)); break;
+				case "substring": query = "uct " + random.nextInt(products); break;
+				default: throw new IllegalArgumentException("Unknown query: " + params.get("query"));
+			}
+			return "index".equals(params.get("search"))
+					? data.catalogue.searchProducts(query, 0, PAGE) : scan(query);
+		}
+
+		private List<Product> scan(String query) {
+			String lower = query.toLowerCase(Locale.ROOT);
+			List<Product> matches = new ArrayList<>();
+			List<Integer> tiers = new ArrayList<>();
+			for (Product product : data.catalogue.listProducts()) {
+				int tier = tier(product, query, lower);
+				if (tier >= 0) {
+					matches.add(product);
+					tiers.add(tier);
+				}
+			}
+
+			Integer[] order = new Integer[matches.size()];
+			for (int i = 0; i < order.length; i++) order[i] = i;
+			Arrays.sort(order, Comparator.<Integer>comparingInt(tiers::get)
+					.thenComparing(i -> matches.get(i).getName().toLowerCase(Locale.ROOT)));
+			List<Product> page = new ArrayList<>(PAGE);
+			for (int i = 0; i < order.length && page.size() < PAGE; i++) {
+				page.add(matches.get(order[i]));
+			}
+			return page;
+		}
+
+		// 0 for an ID prefix, 1 a name prefix, 2 a word of the name, 3 anywhere; -1 for no match
+		private static int tier(Product product, String query, String lower) {
+			String name = product.getName().toLowerCase(Locale.ROOT);
+			if (product.getProductID().startsWith(query)) return 0;
+			if (name.startsWith(lower)) return 1;
+			if (name.contains(" " + lower) || name.contains("," + lower)) return 2;
+			if (name.contains(lower) || product.getProductID().toLowerCase(Locale.ROOT).contains(lower)) return 3;
+			return -1;
+		}
+
+	}
+
+}
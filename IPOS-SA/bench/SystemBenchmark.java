@@ -0,0 +1,56 @@
+import java.util.*;
+
+/**
+ * Base for benchmarks that run against a generated system. The scale
+ * parameters control how much data is generated; each thread gets its own
+ * seeded Random.
+ */
+public abstract class SystemBenchmark extends Benchmark {
+
+	private static final int MAX_THREADS = 256;
+
+	protected BenchData data;
+	protected Map<String, String> params;
+	private final Random[] randoms = new Random[MAX_THREADS];
+
+	@Override
+	public Map<String, String[]> getParameters() {
+		Map<String, String[]> parameters = new LinkedHashMap<>();
+		parameters.put("merchants", new String[] {"100"});
+		parameters.put("products", new String[] {"1000"});
+		parameters.put("orders", new String[] {"10000", "100000"});
+		parameters.put("invoices", new String[] {"3000"});
+		return parameters;
+	}
+
+	@Override
+	public void setup(Map<String, String> params) throws Exception {
+		this.params = params;
+		rebuild();
+	}
+
+	// Replaces the system with freshly generated data
+	protected void rebuild() {
+		// Without an orders parameter, one order is generated for each invoice
+		int orders = params.containsKey("orders") ? intParam("orders") : intParam("invoices");
+		data = BenchData.generate(intParam("merchants"), intParam("products"),
+				orders, intParam("invoices"), 42);
+		for (int i = 0; i < randoms.length; i++) {
+			randoms[i] = new Random(1000 + i);
+		}
+	}
+
+	protected Random random(int thread) {
+		return randoms[thread];
+	}
+
+	protected int intParam(String name) {
+		return Integer.parseInt(params.get(name));
+	}
+
+	@Override
+	public void teardown() {
+		data = null;
+	}
+
+}
@@ -1,13 +1,28 @@
 // AccountManagement_API.java
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 public class AccountManagement_API implements IAccountManagement {
 
-	private Map<String, Merchant> merchants = new ConcurrentHashMap<>();
+	// Merchants by handle
+	private final IdRegistry merchantIds = new IdRegistry();
+	private final IntMap<Merchant> merchants = new IntMap<>();
+	// Every handle below this that has a merchant has it stored, so paging never passes one still being added
+	private volatile int listedHandles;
 	private Map<String, Admin> admins = new ConcurrentHashMap<>();
 	private Map<String, Manager> managers = new ConcurrentHashMap<>();
+	// Plans merchants can be put on, by plan ID
 	private Map<String, DiscountPlan> discountPlans = new ConcurrentHashMap<>();
+	// Each merchant's plan, compiled, by merchant handle
+	private final IntMap<DiscountRule> discountRules = new IntMap<>();
+	private PersistenceManager persistence;
+	private EventBus events;
+	// Bumped after every change to a merchant
+	private final AtomicLong changes = new AtomicLong();
+	private final StatusIndex<MerchantStatus, Merchant> merchantsByStatus =
+			new StatusIndex<>(MerchantStatus.class, Merchant::getStatus, this::statusKey);
 
 	public AccountManagement_API() {
 		// Initialize with some sample data
@@ -25,7 +40,9 @@ public class AccountManagement_API implements IAccountManagement {
 		DiscountPlan flexiblePlan = new DiscountPlan();
 		flexiblePlan.setPlanID("FLEX001");
 		flexiblePlan.setDescription("Flexible discount: 1% (<1000), 2% (1000-2000), 3% (>2000)");
-		flexiblePlan.setDiscountRate(0.0); // Rate calculated based on order value
+		flexiblePlan.setDiscountRate(0.0); // Rate calculated from the month's spend
+		flexiblePlan.setType(DiscountPlan.Type.FLEXIBLE);
+		flexiblePlan.setTiers(new long[] {0, 100000, 200001}, new double[] {1.0, 2.0, 3.0});
 		discountPlans.put(flexiblePlan.getPlanID(), flexiblePlan);
 
 		// Create sample admin
@@ -42,7 +59,12 @@ public class AccountManagement_API implements IAccountManagement {
 		if (merchantID == null || merchantID.trim().isEmpty()) {
 			throw new IllegalArgumentException("Merchant ID cannot be null or empty");
 		}
-		return merchants.get(merchantID);
+		return findMerchant(merchantID);
+	}
+
+	private Merchant findMerchant(String merchantID) {
+		int handle = merchantIds.handleOf(merchantID);
+		return handle == IdRegistry.NONE ? null : merchants.get(handle);
 	}
 
 	@Override
@@ -58,7 +80,7 @@ public class AccountManagement_API implements IAccountManagement {
 		}
 
 		// Check if merchant already exists
-		if (merchants.containsKey(merchant.getMerchantID())) {
+		if (findMerchant(merchant.getMerchantID()) != null) {
 			return false;
 		}
 
@@ -72,10 +94,19 @@ public class AccountManagement_API implements IAccountManagement {
 		}
 
 		if (merchant.getStatus() == null) {
-			merchant.setStatus("ACTIVE");
+			merchant.setStatus(MerchantStatus.ACTIVE);
 		}
 
-		merchants.put(merchant.getMerchantID(), merchant);
+		// Log before publishing so no change to this merchant can be logged ahead of it
+		synchronized (merchants) {
+			if (findMerchant(merchant.getMerchantID()) != null) {
+				return false;
+			}
+			if (persistence != null) persistence.logMerchant(merchant);
+			store(merchant);
+		}
+		merchantsByStatus.update(merchant);
+		changes.incrementAndGet();
 		return true;
 	}
 
@@ -85,12 +116,14 @@ public class AccountManagement_API implements IAccountManagement {
 			return false;
 		}
 
-		Merchant merchant = merchants.get(merchantID);
+		Merchant merchant = findMerchant(merchantID);
 		if (merchant == null) {
 			return false;
 		}
 
 		merchant.setCreditLimit(newLimit);
+		if (persistence != null) persistence.logCreditLimit(merchant);
+		changes.incrementAndGet();
 		return true;
 	}
 
@@ -100,7 +133,7 @@ public class AccountManagement_API implements IAccountManagement {
 			throw new IllegalArgumentException("Merchant ID cannot be null");
 		}
 
-		Merchant merchant = merchants.get(merchantID);
+		Merchant merchant = findMerchant(merchantID);
 		if (merchant == null) {
 			throw new IllegalArgumentException("Merchant not found: " + merchantID);
 		}
@@ -114,32 +147,88 @@ public class AccountManagement_API implements IAccountManagement {
 			return false;
 		}
 
-		Merchant merchant = merchants.get(merchantID);
+		Merchant merchant = findMerchant(merchantID);
 		if (merchant == null) {
 			return false;
 		}
 
 		// Update merchant balance (reduce debt)
-		double currentBalance = merchant.getBalance();
-		merchant.setBalance(currentBalance - payment.getAmount());
+		long amountPence = payment.getAmountPence();
+		merchant.adjustBalance(-amountPence);
+		if (persistence != null) persistence.logBalanceChange(merchantID, -amountPence);
 
 		// Update merchant status based on payment
 		updateMerchantStatusAfterPayment(merchant);
+		changes.incrementAndGet();
 
 		return true;
 	}
 
+	// Checks the credit limit and adds the amount to the balance as one atomic step
+	public boolean reserveCredit(Merchant merchant, long amountPence) {
+		if (!merchant.tryCharge(amountPence)) {
+			return false;
+		}
+		changes.incrementAndGet();
+		return true;
+	}
+
+	public void releaseCredit(Merchant merchant, long amountPence) {
+		merchant.adjustBalance(-amountPence);
+		changes.incrementAndGet();
+	}
+
+	/**
+	 * Reserves each amount against its merchant as reserveCredit(Merchant, long)
+	 * would, in order, and counts the reservations made as one change. Each
+	 * stands alone: a refused line does not stop the rest.
+	 * @param merchants
+	 * @param amountsPence
+	 * @param reserved receives whether each line was reserved
+	 * @return the number of lines reserved
+	 */
+	public int reserveCredit(Merchant[] merchants, long[] amountsPence, boolean[] reserved) {
+		if (merchants.length != amountsPence.length || reserved.length < merchants.length) {
+			throw new IllegalArgumentException("Merchants, amounts and results must be the same length");
+		}
+
+		int count = 0;
+		for (int line = 0; line < merchants.length; line++) {
+			reserved[line] = merchants[line].tryCharge(amountsPence[line]);
+			if (reserved[line]) count++;
+		}
+		if (count > 0) changes.incrementAndGet();
+		return count;
+	}
+
+	// Gives each amount back to its merchant as releaseCredit(Merchant, long) would, as one change
+	public void releaseCredit(Merchant[] merchants, long[] amountsPence) {
+		if (merchants.length != amountsPence.length) {
+			throw new IllegalArgumentException("Merchants and amounts must be the same length");
+		}
+		if (merchants.length == 0) return;
+
+		for (int line = 0; line < merchants.length; line++) {
+			merchants[line].adjustBalance(-amountsPence[line]);
+		}
+		changes.incrementAndGet();
+	}
+
 	private void updateMerchantStatusAfterPayment(Merchant merchant) {
-		double balance = merchant.getBalance();
-		String currentStatus = merchant.getStatus();
-
-		if (balance <= 0) {
-			merchant.setStatus("ACTIVE");
-		} else if (balance > 0 && balance <= merchant.getCreditLimit()) {
-			if ("SUSPENDED".equals(currentStatus) || "IN_DEFAULT".equals(currentStatus)) {
-				// Keep as is, manager must reactivate
-			} else {
-				merchant.setStatus("ACTIVE");
+		while (true) {
+			long balance = merchant.getBalancePence();
+			MerchantStatus current = merchant.getStatus();
+
+			// A cleared balance reactivates the account; otherwise a manager must reactivate it
+			if (balance > 0 || current == null || current == MerchantStatus.ACTIVE) return;
+
+			if (merchant.transition(current, MerchantStatus.ACTIVE)) {
+				if (persistence != null) persistence.logMerchantStatus(merchant);
+				merchantsByStatus.update(merchant);
+				if (events != null) {
+					events.publish(new DomainEvent.StatusChanged(merchant.getMerchantID(), current, MerchantStatus.ACTIVE));
+				}
+				return;
 			}
 		}
 	}
@@ -158,6 +247,7 @@ public class AccountManagement_API implements IAccountManagement {
 		}
 
 		admins.put(admin.getAdminID(), admin);
+		if (persistence != null) persistence.logAdmin(admin);
 		return true;
 	}
 
@@ -171,21 +261,37 @@ public class AccountManagement_API implements IAccountManagement {
 		}
 
 		managers.put(manager.getManagerID(), manager);
+		if (persistence != null) persistence.logManager(manager);
 		return true;
 	}
 
+	/**
+	 * Puts the merchant on the plan. Orders placed from now on are priced
+	 * under it. Fails if the plan's rates or tiers are not valid.
+	 * @param merchantID
+	 * @param plan
+	 */
 	public boolean updateDiscountPlan(String merchantID, DiscountPlan plan) {
 		if (merchantID == null || plan == null) {
 			return false;
 		}
 
-		Merchant merchant = merchants.get(merchantID);
-		if (merchant == null) {
+		int handle = merchantIds.handleOf(merchantID);
+		if (handle == IdRegistry.NONE || merchants.get(handle) == null) {
+			return false;
+		}
+
+		DiscountRule rule;
+		try {
+			rule = DiscountRule.compile(plan);
+		} catch (IllegalArgumentException e) {
 			return false;
 		}
 
-		// Store discount plan association
-		discountPlans.put(merchantID + "_PLAN", plan);
+		synchronized (discountRules) {
+			if (persistence != null) persistence.logDiscountBinding(merchantID, plan);
+			discountRules.put(handle, rule);
+		}
 		return true;
 	}
 
@@ -195,21 +301,16 @@ public class AccountManagement_API implements IAccountManagement {
 		}
 
 		// Check if it's a merchant account
-		Merchant merchant = merchants.get(accountID);
+		Merchant merchant = findMerchant(accountID);
 		if (merchant != null) {
-			// Only manager can change status from IN_DEFAULT
-			if ("IN_DEFAULT".equals(merchant.getStatus()) &&
-					!"ACTIVE".equals(status) && !"SUSPENDED".equals(status)) {
-				return false;
-			}
-			merchant.setStatus(status);
-			return true;
+			return changeMerchantStatus(merchant, MerchantStatus.fromName(status));
 		}
 
 		// Check if it's an admin account
 		Admin admin = admins.get(accountID);
 		if (admin != null) {
 			admin.setRole(status);
+			if (persistence != null) persistence.logAdmin(admin);
 			return true;
 		}
 
@@ -217,18 +318,115 @@ public class AccountManagement_API implements IAccountManagement {
 		Manager manager = managers.get(accountID);
 		if (manager != null) {
 			manager.setRegion(status);
+			if (persistence != null) persistence.logManager(manager);
 			return true;
 		}
 
 		return false;
 	}
 
+	/**
+	 * Moves the merchant to the status, if that move is allowed from the status
+	 * it has now. Setting the status it already has succeeds without a change.
+	 * @param merchantID
+	 * @param status
+	 */
+	public boolean changeMerchantStatus(String merchantID, MerchantStatus status) {
+		Merchant merchant = findMerchant(merchantID);
+		return merchant != null && changeMerchantStatus(merchant, status);
+	}
+
+	private boolean changeMerchantStatus(Merchant merchant, MerchantStatus status) {
+		if (status == null) {
+			return false;
+		}
+
+		MerchantStatus current;
+		do {
+			current = merchant.getStatus();
+			if (current == status) return true;
+			if (current == null || !current.canBecome(status)) return false;
+		} while (!merchant.transition(current, status));
+
+		if (persistence != null) persistence.logMerchantStatus(merchant);
+		merchantsByStatus.update(merchant);
+		changes.incrementAndGet();
+		if (events != null) events.publish(new DomainEvent.StatusChanged(merchant.getMerchantID(), current, status));
+		return true;
+	}
+
+	// Merchants with the status, in the order they were added
+	public List<Merchant> getMerchantsByStatus(MerchantStatus status) {
+		return merchantsByStatus.get(status);
+	}
+
+	public long countMerchants(MerchantStatus status) {
+		return merchantsByStatus.count(status);
+	}
+
 	public DiscountPlan getDiscountPlanForMerchant(String merchantID) {
-		return discountPlans.get(merchantID + "_PLAN");
+		DiscountRule rule = getDiscountRule(merchantID);
+		return rule == null ? null : rule.getPlan();
 	}
 
+	// The merchant's plan as compiled for pricing, or null if they have none
+	public DiscountRule getDiscountRule(String merchantID) {
+		int handle = merchantIds.handleOf(merchantID);
+		return handle == IdRegistry.NONE ? null : discountRules.get(handle);
+	}
+
+	public DiscountPlan getDiscountPlan(String planID) {
+		return planID == null ? null : discountPlans.get(planID);
+	}
+
+	// Grows each time a merchant is added or its balance, limit or status changes
+	public long getChangeCount() {
+		return changes.get();
+	}
+
+	// Called under the merchants lock, or during recovery
+	private void store(Merchant merchant) {
+		int handle = merchantIds.register(merchant.getMerchantID());
+		merchants.put(handle, merchant);
+		if (handle >= listedHandles) listedHandles = handle + 1;
+	}
+
+	/**
+	 * One page of merchants in the order they were added, keeping those that
+	 * match every filter given.
+	 * @param status null for any status
+	 * @param minBalancePence only merchants owing at least this, or null
+	 * @param limit
+	 * @param pageToken null for the first page
+	 */
+	@Override
+	public Page<Merchant> findMerchants(MerchantStatus status, Long minBalancePence, int limit, String pageToken) {
+		Page.checkLimit(limit);
+		int cursor = Page.cursor(pageToken);
+		Predicate<Merchant> filter = merchant -> (status == null || merchant.getStatus() == status)
+				&& (minBalancePence == null || merchant.getBalancePence() >= minBalancePence);
+
+		// A status is read from its group alone, so a rare one costs what it holds rather than every merchant
+		if (status != null) {
+			return Page.scan(merchantsByStatus.from(status, Integer.toString(cursor)),
+					merchant -> merchantIds.handleOf(merchant.getMerchantID()), filter, limit);
+		}
+		return Page.scan(cursor, listedHandles, merchants::get, filter, limit);
+	}
+
+	// Files a merchant in its status group by handle, which StatusIndex.ID_ORDER sorts as numbers
+	private String statusKey(Merchant merchant) {
+		return Integer.toString(merchantIds.handleOf(merchant.getMerchantID()));
+	}
+
+	// In the order they were added
 	public List<Merchant> getAllMerchants() {
-		return new ArrayList<>(merchants.values());
+		List<Merchant> list = new ArrayList<>(merchants.size());
+		for (int handle = 0, end = merchantIds.size(); handle < end; handle++) {
+			Merchant merchant = merchants.get(handle);
+			if (merchant != null) list.add(merchant);
+		}
+		return list;
 	}
 
 	public List<Admin> getAllAdmins() {
@@ -238,4 +436,63 @@ public class AccountManagement_API implements IAccountManagement {
 	public List<Manager> getAllManagers() {
 		return new ArrayList<>(managers.values());
 	}
+
+	void setPersistence(PersistenceManager persistence) {
+		this.persistence = persistence;
+	}
+
+	// Publishes every change made from now on; set before the store is shared
+	public void setEventBus(EventBus events) {
+		this.events = events;
+	}
+
+	// Used by recovery: stores entities as logged, without validation or logging
+
+	void restoreMerchant(Merchant merchant) {
+		store(merchant);
+		merchantsByStatus.update(merchant);
+	}
+
+	void restoreMerchantStatus(String merchantID, MerchantStatus status) {
+		Merchant merchant = findMerchant(merchantID);
+		if (merchant == null) return;
+
+		merchant.setStatus(status);
+		merchantsByStatus.update(merchant);
+	}
+
+	void restoreAdmin(Admin admin) {
+		admins.put(admin.getAdminID(), admin);
+	}
+
+	void restoreManager(Manager manager) {
+		managers.put(manager.getManagerID(), manager);
+	}
+
+	void restoreDiscountPlan(String key, DiscountPlan plan) {
+		// Older logs kept each merchant's plan in the catalogue under "<merchantID>_PLAN"
+		if (key != null && key.endsWith("_PLAN")) {
+			restoreDiscountBinding(key.substring(0, key.length() - "_PLAN".length()), plan);
+		} else {
+			discountPlans.put(key, plan);
+		}
+	}
+
+	void restoreDiscountBinding(String merchantID, DiscountPlan plan) {
+		discountRules.put(merchantIds.register(merchantID), DiscountRule.compile(plan));
+	}
+
+	Map<String, DiscountPlan> getDiscountPlanEntries() {
+		return new HashMap<>(discountPlans);
+	}
+
+	// Each merchant's plan, in the order the merchants were added
+	Map<String, DiscountPlan> getDiscountBindings() {
+		Map<String, DiscountPlan> bindings = new LinkedHashMap<>();
+		for (int handle = 0, end = merchantIds.size(); handle < end; handle++) {
+			DiscountRule rule = discountRules.get(handle);
+			if (rule != null) bindings.put(merchantIds.idOf(handle), rule.getPlan());
+		}
+		return bindings;
+	}
 }
\ No newline at end of file
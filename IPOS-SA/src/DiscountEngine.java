@@ -0,0 +1,212 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Keeps each merchant's spend and discount for every month as running totals,
+ * so pricing an order under a tiered plan reads one counter instead of adding
+ * up the month's orders, and month-end settlement is one pass over the totals.
+ *
+ * A tiered order is priced at the rate of the tier the month's spend reaches
+ * with that order. Earlier orders in the month were priced at lower tiers, so
+ * settlement credits the difference between the discount the whole month's
+ * spend earns and the discount already given. A month is settled once.
+ */
+public class DiscountEngine {
+
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+
+	// One merchant's totals for one month
+	private static final class MonthSpend {
+		final long startMillis;
+		final long endMillis;
+		final LongAdder spendPence = new LongAdder();
+		final LongAdder discountPence = new LongAdder();
+		final AtomicReference<Settlement> settled = new AtomicReference<>();
+
+		MonthSpend(YearMonth month) {
+			this.startMillis = month.atDay(1).atStartOfDay(ZONE).toInstant().toEpochMilli();
+			this.endMillis = month.plusMonths(1).atDay(1).atStartOfDay(ZONE).toInstant().toEpochMilli();
+		}
+	}
+
+	private static final class MerchantSpend {
+		final Map<YearMonth, MonthSpend> months = new ConcurrentHashMap<>();
+		// The month last looked up, so orders in the same month skip the calendar
+		volatile MonthSpend latest;
+
+		MonthSpend month(Date date) {
+			long time = date.getTime();
+			MonthSpend month = latest;
+			if (month != null && time >= month.startMillis && time < month.endMillis) {
+				return month;
+			}
+			month = months.computeIfAbsent(YearMonth.from(localDate(date)), MonthSpend::new);
+			latest = month;
+			return month;
+		}
+	}
+
+	private final Map<String, MerchantSpend> merchants = new ConcurrentHashMap<>();
+
+	/**
+	 * The percentage off for an order placed under the rule. A tiered rule
+	 * uses the merchant's spend so far that month plus this order.
+	 * @param rule
+	 * @param merchantID
+	 * @param orderDate
+	 * @param orderPence the order's total before discount
+	 */
+	public double rateFor(DiscountRule rule, String merchantID, Date orderDate, long orderPence) {
+		return rateFor(rule, merchantID, orderDate, 0, orderPence);
+	}
+
+	/**
+	 * The same, with spend from orders priced but not yet added, such as the
+	 * earlier orders of a batch, counted as part of the month.
+	 * @param rule
+	 * @param merchantID
+	 * @param orderDate
+	 * @param plannedPence spend before discount of those orders in the same month
+	 * @param orderPence
+	 */
+	public double rateFor(DiscountRule rule, String merchantID, Date orderDate, long plannedPence, long orderPence) {
+		if (!rule.isFlexible()) {
+			return rule.rateFor(0);
+		}
+		return rule.rateFor(spend(merchantID).month(orderDate).spendPence.sum() + plannedPence + orderPence);
+	}
+
+	/**
+	 * Adds an order to its month's totals, or takes it out again with a sign
+	 * of -1 when it is cancelled.
+	 * @param order
+	 * @param sign
+	 */
+	public void addOrder(Order order, int sign) {
+		if (order.getMerchantID() == null || order.getOrderDate() == null) return;
+
+		MonthSpend month = spend(order.getMerchantID()).month(order.getOrderDate());
+		long total = order.getTotalPence();
+		month.spendPence.add(sign * total);
+		month.discountPence.add(sign * (total - order.getNetTotalPence()));
+	}
+
+	// Merchant's spend before discount in the month
+	public long getMonthSpendPence(String merchantID, YearMonth month) {
+		MerchantSpend merchant = merchants.get(merchantID);
+		MonthSpend spend = merchant == null ? null : merchant.months.get(month);
+		return spend == null ? 0 : spend.spendPence.sum();
+	}
+
+	/**
+	 * Settles the month for every merchant on a tiered rule that has not been
+	 * settled yet, and returns what each is owed. Merchants on a fixed rule,
+	 * or on no rule, got their whole discount when their orders were priced.
+	 * @param month
+	 * @param rules each merchant's current rule, or null for none
+	 */
+	public List<Settlement> settle(YearMonth month, Function<String, DiscountRule> rules) {
+		List<Settlement> settlements = new ArrayList<>();
+		for (Map.Entry<String, MerchantSpend> entry : merchants.entrySet()) {
+			MonthSpend spend = entry.getValue().months.get(month);
+			if (spend == null || spend.settled.get() != null) continue;
+
+			DiscountRule rule = rules.apply(entry.getKey());
+			if (rule == null || !rule.isFlexible()) continue;
+
+			long spendPence = spend.spendPence.sum();
+			double rate = rule.rateFor(spendPence);
+			long earnedPence = spendPence - Money.percentOff(spendPence, rate);
+			long creditPence = Math.max(0, earnedPence - spend.discountPence.sum());
+			Settlement settlement = new Settlement(entry.getKey(), month, spendPence, rate, creditPence);
+			// Only one caller can settle the month
+			if (spend.settled.compareAndSet(null, settlement)) {
+				settlements.add(settlement);
+			}
+		}
+		return settlements;
+	}
+
+	// Every settlement made, for snapshots
+	List<Settlement> getSettlements() {
+		List<Settlement> settlements = new ArrayList<>();
+		for (MerchantSpend merchant : merchants.values()) {
+			for (MonthSpend month : merchant.months.values()) {
+				Settlement settlement = month.settled.get();
+				if (settlement != null) settlements.add(settlement);
+			}
+		}
+		return settlements;
+	}
+
+	// Used by recovery: marks the month settled as logged
+	void restoreSettlement(Settlement settlement) {
+		MerchantSpend merchant = spend(settlement.getMerchantID());
+		merchant.months.computeIfAbsent(settlement.getMonth(), MonthSpend::new)
+				.settled.set(settlement);
+	}
+
+	private MerchantSpend spend(String merchantID) {
+		MerchantSpend merchant = merchants.get(merchantID);
+		return merchant != null ? merchant : merchants.computeIfAbsent(merchantID, k -> new MerchantSpend());
+	}
+
+	// The month the totals put an order placed at the date in
+	static YearMonth monthOf(Date date) {
+		return YearMonth.from(localDate(date));
+	}
+
+	private static LocalDate localDate(Date date) {
+		return date.toInstant().atZone(ZONE).toLocalDate();
+	}
+
+	// What one merchant was owed for one month
+	public static final class Settlement {
+		private final String merchantID;
+		private final YearMonth month;
+		private final long spendPence;
+		private final double rate;
+		private final long creditPence;
+
+		Settlement(String merchantID, YearMonth month, long spendPence, double rate, long creditPence) {
+			this.merchantID = merchantID;
+			this.month = month;
+			this.spendPence = spendPence;
+			this.rate = rate;
+			this.creditPence = creditPence;
+		}
+
+		public String getMerchantID() {
+			return this.merchantID;
+		}
+
+		public YearMonth getMonth() {
+			return this.month;
+		}
+
+		// Spend before discount in the month
+		public long getSpendPence() {
+			return this.spendPence;
+		}
+
+		// Rate of the tier the month's spend reached
+		public double getRate() {
+			return this.rate;
+		}
+
+		// Discount still owed, taken off the merchant's balance
+		public long getCreditPence() {
+			return this.creditPence;
+		}
+	}
+
+}
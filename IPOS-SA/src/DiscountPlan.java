@@ -1,8 +1,19 @@
 public class DiscountPlan {
 
+	public enum Type {
+		// The rate comes off every order
+		FIXED,
+		// The rate depends on what the merchant has spent that month
+		FLEXIBLE
+	}
+
 	private String planID;
 	private String description;
 	private double discountRate;
+	private Type type = Type.FIXED;
+	// Flexible plans only: tier i's rate applies once the month's spend reaches tierFromPence[i]
+	private long[] tierFromPence = new long[0];
+	private double[] tierRates = new double[0];
 
 	public String getPlanID() {
 		return this.planID;
@@ -40,4 +51,34 @@ public class DiscountPlan {
 		this.discountRate = discountRate;
 	}
 
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * 
+	 * @param type
+	 */
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public long[] getTierFromPence() {
+		return this.tierFromPence.clone();
+	}
+
+	public double[] getTierRates() {
+		return this.tierRates.clone();
+	}
+
+	/**
+	 * 
+	 * @param fromPence monthly spend at which each tier starts, lowest first
+	 * @param rates percentage off in each tier
+	 */
+	public void setTiers(long[] fromPence, double[] rates) {
+		this.tierFromPence = fromPence.clone();
+		this.tierRates = rates.clone();
+	}
+
 }
\ No newline at end of file
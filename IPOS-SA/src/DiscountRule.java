@@ -0,0 +1,81 @@
+import java.util.Arrays;
+
+/**
+ * A discount plan checked and compiled for pricing. The tiers are held as
+ * sorted arrays, so finding the rate for a month's spend is a binary search
+ * over a handful of values. A fixed plan compiles to a single tier.
+ *
+ * Rules are immutable; changing the plan afterwards does not change a rule
+ * already compiled from it.
+ */
+public final class DiscountRule {
+
+	private final DiscountPlan plan;
+	private final boolean flexible;
+	private final long[] fromPence;
+	private final double[] rates;
+
+	private DiscountRule(DiscountPlan plan, boolean flexible, long[] fromPence, double[] rates) {
+		this.plan = plan;
+		this.flexible = flexible;
+		this.fromPence = fromPence;
+		this.rates = rates;
+	}
+
+	/**
+	 * Checks the plan and compiles it. Rates are percentages from 0 to 100.
+	 * The tiers of a flexible plan must start at no spend and rise.
+	 * @param plan
+	 */
+	public static DiscountRule compile(DiscountPlan plan) {
+		if (plan == null) {
+			throw new IllegalArgumentException("Discount plan cannot be null");
+		}
+		if (plan.getType() != DiscountPlan.Type.FLEXIBLE) {
+			checkRate(plan.getDiscountRate());
+			return new DiscountRule(plan, false, new long[] {0}, new double[] {plan.getDiscountRate()});
+		}
+
+		long[] fromPence = plan.getTierFromPence();
+		double[] rates = plan.getTierRates();
+		if (fromPence.length == 0 || fromPence.length != rates.length) {
+			throw new IllegalArgumentException("A flexible plan needs a rate for each of its tiers");
+		}
+		if (fromPence[0] != 0) {
+			throw new IllegalArgumentException("The first tier must start at no spend");
+		}
+		for (int tier = 0; tier < fromPence.length; tier++) {
+			if (tier > 0 && fromPence[tier] <= fromPence[tier - 1]) {
+				throw new IllegalArgumentException("Tiers must be in rising order of spend");
+			}
+			checkRate(rates[tier]);
+		}
+		return new DiscountRule(plan, true, fromPence, rates);
+	}
+
+	private static void checkRate(double rate) {
+		if (!(rate >= 0 && rate <= 100)) {
+			throw new IllegalArgumentException("Discount rate must be between 0 and 100: " + rate);
+		}
+	}
+
+	// Percentage off for a merchant whose spend in the month comes to this much
+	public double rateFor(long monthSpendPence) {
+		int tier = Arrays.binarySearch(fromPence, monthSpendPence);
+		if (tier < 0) {
+			// Below the next tier up, so in the one before it
+			tier = -tier - 2;
+		}
+		return tier < 0 ? 0 : rates[tier];
+	}
+
+	// Whether the rate depends on the month's spend, and so is settled at month end
+	public boolean isFlexible() {
+		return this.flexible;
+	}
+
+	public DiscountPlan getPlan() {
+		return this.plan;
+	}
+
+}
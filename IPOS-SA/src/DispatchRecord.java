@@ -0,0 +1,57 @@
+import java.util.Date;
+
+/**
+ * How and when an order was sent, and the latest status the courier reported.
+ * Records are never changed in place; a courier update replaces the order's
+ * record with a new one.
+ */
+public class DispatchRecord {
+
+	private final String orderID;
+	private final String courier;
+	private final String trackingNo;
+	private final Date dispatchDate;
+	private final OrderStatus status;
+	private final Date statusDate;
+
+	DispatchRecord(String orderID, String courier, String trackingNo, Date dispatchDate,
+				   OrderStatus status, Date statusDate) {
+		this.orderID = orderID;
+		this.courier = courier;
+		this.trackingNo = trackingNo;
+		this.dispatchDate = dispatchDate;
+		this.status = status;
+		this.statusDate = statusDate;
+	}
+
+	public String getOrderID() {
+		return this.orderID;
+	}
+
+	public String getCourier() {
+		return this.courier;
+	}
+
+	public String getTrackingNo() {
+		return this.trackingNo;
+	}
+
+	public Date getDispatchDate() {
+		return this.dispatchDate;
+	}
+
+	// DISPATCHED or DELIVERED
+	public OrderStatus getStatus() {
+		return this.status;
+	}
+
+	// When the courier reported the current status
+	public Date getStatusDate() {
+		return this.statusDate;
+	}
+
+	DispatchRecord withStatus(OrderStatus status, Date statusDate) {
+		return new DispatchRecord(orderID, courier, trackingNo, dispatchDate, status, statusDate);
+	}
+
+}
@@ -0,0 +1,184 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatched orders by tracking number, and the reader for courier status
+ * files. A status file is plain text, one parcel per line:
+ *
+ *     trackingNo,status[,time]
+ *
+ * where status is DISPATCHED or DELIVERED and time is an ISO date, local
+ * date-time or instant; a missing time means the time of the import. Blank
+ * lines, lines starting with # and a header line are skipped.
+ */
+public class DispatchTracker {
+
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private final Map<String, Order> byTracking = new ConcurrentHashMap<>();
+
+	/**
+	 * Gives the tracking number to the order, unless another order has it.
+	 * @param trackingNo
+	 * @param order
+	 */
+	boolean claim(String trackingNo, Order order) {
+		Order holder = byTracking.putIfAbsent(trackingNo, order);
+		return holder == null || holder == order;
+	}
+
+	void release(String trackingNo, Order order) {
+		byTracking.remove(trackingNo, order);
+	}
+
+	public Order findByTracking(String trackingNo) {
+		return trackingNo == null ? null : byTracking.get(trackingNo);
+	}
+
+	public int size() {
+		return byTracking.size();
+	}
+
+	// One parsed line of a courier status file
+	static final class CourierUpdate {
+		final int line;
+		final String trackingNo;
+		final OrderStatus status;
+		// Null when the file gave no time
+		final Date date;
+
+		CourierUpdate(int line, String trackingNo, OrderStatus status, Date date) {
+			this.line = line;
+			this.trackingNo = trackingNo;
+			this.status = status;
+			this.date = date;
+		}
+	}
+
+	// Reads a status file a batch of lines at a time, so the whole file is never held in memory
+	static final class CourierFile {
+		private final BufferedReader in;
+		private int line;
+
+		CourierFile(Reader in) {
+			this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		}
+
+		/**
+		 * Up to size updates; empty once the file is used up. Lines that cannot
+		 * be read are counted as rejected.
+		 * @param size
+		 * @param result
+		 */
+		List<CourierUpdate> nextBatch(int size, ImportResult result) throws IOException {
+			List<CourierUpdate> batch = new ArrayList<>(Math.min(size, DEFAULT_BATCH_SIZE));
+			String text;
+			while (batch.size() < size && (text = in.readLine()) != null) {
+				line++;
+				String row = text.trim();
+				if (row.isEmpty() || row.startsWith("#")) continue;
+
+				String[] fields = row.split(",", -1);
+				if (result.rows == 0 && fields[0].trim().toLowerCase(Locale.ROOT).startsWith("tracking")) continue;
+
+				result.rows++;
+				if (fields.length < 2 || fields.length > 3 || fields[0].trim().isEmpty()) {
+					result.reject(line, "expected trackingNo,status[,time]");
+					continue;
+				}
+				OrderStatus status = OrderStatus.fromName(fields[1]);
+				if (status == null || !status.isSent()) {
+					result.reject(line, "unknown status " + fields[1].trim());
+					continue;
+				}
+				try {
+					Date date = fields.length == 3 ? parseTime(fields[2].trim()) : null;
+					batch.add(new CourierUpdate(line, fields[0].trim(), status, date));
+				} catch (DateTimeParseException e) {
+					result.reject(line, "unreadable time " + fields[2].trim());
+				}
+			}
+			return batch;
+		}
+
+		private static Date parseTime(String text) {
+			if (text.isEmpty()) return null;
+			ZoneId zone = ZoneId.systemDefault();
+			if (text.length() == 10) {
+				return Date.from(LocalDate.parse(text).atStartOfDay(zone).toInstant());
+			}
+			if (text.endsWith("Z") || text.lastIndexOf('+') > 0 || text.lastIndexOf('-') > 9) {
+				return Date.from(OffsetDateTime.parse(text).toInstant());
+			}
+			return Date.from(LocalDateTime.parse(text).atZone(zone).toInstant());
+		}
+	}
+
+	/**
+	 * What an import did with each row. Only the first few rejected rows are
+	 * described.
+	 */
+	public static class ImportResult {
+
+		private static final int MAX_ERRORS = 100;
+
+		private int rows;
+		private int applied;
+		private int unchanged;
+		private int unknown;
+		private int rejected;
+		private final List<String> errors = new ArrayList<>();
+
+		// Rows read, not counting blank, comment and header lines
+		public int getRows() {
+			return this.rows;
+		}
+
+		public int getApplied() {
+			return this.applied;
+		}
+
+		// Rows for parcels already at or past the reported status
+		public int getUnchanged() {
+			return this.unchanged;
+		}
+
+		// Rows whose tracking number matches no dispatched order
+		public int getUnknown() {
+			return this.unknown;
+		}
+
+		public int getRejected() {
+			return this.rejected;
+		}
+
+		public List<String> getErrors() {
+			return Collections.unmodifiableList(this.errors);
+		}
+
+		void applied() {
+			applied++;
+		}
+
+		void unchanged() {
+			unchanged++;
+		}
+
+		void unknown() {
+			unknown++;
+		}
+
+		void reject(int line, String message) {
+			rejected++;
+			if (errors.size() < MAX_ERRORS) {
+				errors.add("Line " + line + ": " + message);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,206 @@
+/**
+ * A change made by one of the stores, as published on the EventBus. Each
+ * kind of change is its own subclass; getType tells them apart without
+ * instanceof chains. Events are immutable once published.
+ */
+public abstract class DomainEvent {
+
+	public enum Type {
+		ORDER_CREATED,
+		ORDER_CANCELLED,
+		STOCK_CHANGED,
+		PAYMENT_RECORDED,
+		INVOICE_RAISED,
+		STATUS_CHANGED
+	}
+
+	private final Type type;
+	private final long timeMillis;
+	// Position on the bus; set once, as the event is published
+	private long sequence = -1;
+
+	DomainEvent(Type type) {
+		this.type = type;
+		this.timeMillis = System.currentTimeMillis();
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	public long getTimeMillis() {
+		return this.timeMillis;
+	}
+
+	// Events are numbered 0, 1, 2... in the order they were published
+	public long getSequence() {
+		return this.sequence;
+	}
+
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public static final class OrderCreated extends DomainEvent {
+		private final String orderID;
+		private final String merchantID;
+		private final long totalPence;
+
+		OrderCreated(Order order) {
+			super(Type.ORDER_CREATED);
+			this.orderID = order.getOrderID();
+			this.merchantID = order.getMerchantID();
+			this.totalPence = order.getNetTotalPence();
+		}
+
+		public String getOrderID() {
+			return this.orderID;
+		}
+
+		public String getMerchantID() {
+			return this.merchantID;
+		}
+
+		// What the merchant was charged, after discount
+		public long getTotalPence() {
+			return this.totalPence;
+		}
+	}
+
+	public static final class OrderCancelled extends DomainEvent {
+		private final String orderID;
+		private final String merchantID;
+		private final long refundPence;
+
+		OrderCancelled(Order order, long refundPence) {
+			super(Type.ORDER_CANCELLED);
+			this.orderID = order.getOrderID();
+			this.merchantID = order.getMerchantID();
+			this.refundPence = refundPence;
+		}
+
+		public String getOrderID() {
+			return this.orderID;
+		}
+
+		public String getMerchantID() {
+			return this.merchantID;
+		}
+
+		public long getRefundPence() {
+			return this.refundPence;
+		}
+	}
+
+	public static final class StockChanged extends DomainEvent {
+		private final String productID;
+		private final int stockLevel;
+		private final int minimumStockLevel;
+
+		StockChanged(Product product) {
+			super(Type.STOCK_CHANGED);
+			this.productID = product.getProductID();
+			this.stockLevel = product.getStockLevel();
+			this.minimumStockLevel = product.getMinimumStockLevel();
+		}
+
+		public String getProductID() {
+			return this.productID;
+		}
+
+		// Level just after the change; a later event carries any change since
+		public int getStockLevel() {
+			return this.stockLevel;
+		}
+
+		public int getMinimumStockLevel() {
+			return this.minimumStockLevel;
+		}
+	}
+
+	public static final class PaymentRecorded extends DomainEvent {
+		private final String paymentID;
+		private final String merchantID;
+		private final long amountPence;
+
+		PaymentRecorded(String merchantID, Payment payment) {
+			super(Type.PAYMENT_RECORDED);
+			this.paymentID = payment.getPaymentID();
+			this.merchantID = merchantID;
+			this.amountPence = payment.getAmountPence();
+		}
+
+		public String getPaymentID() {
+			return this.paymentID;
+		}
+
+		public String getMerchantID() {
+			return this.merchantID;
+		}
+
+		public long getAmountPence() {
+			return this.amountPence;
+		}
+	}
+
+	public static final class InvoiceRaised extends DomainEvent {
+		private final String invoiceID;
+		private final String orderID;
+		private final String merchantID;
+		private final long totalPence;
+
+		InvoiceRaised(Invoice invoice) {
+			super(Type.INVOICE_RAISED);
+			this.invoiceID = invoice.getInvoiceID();
+			this.orderID = invoice.getOrderID();
+			this.merchantID = invoice.getMerchantID();
+			this.totalPence = invoice.getTotalAmountPence();
+		}
+
+		public String getInvoiceID() {
+			return this.invoiceID;
+		}
+
+		public String getOrderID() {
+			return this.orderID;
+		}
+
+		public String getMerchantID() {
+			return this.merchantID;
+		}
+
+		public long getTotalPence() {
+			return this.totalPence;
+		}
+	}
+
+	// An order, invoice or merchant moved from one status to another; an order
+	// being cancelled is published as OrderCancelled instead
+	public static final class StatusChanged extends DomainEvent {
+		private final String entityID;
+		private final Enum<?> previous;
+		private final Enum<?> status;
+
+		StatusChanged(String entityID, Enum<?> previous, Enum<?> status) {
+			super(Type.STATUS_CHANGED);
+			this.entityID = entityID;
+			this.previous = previous;
+			this.status = status;
+		}
+
+		// The order, invoice or merchant ID
+		public String getEntityID() {
+			return this.entityID;
+		}
+
+		// An OrderStatus, InvoiceStatus or MerchantStatus
+		public Enum<?> getPrevious() {
+			return this.previous;
+		}
+
+		public Enum<?> getStatus() {
+			return this.status;
+		}
+	}
+
+}
@@ -0,0 +1,324 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Carries DomainEvents from the stores to whoever wants them, so reports,
+ * caches and integrations can follow changes instead of polling snapshots.
+ *
+ * Events go into a fixed-size ring. Publishing takes a sequence number and
+ * writes one slot; it never waits for subscribers. Each subscriber has its
+ * own thread and its own position in the ring, and is handed the events it
+ * has not seen yet in batches. A subscriber that falls a whole ring behind
+ * has the oldest events overwritten under it; it is told how many it missed
+ * and carries on from the oldest event still held, so it can catch up from a
+ * full read of the store instead of holding up the stores.
+ */
+public class EventBus implements Closeable {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	public interface Subscriber {
+		/**
+		 * Called on the subscription's own thread with the next events, oldest
+		 * first. The list is the subscriber's to keep.
+		 * @param events
+		 */
+		void onEvents(List<DomainEvent> events);
+
+		/**
+		 * Called when events were overwritten before this subscriber read them.
+		 * Whatever it builds from the events should be rebuilt from the store.
+		 * @param count number of events lost
+		 */
+		default void onMissed(long count) {
+		}
+	}
+
+	private final AtomicReferenceArray<DomainEvent> ring;
+	private final int mask;
+	// Next sequence to hand out; events below it are published or about to be
+	private final AtomicLong next = new AtomicLong();
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private volatile boolean closed;
+	private volatile BiConsumer<Subscription, RuntimeException> failureHandler = (subscription, e) ->
+			System.err.println("Event subscriber " + subscription.getName() + " failed: " + e.getMessage());
+
+	// An idle subscriber spins, then yields, then sleeps briefly; only after that
+	// does it sleep until woken, so a steady stream of events costs publishers nothing
+	private static final int SPINS = 100;
+	private static final int YIELDS = 200;
+	private static final int NAPS = 1000;
+	private static final long NAP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	public EventBus() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * 
+	 * @param capacity number of events held for slow subscribers; a power of two
+	 */
+	public EventBus(int capacity) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+		}
+		this.ring = new AtomicReferenceArray<>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Adds the event to the ring and wakes any subscriber asleep waiting for
+	 * one. Never blocks, and does nothing once the bus is closed.
+	 * @param event
+	 */
+	public void publish(DomainEvent event) {
+		if (closed) return;
+		if (event.getSequence() >= 0) {
+			throw new IllegalStateException("Event already published: " + event.getSequence());
+		}
+
+		long sequence = next.getAndIncrement();
+		event.setSequence(sequence);
+		int slot = (int) (sequence & mask);
+		DomainEvent current;
+		do {
+			current = ring.get(slot);
+			// A publisher a whole ring ahead got here first; this event is already lost
+			if (current != null && current.getSequence() > sequence) return;
+		} while (!ring.compareAndSet(slot, current, event));
+
+		for (Subscription subscription : subscriptions) {
+			if (subscription.waiting) {
+				LockSupport.unpark(subscription.thread);
+			}
+		}
+	}
+
+	public Subscription subscribe(String name, Subscriber subscriber) {
+		return subscribe(name, subscriber, EnumSet.allOf(DomainEvent.Type.class), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Starts delivering events published from now on to the subscriber.
+	 * @param name names the delivery thread
+	 * @param subscriber
+	 * @param types events the subscriber wants; others are skipped
+	 * @param batchSize largest number of events handed over in one call
+	 */
+	public Subscription subscribe(String name, Subscriber subscriber, Set<DomainEvent.Type> types, int batchSize) {
+		if (subscriber == null || types == null) {
+			throw new IllegalArgumentException("Subscriber and event types cannot be null");
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+		if (closed) {
+			throw new IllegalStateException("Event bus is closed");
+		}
+
+		Subscription subscription = new Subscription(name, subscriber, EnumSet.copyOf(types), batchSize);
+		subscriptions.add(subscription);
+		subscription.thread.start();
+		return subscription;
+	}
+
+	/**
+	 * Replaces what is done with an exception thrown by a subscriber; by
+	 * default it is printed. Called on the failing subscription's thread,
+	 * which carries on with the next events once it returns.
+	 * @param handler
+	 */
+	public void setFailureHandler(BiConsumer<Subscription, RuntimeException> handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("Failure handler cannot be null");
+		}
+		failureHandler = handler;
+	}
+
+	// Sequence the next published event will get
+	public long getPublished() {
+		return next.get();
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Stops taking events, lets every subscriber finish the events already
+	 * published, and waits for their threads to end.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Subscription subscription : subscriptions) {
+			subscription.stop();
+		}
+	}
+
+	public final class Subscription implements Closeable {
+
+		private final Subscriber subscriber;
+		private final Set<DomainEvent.Type> types;
+		private final int batchSize;
+		private final Thread thread;
+		// Sequence of the next event to read
+		private volatile long cursor;
+		private volatile boolean waiting;
+		private volatile boolean stopping;
+		private final AtomicLong delivered = new AtomicLong();
+		private final AtomicLong missed = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+
+		private Subscription(String name, Subscriber subscriber, Set<DomainEvent.Type> types, int batchSize) {
+			this.subscriber = subscriber;
+			this.types = types;
+			this.batchSize = batchSize;
+			this.cursor = next.get();
+			this.thread = new Thread(this::run, "event-bus-" + name);
+			this.thread.setDaemon(true);
+		}
+
+		private void run() {
+			List<DomainEvent> batch = new ArrayList<>(batchSize);
+			int idle = 0;
+			while (true) {
+				boolean stop = stopping;
+				long position = cursor;
+				long read = 0;
+				while (batch.size() < batchSize) {
+					DomainEvent event = ring.get((int) (position & mask));
+					long sequence = event == null ? -1 : event.getSequence();
+					if (sequence < position) {
+						// Not published yet
+						break;
+					}
+					if (sequence > position) {
+						// Overwritten; skip to the oldest event the ring still holds
+						long oldest = Math.max(position + 1, next.get() - mask - 1);
+						deliver(batch);
+						missed(oldest - position);
+						position = oldest;
+						continue;
+					}
+					if (types.contains(event.getType())) {
+						batch.add(event);
+					}
+					position++;
+					read++;
+				}
+				deliver(batch);
+				cursor = position;
+
+				if (read > 0) {
+					idle = 0;
+					continue;
+				}
+				if (stop && position >= next.get()) return;
+
+				idle++;
+				if (idle < SPINS) {
+					Thread.onSpinWait();
+				} else if (idle < YIELDS) {
+					Thread.yield();
+				} else if (idle < NAPS) {
+					LockSupport.parkNanos(this, NAP_NANOS);
+				} else {
+					// Check once more after saying we are waiting, so a publish in between is not slept through
+					waiting = true;
+					DomainEvent event = ring.get((int) (position & mask));
+					if ((event == null || event.getSequence() < position) && !stopping) {
+						LockSupport.parkNanos(this, SLEEP_NANOS);
+					}
+					waiting = false;
+				}
+			}
+		}
+
+		private void deliver(List<DomainEvent> batch) {
+			if (batch.isEmpty()) return;
+
+			List<DomainEvent> events = Collections.unmodifiableList(new ArrayList<>(batch));
+			batch.clear();
+			try {
+				subscriber.onEvents(events);
+			} catch (RuntimeException e) {
+				// A failing subscriber must not stop its own delivery
+				failed(e);
+			}
+			delivered.addAndGet(events.size());
+		}
+
+		private void missed(long count) {
+			missed.addAndGet(count);
+			try {
+				subscriber.onMissed(count);
+			} catch (RuntimeException e) {
+				failed(e);
+			}
+		}
+
+		private void failed(RuntimeException e) {
+			failures.incrementAndGet();
+			try {
+				failureHandler.accept(this, e);
+			} catch (RuntimeException handlerFailure) {
+				// Nowhere left to report it; the count above still shows it
+			}
+		}
+
+		public String getName() {
+			return thread.getName();
+		}
+
+		// Events published but not yet read by this subscriber
+		public long getLag() {
+			return Math.max(0, next.get() - cursor);
+		}
+
+		public long getDelivered() {
+			return delivered.get();
+		}
+
+		// Events overwritten before this subscriber read them
+		public long getMissed() {
+			return missed.get();
+		}
+
+		// Calls to the subscriber that threw
+		public long getFailures() {
+			return failures.get();
+		}
+
+		private void stop() {
+			stopping = true;
+			LockSupport.unpark(thread);
+			if (Thread.currentThread() == thread) return;
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// Stops delivery to this subscriber once it has read what was already published
+		@Override
+		public void close() {
+			subscriptions.remove(this);
+			stop();
+		}
+	}
+
+}
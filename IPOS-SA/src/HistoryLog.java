@@ -0,0 +1,152 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Append-only list of one merchant's orders or payments, held in chunks so
+ * growing it never copies what is already there. Appends take the log's
+ * lock; reads take none and allocate nothing but the view object.
+ *
+ * An entry never moves once appended, so a position read from one view
+ * still names the same entry in any later one, and a reader can page
+ * through a long history with a cursor while it keeps growing.
+ */
+public class HistoryLog<T> {
+
+	private static final int CHUNK_BITS = 8;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	// Most merchants have a short history, so the first chunk starts small and
+	// doubles up to CHUNK_SIZE before any more are added
+	private static final int FIRST_CHUNK = 4;
+
+	// Guarded by this; readers see whole entries up to size
+	private Object[][] chunks = {new Object[FIRST_CHUNK]};
+	private volatile Object[][] publishedChunks = chunks;
+	private volatile int size;
+
+	// Returns the position the entry was appended at
+	synchronized int append(T entry) {
+		int next = size;
+		int index = next >>> CHUNK_BITS;
+		if (index == chunks.length) {
+			chunks = Arrays.copyOf(chunks, index + 1);
+			chunks[index] = new Object[CHUNK_SIZE];
+			publishedChunks = chunks;
+		} else if ((next & CHUNK_MASK) == chunks[index].length) {
+			// Only the first chunk is ever short; readers of the old copy still see their entries in it
+			chunks = chunks.clone();
+			chunks[index] = Arrays.copyOf(chunks[index], Math.min(CHUNK_SIZE, next * 2));
+			publishedChunks = chunks;
+		}
+		chunks[index][next & CHUNK_MASK] = entry;
+		size = next + 1;
+		return next;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Every entry appended so far, oldest first; later appends are not seen
+	public View<T> view() {
+		int length = size;
+		return new View<>(publishedChunks, 0, length);
+	}
+
+	/**
+	 * Up to limit entries starting at the cursor, oldest first. The position
+	 * after the last one returned is the cursor for the next page; a page
+	 * shorter than limit means the end was reached.
+	 * @param cursor position of the first entry, from 0
+	 * @param limit
+	 */
+	public View<T> page(int cursor, int limit) {
+		if (cursor < 0 || limit < 0) {
+			throw new IllegalArgumentException("Cursor and limit cannot be negative");
+		}
+		int length = size;
+		int from = Math.min(cursor, length);
+		return new View<>(publishedChunks, from, (int) Math.min(length, (long) from + limit));
+	}
+
+	/**
+	 * A fixed stretch of a HistoryLog, read in place. Appends made after it
+	 * was taken are not seen, and it cannot be changed.
+	 */
+	public static final class View<T> extends AbstractList<T> implements RandomAccess {
+
+		private final Object[][] chunks;
+		private final int from;
+		private final int to;
+
+		private View(Object[][] chunks, int from, int to) {
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T get(int index) {
+			if (index < 0 || index >= to - from) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (to - from));
+			}
+			int position = from + index;
+			return (T) chunks[position >>> CHUNK_BITS][position & CHUNK_MASK];
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+
+		// Position in the log of the first entry
+		public int getCursor() {
+			return from;
+		}
+
+		// Cursor for the page after this one
+		public int getNextCursor() {
+			return to;
+		}
+
+		// Copies a chunk at a time rather than an entry at a time
+		@Override
+		public Object[] toArray() {
+			return toArray(new Object[0]);
+		}
+
+		@Override
+		public <E> E[] toArray(E[] array) {
+			int length = size();
+			E[] result = array.length >= length ? array : Arrays.copyOf(array, length);
+			for (int copied = 0; copied < length; ) {
+				int position = from + copied;
+				int count = Math.min(length - copied, CHUNK_SIZE - (position & CHUNK_MASK));
+				System.arraycopy(chunks[position >>> CHUNK_BITS], position & CHUNK_MASK, result, copied, count);
+				copied += count;
+			}
+			if (result.length > length) result[length] = null;
+			return result;
+		}
+
+		// Also read in place
+		@Override
+		public View<T> subList(int fromIndex, int toIndex) {
+			if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+				throw new IndexOutOfBoundsException("From: " + fromIndex + ", to: " + toIndex + ", size: " + size());
+			}
+			return new View<>(chunks, from + fromIndex, from + toIndex);
+		}
+	}
+
+	// An empty view, for a merchant with no history yet
+	@SuppressWarnings("unchecked")
+	static <T> View<T> empty() {
+		return (View<T>) EMPTY;
+	}
+
+	private static final View<Object> EMPTY = new View<>(new Object[][] {new Object[0]}, 0, 0);
+
+}
@@ -32,4 +32,15 @@ public interface IAccountManagement {
 	 */
 	boolean ApplyPayment(String merchantID, Payment payment);
 
+	/**
+	 * One page of the merchants that match every filter given; a null filter
+	 * matches anything. Pass the page's next token back to get the page
+	 * after it.
+	 * @param status
+	 * @param minBalancePence only merchants owing at least this
+	 * @param limit largest number of merchants on the page
+	 * @param pageToken null for the first page
+	 */
+	Page<Merchant> findMerchants(MerchantStatus status, Long minBalancePence, int limit, String pageToken);
+
 }
\ No newline at end of file
@@ -1,4 +1,5 @@
 import java.util.Date;
+import java.util.List;
 
 public interface IOrderManagement {
 
@@ -7,6 +8,13 @@ public interface IOrderManagement {
 	 */
 	String createOrder(Order order);
 
+	/**
+	 * Submits many orders at once. Returns one result per order, in the
+	 * same order as the input list.
+	 * @param orders
+	 */
+	List<OrderResult> createOrders(List<Order> orders);
+
 	/**
 	 * @param orderID
 	 */
@@ -16,7 +24,7 @@ public interface IOrderManagement {
 	 * @param orderID
 	 * @param status
 	 */
-	boolean updateOrderStatus(String orderID, String status);
+	boolean updateOrderStatus(String orderID, OrderStatus status);
 
 	/**
 	 * @param merchantID
@@ -47,6 +55,38 @@ public interface IOrderManagement {
 	 */
 	boolean recordPayment(String merchantID, Payment payment);
 
+	/**
+	 * One page of the orders that match every filter given; a null filter
+	 * matches anything. Pass the page's next token back to get the page
+	 * after it.
+	 * @param merchantID
+	 * @param status
+	 * @param from placed at or after this
+	 * @param to placed before this
+	 * @param limit largest number of orders on the page
+	 * @param pageToken null for the first page
+	 */
+	Page<Order> findOrders(String merchantID, OrderStatus status, Date from, Date to, int limit, String pageToken);
+
+	/**
+	 * One page of the invoices that match every filter given.
+	 * @param merchantID
+	 * @param status
+	 * @param limit
+	 * @param pageToken
+	 */
+	Page<Invoice> findInvoices(String merchantID, InvoiceStatus status, int limit, String pageToken);
+
+	/**
+	 * One page of the merchant's payments dated within the window.
+	 * @param merchantID
+	 * @param from
+	 * @param to
+	 * @param limit
+	 * @param pageToken
+	 */
+	Page<Payment> findPayments(String merchantID, Date from, Date to, int limit, String pageToken);
+
 	/**
 	 *
 	 * @param orderID
@@ -0,0 +1,55 @@
+/**
+ * The stock calls made by the pharmacy client, IPOS-CA, served from the
+ * catalogue's stock. Products are named by item number, so 10000001 is the
+ * product with ID "10000001"; they are found without building an ID string,
+ * and a call allocates nothing unless a log is attached. Every change is a
+ * compare-and-set on the product's stock level, so concurrent calls never
+ * lose an update or take stock below zero.
+ */
+public class IPOS_CA_API implements I_IPOS_CA {
+
+	private final ProductCatalogue_API productCatalogue;
+
+	public IPOS_CA_API(ProductCatalogue_API productCatalogue) {
+		this.productCatalogue = productCatalogue;
+	}
+
+	/**
+	 * Adds stockAmount to the product's stock, or takes it out when negative.
+	 * A withdrawal larger than the stock held is refused and changes nothing.
+	 * @param productID item number
+	 * @param stockAmount
+	 * @return the new stock level, UNKNOWN_PRODUCT or INSUFFICIENT_STOCK
+	 */
+	@Override
+	public int mutateStock(int productID, int stockAmount) {
+		return productCatalogue.adjustStock(productID, stockAmount);
+	}
+
+	/**
+	 * Applies each line as mutateStock(int, int) would, in order, and logs the
+	 * changes made as one record. A refused line does not stop the rest.
+	 * @param productIDs item numbers
+	 * @param stockAmounts
+	 * @param stockLevels receives each line's result as mutateStock(int, int) returns it; may be null
+	 * @return the number of lines applied
+	 */
+	@Override
+	public int mutateStock(int[] productIDs, int[] stockAmounts, int[] stockLevels) {
+		if (productIDs == null || stockAmounts == null) {
+			throw new IllegalArgumentException("Product IDs and stock amounts cannot be null");
+		}
+		return productCatalogue.adjustStock(productIDs, stockAmounts, stockLevels);
+	}
+
+	/**
+	 * 
+	 * @param productID item number
+	 * @return the stock level, or UNKNOWN_PRODUCT
+	 */
+	@Override
+	public int StockQuantity(int productID) {
+		return productCatalogue.getStockLevel(productID);
+	}
+
+}
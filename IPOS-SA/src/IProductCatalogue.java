@@ -23,6 +23,16 @@ public interface IProductCatalogue {
 
 	Product[] getLowStockProducts();
 
+	/**
+	 * One page of products, only those below their minimum stock level if
+	 * lowStockOnly is set. Pass the page's next token back to get the page
+	 * after it.
+	 * @param lowStockOnly
+	 * @param limit largest number of products on the page
+	 * @param pageToken null for the first page
+	 */
+	Page<Product> findProducts(boolean lowStockOnly, int limit, String pageToken);
+
 	/**
 	 * 
 	 * @param productID
@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 public interface IReporting {
 
 	/**
@@ -20,4 +22,33 @@ public interface IReporting {
 	 */
 	Report generateSalesPerformanceReport(String merchantID);
 
+	// Streaming versions: the report text is written to out as it is produced and out is flushed, not closed
+
+	/**
+	 * 
+	 * @param merchantID
+	 * @param out
+	 */
+	void writeMerchantReport(String merchantID, ReportWriter out) throws IOException;
+
+	/**
+	 * 
+	 * @param out
+	 */
+	void writeStockReport(ReportWriter out) throws IOException;
+
+	/**
+	 * 
+	 * @param merchantID
+	 * @param out
+	 */
+	void writeOrderSummary(String merchantID, ReportWriter out) throws IOException;
+
+	/**
+	 * 
+	 * @param merchantID
+	 * @param out
+	 */
+	void writeSalesPerformanceReport(String merchantID, ReportWriter out) throws IOException;
+
 }
\ No newline at end of file
@@ -1,5 +1,9 @@
 public interface I_IPOS_CA {
 
+	// Returned in place of a stock level
+	int UNKNOWN_PRODUCT = -1;
+	int INSUFFICIENT_STOCK = -2;
+
 	/**
 	 * 
 	 * @param productID
@@ -7,6 +11,14 @@ public interface I_IPOS_CA {
 	 */
 	int mutateStock(int productID, int stockAmount);
 
+	/**
+	 * 
+	 * @param productIDs
+	 * @param stockAmounts
+	 * @param stockLevels
+	 */
+	int mutateStock(int[] productIDs, int[] stockAmounts, int[] stockLevels);
+
 	/**
 	 * 
 	 * @param productID
@@ -0,0 +1,110 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Gives each string ID a dense int handle, 0, 1, 2... in the order the IDs
+ * are registered, so a store can keep its entities in an IntMap rather than
+ * a map keyed by String. Handles are never reused.
+ *
+ * The IDs are held in an open-addressing table. Looking one up takes no lock
+ * and allocates nothing; registering one takes the registry's lock.
+ */
+public class IdRegistry {
+
+	public static final int NONE = -1;
+
+	// One generation of the table; replaced whole when it grows
+	private static final class Table {
+		// A slot is empty while its key is null; the handle is written before the key
+		final AtomicReferenceArray<String> keys;
+		final int[] handles;
+		final int mask;
+
+		Table(int capacity) {
+			this.keys = new AtomicReferenceArray<>(capacity);
+			this.handles = new int[capacity];
+			this.mask = capacity - 1;
+		}
+	}
+
+	private volatile Table table = new Table(16);
+	// IDs by handle
+	private volatile String[] ids = new String[16];
+	private volatile int size;
+
+	// The ID's handle, or NONE if it was never registered
+	public int handleOf(String id) {
+		if (id == null) return NONE;
+
+		Table current = table;
+		for (int slot = IntMap.mix(id.hashCode()) & current.mask; ; slot = (slot + 1) & current.mask) {
+			String key = current.keys.get(slot);
+			if (key == null) return NONE;
+			if (key.equals(id)) return current.handles[slot];
+		}
+	}
+
+	/**
+	 * The ID's handle, giving it the next free handle if it has none yet.
+	 * @param id
+	 */
+	public int register(String id) {
+		if (id == null) {
+			throw new IllegalArgumentException("ID cannot be null");
+		}
+
+		int handle = handleOf(id);
+		if (handle != NONE) return handle;
+
+		synchronized (this) {
+			handle = handleOf(id);
+			if (handle != NONE) return handle;
+
+			handle = size;
+			String[] current = ids;
+			if (handle == current.length) {
+				current = Arrays.copyOf(current, handle * 2);
+				current[handle] = id;
+				ids = current;
+			} else {
+				current[handle] = id;
+			}
+
+			// At most half full, so probe runs stay short
+			Table target = table;
+			if ((handle + 1) * 2 > target.handles.length) {
+				target = new Table(target.handles.length * 2);
+				for (int h = 0; h < handle; h++) {
+					insert(target, current[h], h);
+				}
+				insert(target, id, handle);
+				table = target;
+			} else {
+				insert(target, id, handle);
+			}
+			size = handle + 1;
+			return handle;
+		}
+	}
+
+	// The ID registered under the handle, or null if there is none
+	public String idOf(int handle) {
+		String[] current = ids;
+		return handle < 0 || handle >= current.length ? null : current[handle];
+	}
+
+	// Number of IDs registered; handles run from 0 to one less than this
+	public int size() {
+		return size;
+	}
+
+	private static void insert(Table table, String id, int handle) {
+		int slot = IntMap.mix(id.hashCode()) & table.mask;
+		while (table.keys.get(slot) != null) {
+			slot = (slot + 1) & table.mask;
+		}
+		table.handles[slot] = handle;
+		table.keys.set(slot, id);
+	}
+
+}
@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map from int keys to values, held in an open-addressing table so keys are
+ * never boxed and a lookup allocates nothing. Reads take no lock; writes take
+ * the map's lock. Entries can be replaced but not removed, which is all the
+ * stores need.
+ */
+public class IntMap<V> {
+
+	// One generation of the table; replaced whole when it grows
+	private static final class Table<V> {
+		final int[] keys;
+		// A slot is empty while its value is null; the key is written before the value
+		final AtomicReferenceArray<V> values;
+		final int mask;
+
+		Table(int capacity) {
+			this.keys = new int[capacity];
+			this.values = new AtomicReferenceArray<>(capacity);
+			this.mask = capacity - 1;
+		}
+	}
+
+	private volatile Table<V> table = new Table<>(16);
+	private volatile int size;
+
+	public V get(int key) {
+		Table<V> current = table;
+		for (int slot = mix(key) & current.mask; ; slot = (slot + 1) & current.mask) {
+			V value = current.values.get(slot);
+			if (value == null) return null;
+			if (current.keys[slot] == key) return value;
+		}
+	}
+
+	/**
+	 * Stores the value under the key and returns the value it replaced, or
+	 * null if there was none.
+	 * @param key
+	 * @param value
+	 */
+	public synchronized V put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Value cannot be null");
+		}
+
+		Table<V> current = table;
+		int slot = slotOf(current, key);
+		if (current.values.get(slot) != null) {
+			return current.values.getAndSet(slot, value);
+		}
+
+		// At most half full, so probe runs stay short
+		if ((size + 1) * 2 > current.keys.length) {
+			current = grow(current);
+			slot = slotOf(current, key);
+		}
+		current.keys[slot] = key;
+		current.values.set(slot, value);
+		size++;
+		return null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Every value, in no particular order
+	public List<V> values() {
+		Table<V> current = table;
+		List<V> result = new ArrayList<>(size);
+		for (int slot = 0; slot < current.keys.length; slot++) {
+			V value = current.values.get(slot);
+			if (value != null) result.add(value);
+		}
+		return result;
+	}
+
+	// The key's slot, or the empty slot it would go in
+	private static <V> int slotOf(Table<V> table, int key) {
+		int slot = mix(key) & table.mask;
+		while (table.values.get(slot) != null && table.keys[slot] != key) {
+			slot = (slot + 1) & table.mask;
+		}
+		return slot;
+	}
+
+	private Table<V> grow(Table<V> current) {
+		Table<V> larger = new Table<>(current.keys.length * 2);
+		for (int slot = 0; slot < current.keys.length; slot++) {
+			V value = current.values.get(slot);
+			if (value != null) {
+				int target = slotOf(larger, current.keys[slot]);
+				larger.keys[target] = current.keys[slot];
+				larger.values.set(target, value);
+			}
+		}
+		table = larger;
+		return larger;
+	}
+
+	// Spreads sequential and patterned keys evenly over the table
+	static int mix(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+}
@@ -1,4 +1,5 @@
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class Invoice {
 
@@ -7,8 +8,14 @@ public class Invoice {
 	private String merchantID;
 	private Date issueDate;
 	private Date dueDate;
-	private double totalAmount;
-	private String status;
+	// Held in pence; see Money
+	private long totalAmountPence;
+	private volatile InvoiceStatus status;
+	// Where the invoice sits in its store's invoice log, or -1 before it is stored
+	private int logPosition = -1;
+
+	private static final AtomicReferenceFieldUpdater<Invoice, InvoiceStatus> STATUS =
+			AtomicReferenceFieldUpdater.newUpdater(Invoice.class, InvoiceStatus.class, "status");
 
 	public String getInvoiceID() {
 		return this.invoiceID;
@@ -71,18 +78,30 @@ public class Invoice {
 	}
 
 	public double getTotalAmount() {
-		return this.totalAmount;
+		return Money.toPounds(this.totalAmountPence);
 	}
 
 	/**
 	 * 
-	 * @param totalAmount
+	 * @param totalAmount rounded to the nearest penny
 	 */
 	public void setTotalAmount(double totalAmount) {
-		this.totalAmount = totalAmount;
+		this.totalAmountPence = Money.ofPounds(totalAmount);
+	}
+
+	public long getTotalAmountPence() {
+		return this.totalAmountPence;
+	}
+
+	/**
+	 * 
+	 * @param totalAmountPence
+	 */
+	public void setTotalAmountPence(long totalAmountPence) {
+		this.totalAmountPence = totalAmountPence;
 	}
 
-	public String getStatus() {
+	public InvoiceStatus getStatus() {
 		return this.status;
 	}
 
@@ -90,8 +109,25 @@ public class Invoice {
 	 * 
 	 * @param status
 	 */
-	public void setStatus(String status) {
+	public void setStatus(InvoiceStatus status) {
 		this.status = status;
 	}
 
+	int getLogPosition() {
+		return this.logPosition;
+	}
+
+	void setLogPosition(int logPosition) {
+		this.logPosition = logPosition;
+	}
+
+	/**
+	 * Moves the invoice from one status to another, if it is still in the first.
+	 * @param from
+	 * @param to
+	 */
+	boolean transition(InvoiceStatus from, InvoiceStatus to) {
+		return from != null && from.canBecome(to) && STATUS.compareAndSet(this, from, to);
+	}
+
 }
\ No newline at end of file
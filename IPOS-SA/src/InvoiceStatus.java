@@ -0,0 +1,26 @@
+import java.util.Locale;
+
+/**
+ * Whether an invoice has been paid. A payment recorded in error can be
+ * reversed, returning the invoice to ISSUED.
+ */
+public enum InvoiceStatus {
+	ISSUED, PAID;
+
+	public boolean canBecome(InvoiceStatus next) {
+		return next != null && next != this;
+	}
+
+	/**
+	 * The status with this name, ignoring case, or null if there is none.
+	 * @param name
+	 */
+	public static InvoiceStatus fromName(String name) {
+		if (name == null) return null;
+		try {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (8 per power of two),
+ * accurate to within 12.5% of the recorded value.
+ */
+public class LatencyRecorder implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+	/**
+	 *
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+	}
+
+	public long getCount() {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Upper bound of the bucket holding the given percentile, in nanoseconds.
+	 * @param percentile between 0 and 100
+	 */
+	public long getPercentile(double percentile) {
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return upperBoundOf(i);
+			}
+		}
+		return upperBoundOf(counts.length() - 1);
+	}
+
+	// Adds every value the other recorder holds, as if recorded here
+	public void add(LatencyRecorder other) {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.addAndGet(i, other.counts.get(i));
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long base = (SUB_BUCKETS + sub) << (magnitude - SUB_BUCKET_BITS);
+		return base + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
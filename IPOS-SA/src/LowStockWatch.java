@@ -0,0 +1,142 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * The products whose stock is below their minimum level, kept up to date as
+ * stock moves rather than found by filtering the catalogue. Listeners are
+ * told each time a product goes low or recovers.
+ */
+public class LowStockWatch {
+
+	public interface Listener {
+		/**
+		 * Called with the product's lock held, so calls for one product arrive
+		 * in order. Listeners should return quickly.
+		 * @param product
+		 * @param low true when the product has just gone below its minimum level
+		 */
+		void lowStockChanged(Product product, boolean low);
+	}
+
+	private final ConcurrentSkipListMap<String, Product> lowStock = new ConcurrentSkipListMap<>();
+	// The same products by their position in the catalogue, for paging in the order they were added
+	private final ConcurrentSkipListMap<Integer, Product> byPosition = new ConcurrentSkipListMap<>();
+	private final ToIntFunction<String> positionOf;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final AtomicLong listenerFailures = new AtomicLong();
+	private volatile Consumer<RuntimeException> failureHandler =
+			e -> System.err.println("Low stock listener failed: " + e.getMessage());
+
+	/**
+	 * 
+	 * @param positionOf where the product with an ID sits in the catalogue
+	 */
+	LowStockWatch(ToIntFunction<String> positionOf) {
+		this.positionOf = positionOf;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Replaces what is done with an exception thrown by a listener; by default
+	 * it is printed. Called on the thread that changed the stock, with the
+	 * product's lock held, so it should return quickly.
+	 * @param handler
+	 */
+	public void setFailureHandler(Consumer<RuntimeException> handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("Failure handler cannot be null");
+		}
+		failureHandler = handler;
+	}
+
+	// Listener calls that threw, since the catalogue was created
+	public long getListenerFailures() {
+		return listenerFailures.get();
+	}
+
+	/**
+	 * Re-checks the product after its stock or minimum level changed.
+	 * @param product
+	 */
+	void update(Product product) {
+		// Most changes leave the product on the same side of its minimum
+		if (isLow(product) == (lowStock.get(product.getProductID()) == product)) {
+			return;
+		}
+
+		synchronized (product) {
+			// Stock may move again while the set is updated; settle on the latest level
+			boolean low;
+			do {
+				low = isLow(product);
+				boolean changed = low
+						? lowStock.put(product.getProductID(), product) == null
+						: lowStock.remove(product.getProductID()) != null;
+				if (low) {
+					byPosition.put(positionOf.applyAsInt(product.getProductID()), product);
+				} else {
+					byPosition.remove(positionOf.applyAsInt(product.getProductID()), product);
+				}
+				if (changed) {
+					notifyListeners(product, low);
+				}
+			} while (low != isLow(product));
+		}
+	}
+
+	private void notifyListeners(Product product, boolean low) {
+		for (Listener listener : listeners) {
+			try {
+				listener.lowStockChanged(product, low);
+			} catch (RuntimeException e) {
+				// A failing listener must not fail the stock change that triggered it
+				listenerFailures.incrementAndGet();
+				try {
+					failureHandler.accept(e);
+				} catch (RuntimeException handlerFailure) {
+					// Nowhere left to report it; the count above still shows it
+				}
+			}
+		}
+	}
+
+	// Drops a product that is being replaced, without telling listeners
+	void forget(String productID) {
+		lowStock.remove(productID);
+		byPosition.remove(positionOf.applyAsInt(productID));
+	}
+
+	private static boolean isLow(Product product) {
+		return product.getStockLevel() < product.getMinimumStockLevel();
+	}
+
+	// Low-stock products in product ID order
+	public Product[] getProducts() {
+		return lowStock.values().toArray(new Product[0]);
+	}
+
+	// Low-stock products from the catalogue position on, in the order they were added, read in place
+	Iterator<Product> from(int position) {
+		return byPosition.tailMap(position, true).values().iterator();
+	}
+
+	public int size() {
+		return lowStock.size();
+	}
+
+	public boolean contains(String productID) {
+		return lowStock.containsKey(productID);
+	}
+
+}
@@ -34,7 +34,7 @@ public class Main {
             merchant.setAddress("3, High Level Drive, Sydenham, SE26 3ET");
             merchant.setCreditLimit(10000.0);
             merchant.setBalance(0.0);
-            merchant.setStatus("ACTIVE");
+            merchant.setStatus(MerchantStatus.ACTIVE);
 
             if (accountManagement.CreateMerchant(merchant)) {
                 System.out.println("✓ Merchant created successfully");
@@ -1,11 +1,18 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 public class Merchant {
 
 	private String merchantID;
 	private String name;
 	private String address;
-	private double creditLimit;
-	private double balance;
-	private String status;
+	// Balance and credit limit are held in pence so they can be updated with CAS
+	private volatile long creditLimitPence;
+	private final AtomicLong balancePence = new AtomicLong();
+	private volatile MerchantStatus status;
+
+	private static final AtomicReferenceFieldUpdater<Merchant, MerchantStatus> STATUS =
+			AtomicReferenceFieldUpdater.newUpdater(Merchant.class, MerchantStatus.class, "status");
 
 	public String getMerchantID() {
 		return this.merchantID;
@@ -44,7 +51,7 @@ public class Merchant {
 	}
 
 	public double getCreditLimit() {
-		return this.creditLimit;
+		return Money.toPounds(this.creditLimitPence);
 	}
 
 	/**
@@ -52,11 +59,11 @@ public class Merchant {
 	 * @param creditLimit
 	 */
 	public void setCreditLimit(double creditLimit) {
-		this.creditLimit = creditLimit;
+		this.creditLimitPence = Money.ofPounds(creditLimit);
 	}
 
 	public double getBalance() {
-		return this.balance;
+		return Money.toPounds(this.balancePence.get());
 	}
 
 	/**
@@ -64,10 +71,60 @@ public class Merchant {
 	 * @param balance
 	 */
 	public void setBalance(double balance) {
-		this.balance = balance;
+		this.balancePence.set(Money.ofPounds(balance));
+	}
+
+	public long getCreditLimitPence() {
+		return this.creditLimitPence;
 	}
 
-	public String getStatus() {
+	public long getBalancePence() {
+		return this.balancePence.get();
+	}
+
+	/**
+	 * 
+	 * @param creditLimitPence
+	 */
+	public void setCreditLimitPence(long creditLimitPence) {
+		this.creditLimitPence = creditLimitPence;
+	}
+
+	/**
+	 * 
+	 * @param balancePence
+	 */
+	public void setBalancePence(long balancePence) {
+		this.balancePence.set(balancePence);
+	}
+
+	/**
+	 * Adds the amount to the balance only if the result stays within the credit
+	 * limit. The check and the update are a single atomic step.
+	 * @param amountPence
+	 */
+	public boolean tryCharge(long amountPence) {
+		while (true) {
+			long current = this.balancePence.get();
+			long updated = current + amountPence;
+			if (updated > this.creditLimitPence) {
+				return false;
+			}
+			if (this.balancePence.compareAndSet(current, updated)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param deltaPence
+	 */
+	public long adjustBalance(long deltaPence) {
+		return this.balancePence.addAndGet(deltaPence);
+	}
+
+	public MerchantStatus getStatus() {
 		return this.status;
 	}
 
@@ -75,8 +132,17 @@ public class Merchant {
 	 * 
 	 * @param status
 	 */
-	public void setStatus(String status) {
+	public void setStatus(MerchantStatus status) {
 		this.status = status;
 	}
 
+	/**
+	 * Moves the account from one status to another, if it is still in the first.
+	 * @param from
+	 * @param to
+	 */
+	boolean transition(MerchantStatus from, MerchantStatus to) {
+		return from != null && from.canBecome(to) && STATUS.compareAndSet(this, from, to);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,26 @@
+import java.util.Locale;
+
+/**
+ * Standing of a merchant account. Only an ACTIVE merchant can place orders.
+ * An account IN_DEFAULT can only be reactivated or suspended.
+ */
+public enum MerchantStatus {
+	ACTIVE, SUSPENDED, IN_DEFAULT;
+
+	public boolean canBecome(MerchantStatus next) {
+		return next != null && next != this;
+	}
+
+	/**
+	 * The status with this name, ignoring case, or null if there is none.
+	 * @param name
+	 */
+	public static MerchantStatus fromName(String name) {
+		if (name == null) return null;
+		try {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
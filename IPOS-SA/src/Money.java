@@ -0,0 +1,107 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money amounts held as a whole number of pence in a long. Every amount in
+ * the system is stored this way, so totals are exact integer sums and no
+ * object is created per value; pounds as a double are only used at the API
+ * edges that take or return them.
+ */
+public final class Money {
+
+	// Below this many pounds, pounds * 100 is accurate to well within HALF_PENNY_WINDOW
+	private static final double MAX_FAST_POUNDS = 1e9;
+	private static final double HALF_PENNY_WINDOW = 1e-4;
+
+	private Money() {
+	}
+
+	/**
+	 * Rounds a pounds value to the nearest penny, halves away from zero. A
+	 * value like 1.005 is rounded from its decimal form, the same as
+	 * String.format("%.2f") would print it.
+	 * @param pounds
+	 */
+	public static long ofPounds(double pounds) {
+		if (Double.isNaN(pounds) || Double.isInfinite(pounds)) {
+			throw new IllegalArgumentException("Not a money amount: " + pounds);
+		}
+		double magnitude = Math.abs(pounds);
+		double scaled = magnitude * 100;
+		long pence;
+		if (magnitude >= MAX_FAST_POUNDS || Math.abs(scaled - Math.floor(scaled) - 0.5) < HALF_PENNY_WINDOW) {
+			pence = new BigDecimal(Double.toString(magnitude)).setScale(2, RoundingMode.HALF_UP)
+					.movePointRight(2).longValueExact();
+		} else {
+			pence = Math.round(scaled);
+		}
+		return pounds < 0 ? -pence : pence;
+	}
+
+	public static double toPounds(long pence) {
+		return pence / 100.0;
+	}
+
+	// Line value of a quantity at a unit price; fails rather than wraps on overflow
+	public static long times(long pence, long quantity) {
+		return Math.multiplyExact(pence, quantity);
+	}
+
+	public static long add(long a, long b) {
+		return Math.addExact(a, b);
+	}
+
+	/**
+	 * The amount with a percentage taken off, rounded to the nearest penny.
+	 * @param pence
+	 * @param percent
+	 */
+	public static long percentOff(long pence, double percent) {
+		if (percent == 0) return pence;
+		return pence - ofPounds(pence * percent / 10000.0);
+	}
+
+	// Share of an amount per item, rounded half up; zero when there are no items
+	public static long divide(long pence, long count) {
+		if (count == 0) return 0;
+		long quotient = pence / count;
+		long remainder = Math.abs(pence % count);
+		if (remainder * 2 >= Math.abs(count)) {
+			quotient += (pence < 0) == (count < 0) ? 1 : -1;
+		}
+		return quotient;
+	}
+
+	// "1234.50" style text, as String.format("%.2f") prints pounds
+	public static String format(long pence) {
+		char[] buffer = new char[24];
+		int start = format(pence, '.', buffer);
+		return new String(buffer, start, buffer.length - start);
+	}
+
+	/**
+	 * Writes the amount as pounds into the end of buffer and returns the index
+	 * of its first character. The buffer must hold at least 24 characters.
+	 * @param pence
+	 * @param decimalSeparator
+	 * @param buffer
+	 */
+	static int format(long pence, char decimalSeparator, char[] buffer) {
+		int pos = buffer.length;
+		boolean negative = pence < 0;
+		// Work in negative numbers so Long.MIN_VALUE needs no special case
+		long remaining = negative ? pence : -pence;
+		buffer[--pos] = (char) ('0' - remaining % 10);
+		remaining /= 10;
+		buffer[--pos] = (char) ('0' - remaining % 10);
+		remaining /= 10;
+		buffer[--pos] = decimalSeparator;
+		do {
+			buffer[--pos] = (char) ('0' - remaining % 10);
+			remaining /= 10;
+		} while (remaining != 0);
+		if (negative) buffer[--pos] = '-';
+		return pos;
+	}
+
+}
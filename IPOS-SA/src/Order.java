@@ -1,12 +1,41 @@
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class Order {
 
 	private String orderID;
 	private String merchantID;
 	private Date orderDate;
-	private String status;
+	// Changed without a lock, so every change after creation goes through transition.
+	// Each change links to the one before, so a ReadView can see the status an
+	// order had at its version; an order changes status only a few times, so the
+	// chain is never pruned
+	private volatile StatusVersion status;
 	private OrderItem[] items;
+	// Discount applied to the net total, as a percentage
+	private double discountRate;
+	// Totals in pence are computed on first use and cleared whenever the items or discount change
+	private static final long NOT_COMPUTED = Long.MIN_VALUE;
+	private volatile long totalPence = NOT_COMPUTED;
+	private volatile long netTotalPence = NOT_COMPUTED;
+	private volatile DispatchRecord dispatch;
+
+	private static final class StatusVersion {
+		final OrderStatus status;
+		final long version;
+		final StatusVersion previous;
+
+		StatusVersion(OrderStatus status, long version, StatusVersion previous) {
+			this.status = status;
+			this.version = version;
+			this.previous = previous;
+		}
+	}
+
+	private static final AtomicReferenceFieldUpdater<Order, StatusVersion> STATUS =
+			AtomicReferenceFieldUpdater.newUpdater(Order.class, StatusVersion.class, "status");
+	private static final AtomicReferenceFieldUpdater<Order, DispatchRecord> DISPATCH =
+			AtomicReferenceFieldUpdater.newUpdater(Order.class, DispatchRecord.class, "dispatch");
 
 	public String getOrderID() {
 		return this.orderID;
@@ -44,16 +73,70 @@ public class Order {
 		this.orderDate = orderDate;
 	}
 
-	public String getStatus() {
-		return this.status;
+	public OrderStatus getStatus() {
+		StatusVersion current = this.status;
+		return current == null ? null : current.status;
 	}
 
 	/**
-	 * 
+	 * Sets the status without checking the move, for a new or recovered order.
+	 * Other changes go through OrderManagment_API.updateOrderStatus.
 	 * @param status
 	 */
-	public void setStatus(String status) {
-		this.status = status;
+	void setStatus(OrderStatus status) {
+		this.status = new StatusVersion(status, 0, null);
+	}
+
+	/**
+	 * Moves the order from one status to another, if it is still in the first
+	 * and the move is allowed.
+	 * @param from
+	 * @param to
+	 * @param version store version the change is made at
+	 */
+	boolean transition(OrderStatus from, OrderStatus to, long version) {
+		StatusVersion current = this.status;
+		return from != null && current != null && current.status == from && from.canBecome(to)
+				&& STATUS.compareAndSet(this, current, new StatusVersion(to, version, current));
+	}
+
+	// Stamps the order as placed at the version, before it is added to the store
+	void created(long version) {
+		this.status = new StatusVersion(getStatus(), version, null);
+	}
+
+	// Status at the store version, or null if the order had not been placed by then
+	OrderStatus getStatus(long version) {
+		for (StatusVersion node = this.status; node != null; node = node.previous) {
+			if (node.version <= version) return node.status;
+		}
+		return null;
+	}
+
+	boolean existedAt(long version) {
+		StatusVersion node = this.status;
+		if (node == null) return false;
+		while (node.previous != null) {
+			node = node.previous;
+		}
+		return node.version <= version;
+	}
+
+	// Null until the order is dispatched
+	public DispatchRecord getDispatch() {
+		return this.dispatch;
+	}
+
+	/**
+	 * 
+	 * @param dispatch
+	 */
+	void setDispatch(DispatchRecord dispatch) {
+		this.dispatch = dispatch;
+	}
+
+	boolean compareAndSetDispatch(DispatchRecord expected, DispatchRecord dispatch) {
+		return DISPATCH.compareAndSet(this, expected, dispatch);
 	}
 
 	public OrderItem[] getItems() {
@@ -66,6 +149,55 @@ public class Order {
 	 */
 	public void setItems(OrderItem[] items) {
 		this.items = items;
+		this.totalPence = NOT_COMPUTED;
+		this.netTotalPence = NOT_COMPUTED;
+	}
+
+	public double getDiscountRate() {
+		return this.discountRate;
+	}
+
+	/**
+	 * 
+	 * @param discountRate percentage taken off the total
+	 */
+	public void setDiscountRate(double discountRate) {
+		this.discountRate = discountRate;
+		this.netTotalPence = NOT_COMPUTED;
+	}
+
+	public double getTotal() {
+		return Money.toPounds(getTotalPence());
+	}
+
+	// Sum of quantity times unit price over every line
+	public long getTotalPence() {
+		long cached = this.totalPence;
+		if (cached == NOT_COMPUTED) {
+			cached = 0;
+			OrderItem[] lines = this.items;
+			if (lines != null) {
+				for (OrderItem item : lines) {
+					cached = Money.add(cached, Money.times(item.getUnitPricePence(), item.getQuantity()));
+				}
+			}
+			this.totalPence = cached;
+		}
+		return cached;
+	}
+
+	public double getNetTotal() {
+		return Money.toPounds(getNetTotalPence());
+	}
+
+	// Total after the discount rate is taken off
+	public long getNetTotalPence() {
+		long cached = this.netTotalPence;
+		if (cached == NOT_COMPUTED) {
+			cached = Money.percentOff(getTotalPence(), this.discountRate);
+			this.netTotalPence = cached;
+		}
+		return cached;
 	}
 
 }
\ No newline at end of file
@@ -2,7 +2,8 @@ public class OrderItem {
 
 	private String productID;
 	private int quantity;
-	private double unitPrice;
+	// Held in pence; see Money
+	private long unitPricePence;
 
 	public String getProductID() {
 		return this.productID;
@@ -29,15 +30,27 @@ public class OrderItem {
 	}
 
 	public double getUnitPrice() {
-		return this.unitPrice;
+		return Money.toPounds(this.unitPricePence);
 	}
 
 	/**
 	 * 
-	 * @param unitPrice
+	 * @param unitPrice rounded to the nearest penny
 	 */
 	public void setUnitPrice(double unitPrice) {
-		this.unitPrice = unitPrice;
+		this.unitPricePence = Money.ofPounds(unitPrice);
+	}
+
+	public long getUnitPricePence() {
+		return this.unitPricePence;
+	}
+
+	/**
+	 * 
+	 * @param unitPricePence
+	 */
+	public void setUnitPricePence(long unitPricePence) {
+		this.unitPricePence = unitPricePence;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,247 @@
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only, column-per-field copy of every order line for analytics.
+ * Product and merchant IDs are stored as int codes, amounts in pence and
+ * dates as epoch days, all in primitive arrays filled chunk by chunk.
+ * Cancelling an order appends reversing lines rather than editing old
+ * ones, so a scan only ever sums.
+ */
+public class OrderLineStore {
+
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final Dictionary products = new Dictionary();
+	private final Dictionary merchants = new Dictionary();
+
+	// Guarded by this; readers see whole lines up to size
+	private Chunk[] chunks = new Chunk[0];
+	private volatile Chunk[] publishedChunks = chunks;
+	private volatile int size;
+
+	/**
+	 * Adds every line of the order, or takes them back out when sign is -1.
+	 * @param order
+	 * @param sign 1 to add the order, -1 to reverse it
+	 */
+	void append(Order order, int sign) {
+		OrderItem[] items = order.getItems();
+		if (items == null || items.length == 0) return;
+
+		int day = (int) order.getOrderDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+		int merchant = merchants.codeOf(order.getMerchantID());
+		int[] productCodes = new int[items.length];
+		for (int i = 0; i < items.length; i++) {
+			productCodes[i] = products.codeOf(items[i].getProductID());
+		}
+
+		synchronized (this) {
+			int next = size;
+			for (int i = 0; i < items.length; i++, next++) {
+				Chunk chunk = chunkFor(next);
+				int slot = next & CHUNK_MASK;
+				chunk.product[slot] = productCodes[i];
+				chunk.merchant[slot] = merchant;
+				chunk.day[slot] = day;
+				chunk.quantity[slot] = sign * items[i].getQuantity();
+				chunk.pence[slot] = sign * Money.times(items[i].getUnitPricePence(), items[i].getQuantity());
+				// The first line of an order carries the order count
+				chunk.orders[slot] = (byte) (i == 0 ? sign : 0);
+			}
+			size = next;
+		}
+	}
+
+	private Chunk chunkFor(int line) {
+		int index = line >>> CHUNK_BITS;
+		if (index == chunks.length) {
+			chunks = Arrays.copyOf(chunks, index + 1);
+			chunks[index] = new Chunk();
+			publishedChunks = chunks;
+		}
+		return chunks[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Non-cancelled sales on every day from the day of start to the day of end,
+	 * inclusive, as SalesAggregates reports them.
+	 * @param start
+	 * @param end
+	 */
+	public SalesAggregates.Turnover getTurnover(Date start, Date end) {
+		int firstDay = (int) start.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+		int lastDay = (int) new Date(end.getTime() - 1).toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+
+		SalesAggregates.Turnover turnover = new SalesAggregates.Turnover();
+		addTurnover(turnover, firstDay, lastDay, size);
+		return turnover;
+	}
+
+	/**
+	 * Adds sales on every epoch day from firstDay to lastDay, inclusive, from
+	 * the first lines only, so a ReadView can sum the lines it covers.
+	 * @param turnover
+	 * @param firstDay
+	 * @param lastDay
+	 * @param lines
+	 */
+	void addTurnover(SalesAggregates.Turnover turnover, long firstDay, long lastDay, int lines) {
+		addTurnover(turnover, firstDay, lastDay, lines, ParallelReportEngine.sequential());
+	}
+
+	/**
+	 * The same, with the chunks split into runs summed by the engine. Sums are
+	 * exact, so the result does not depend on how the chunks were split.
+	 * @param turnover
+	 * @param firstDay
+	 * @param lastDay
+	 * @param lines
+	 * @param engine
+	 */
+	void addTurnover(SalesAggregates.Turnover turnover, long firstDay, long lastDay, int lines,
+					 ParallelReportEngine engine) {
+		Chunk[] snapshot = publishedChunks;
+		int productCount = products.size();
+		List<Integer> chunkIndexes = new ArrayList<>();
+		for (int c = 0; c * CHUNK_SIZE < lines; c++) {
+			chunkIndexes.add(c);
+		}
+		if (chunkIndexes.isEmpty()) return;
+
+		// A chunk is CHUNK_SIZE lines, so one is already worth a thread
+		for (SalesAggregates.Turnover part : engine.mapSlices(chunkIndexes, 1, run -> {
+			SalesAggregates.Turnover partial = new SalesAggregates.Turnover();
+			addChunkTurnover(partial, snapshot, run.get(0), run.get(run.size() - 1), firstDay, lastDay,
+					lines, productCount);
+			return partial;
+		})) {
+			turnover.add(part);
+		}
+	}
+
+	private void addChunkTurnover(SalesAggregates.Turnover turnover, Chunk[] snapshot, int firstChunk, int lastChunk,
+								  long firstDay, long lastDay, int lines, int productCount) {
+		long[] quantities = new long[productCount];
+		long[] pence = new long[productCount];
+		long orders = 0;
+
+		for (int c = firstChunk; c <= lastChunk; c++) {
+			Chunk chunk = snapshot[c];
+			int limit = Math.min(CHUNK_SIZE, lines - c * CHUNK_SIZE);
+			int[] day = chunk.day;
+			int[] product = chunk.product;
+			int[] quantity = chunk.quantity;
+			long[] amount = chunk.pence;
+			byte[] orderStart = chunk.orders;
+			for (int i = 0; i < limit; i++) {
+				int d = day[i];
+				if (d < firstDay || d > lastDay) continue;
+				int p = product[i];
+				quantities[p] += quantity[i];
+				pence[p] += amount[i];
+				orders += orderStart[i];
+			}
+		}
+
+		turnover.addOrders(orders);
+		for (int p = 0; p < productCount; p++) {
+			if (quantities[p] != 0 || pence[p] != 0) {
+				turnover.addProduct(products.nameOf(p), quantities[p], pence[p]);
+			}
+		}
+	}
+
+	/**
+	 * Order count and sales pence per merchant over the same days as getTurnover,
+	 * cancelled orders excluded.
+	 * @param start
+	 * @param end
+	 */
+	public Map<String, long[]> getSalesByMerchant(Date start, Date end) {
+		int firstDay = (int) start.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+		int lastDay = (int) new Date(end.getTime() - 1).toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+
+		int lines = size;
+		Chunk[] snapshot = publishedChunks;
+		int merchantCount = merchants.size();
+		long[] orders = new long[merchantCount];
+		long[] pence = new long[merchantCount];
+
+		for (int c = 0; c * CHUNK_SIZE < lines; c++) {
+			Chunk chunk = snapshot[c];
+			int limit = Math.min(CHUNK_SIZE, lines - c * CHUNK_SIZE);
+			int[] day = chunk.day;
+			int[] merchant = chunk.merchant;
+			long[] amount = chunk.pence;
+			byte[] orderStart = chunk.orders;
+			for (int i = 0; i < limit; i++) {
+				int d = day[i];
+				if (d < firstDay || d > lastDay) continue;
+				int m = merchant[i];
+				orders[m] += orderStart[i];
+				pence[m] += amount[i];
+			}
+		}
+
+		Map<String, long[]> result = new TreeMap<>();
+		for (int m = 0; m < merchantCount; m++) {
+			if (orders[m] != 0 || pence[m] != 0) {
+				result.put(merchants.nameOf(m), new long[] {orders[m], pence[m]});
+			}
+		}
+		return result;
+	}
+
+	private static class Chunk {
+		final int[] product = new int[CHUNK_SIZE];
+		final int[] merchant = new int[CHUNK_SIZE];
+		final int[] day = new int[CHUNK_SIZE];
+		final int[] quantity = new int[CHUNK_SIZE];
+		final long[] pence = new long[CHUNK_SIZE];
+		final byte[] orders = new byte[CHUNK_SIZE];
+	}
+
+	// Assigns dense int codes to IDs in first-seen order
+	private static class Dictionary {
+		private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+		private volatile String[] names = new String[16];
+		private int count;
+
+		int codeOf(String name) {
+			Integer code = codes.get(name);
+			return code != null ? code : add(name);
+		}
+
+		private synchronized int add(String name) {
+			Integer code = codes.get(name);
+			if (code != null) return code;
+
+			String[] current = names;
+			if (count == current.length) {
+				current = Arrays.copyOf(current, count * 2);
+			}
+			current[count] = name;
+			names = current;
+			codes.put(name, count);
+			return count++;
+		}
+
+		// Codes handed out so far; every code below this has a name
+		int size() {
+			return codes.size();
+		}
+
+		String nameOf(int code) {
+			return names[code];
+		}
+	}
+
+}
@@ -1,19 +1,54 @@
 // OrderManagment_API.java (fixed class name typo)
+import java.io.IOException;
+import java.io.Reader;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.Date;
 
 public class OrderManagment_API implements IOrderManagement {
 
-	private Map<String, Order> orders = new ConcurrentHashMap<>();
+	// Orders by the number in their ID, so ORD1001 is under 1001
+	private final IntMap<Order> orders = new IntMap<>();
 	private Map<String, Invoice> invoices = new ConcurrentHashMap<>();
-	private Map<String, List<Order>> merchantOrders = new ConcurrentHashMap<>();
-	private Map<String, List<Payment>> merchantPayments = new ConcurrentHashMap<>();
+	// Secondary invoice indexes, kept in step with the invoices map on every write
+	private Map<String, Invoice> invoicesByOrder = new ConcurrentHashMap<>();
+	// Orders whose invoice is being raised, so a second caller waits for the first instead of raising another
+	private final Map<String, CompletableFuture<Invoice>> invoicesRaising = new ConcurrentHashMap<>();
+	private final Map<String, HistoryLog<Invoice>> invoicesByMerchant = new ConcurrentHashMap<>();
+	private NavigableSet<Invoice> unpaidInvoicesByDueDate = new ConcurrentSkipListSet<>(
+			Comparator.comparing(Invoice::getDueDate).thenComparing(Invoice::getInvoiceID));
+	// Appended from any thread and read in place; see HistoryLog
+	private final Map<String, HistoryLog<Order>> merchantOrders = new ConcurrentHashMap<>();
+	private final Map<String, HistoryLog<Payment>> merchantPayments = new ConcurrentHashMap<>();
+	// Every order and invoice in the order they were recorded, for paging through them all
+	private final HistoryLog<Order> orderLog = new HistoryLog<>();
+	private final HistoryLog<Invoice> invoiceLog = new HistoryLog<>();
 	private AccountManagement_API accountManagement;
 	private ProductCatalogue_API productCatalogue;
 	private AtomicInteger orderCounter = new AtomicInteger(1000);
 	private AtomicInteger invoiceCounter = new AtomicInteger(5000);
+	private final SalesAggregates salesAggregates = new SalesAggregates();
+	private final OrderLineStore orderLines = new OrderLineStore();
+	private final OrderTimeIndex orderTimes = new OrderTimeIndex();
+	private final DispatchTracker dispatchTracker = new DispatchTracker();
+	private final DiscountEngine discounts = new DiscountEngine();
+	// Versions orders, statuses, payments and order lines for ReadViews
+	private final VersionClock clock = new VersionClock();
+	private final StatusIndex<OrderStatus, Order> ordersByStatus =
+			new StatusIndex<>(OrderStatus.class, Order::getStatus, Order::getOrderID);
+	private final StatusIndex<InvoiceStatus, Invoice> invoicesByStatus =
+			new StatusIndex<>(InvoiceStatus.class, Invoice::getStatus, OrderManagment_API::invoiceKey);
+	private PersistenceManager persistence;
+	private EventBus events;
+	// Bumped after every change to orders, invoices or payments
+	private final AtomicLong changes = new AtomicLong();
 
 	public OrderManagment_API(AccountManagement_API accountManagement,
 							  ProductCatalogue_API productCatalogue) {
@@ -34,69 +69,323 @@ public class OrderManagment_API implements IOrderManagement {
 		}
 
 		// Check if merchant account is active
-		if (!"ACTIVE".equals(merchant.getStatus())) {
+		if (merchant.getStatus() != MerchantStatus.ACTIVE) {
 			throw new IllegalStateException("Merchant account is not active. Status: " +
 					merchant.getStatus());
 		}
 
-		// Check credit limit
-		double orderTotal = calculateOrderTotalFromItems(order.getItems());
-		if (merchant.getBalance() + orderTotal > merchant.getCreditLimit()) {
-			throw new IllegalStateException("Order would exceed credit limit. " +
-					"Current balance: " + merchant.getBalance() +
-					", Order total: " + orderTotal +
-					", Credit limit: " + merchant.getCreditLimit());
+		// Check credit limit and reserve the discounted total against it (increase debt)
+		long orderTotal = priceOrder(order);
+		if (!accountManagement.reserveCredit(merchant, orderTotal)) {
+			throw new IllegalStateException(creditLimitMessage(
+					merchant.getBalancePence(), orderTotal, merchant.getCreditLimitPence()));
 		}
 
-		// Generate order ID
-		String orderID = "ORD" + orderCounter.incrementAndGet();
-		order.setOrderID(orderID);
+		// Reserve stock for every line, or reject the whole order
+		StockReservation reservation;
+		try {
+			reservation = productCatalogue.reserveStock(order.getItems());
+		} catch (RuntimeException e) {
+			accountManagement.releaseCredit(merchant, orderTotal);
+			throw e;
+		}
 
-		if (order.getOrderDate() == null) {
-			order.setOrderDate(new Date());
+		// Make the stock taken permanent before the order exists; the order's log record carries it.
+		// A reservation already expired has had its stock returned, so the order cannot go ahead
+		if (!productCatalogue.commitLoggedReservation(reservation)) {
+			accountManagement.releaseCredit(merchant, orderTotal);
+			throw new IllegalStateException("Stock reservation expired before the order was placed");
 		}
 
-		if (order.getStatus() == null) {
-			order.setStatus("PENDING");
+		// Generate order ID, store order and add it to the merchant's history
+		return registerOrder(order, orderTotal);
+	}
+
+	@Override
+	public List<OrderResult> createOrders(List<Order> batch) {
+		if (batch == null) {
+			throw new IllegalArgumentException("Order list cannot be null");
 		}
 
-		// Store order
-		orders.put(orderID, order);
+		int size = batch.size();
+		OrderResult[] results = new OrderResult[size];
+		long[] totals = new long[size];
+		Merchant[] merchantOf = new Merchant[size];
 
-		// Add to merchant's order history
-		merchantOrders.computeIfAbsent(order.getMerchantID(),
-				k -> new ArrayList<>()).add(order);
+		// Look up each merchant once; creditPlan holds {credit still free, amount charged by the batch}
+		Map<String, Merchant> merchantsByID = new HashMap<>();
+		Map<Merchant, long[]> creditPlan = new LinkedHashMap<>();
+		// Spend before discount of the orders accepted so far, by merchant and month, for tiered plans
+		Map<Merchant, Map<YearMonth, long[]>> spendPlan = new HashMap<>();
+		Map<String, Product> productsByID = new HashMap<>();
+		Map<Product, int[]> stockPlan = new LinkedHashMap<>();
 
-		// Update stock levels (reduce by ordered quantities)
-		updateStockForOrder(order.getItems());
+		// Plan every order in submission order against one read of each balance and stock level
+		for (int i = 0; i < size; i++) {
+			Order order = batch.get(i);
+			if (order == null) {
+				results[i] = OrderResult.rejected("Order cannot be null");
+				continue;
+			}
+			if (order.getMerchantID() == null || order.getMerchantID().trim().isEmpty()) {
+				results[i] = OrderResult.rejected("Merchant ID cannot be null or empty");
+				continue;
+			}
 
-		// Update merchant balance (increase debt)
-		merchant.setBalance(merchant.getBalance() + orderTotal);
+			Merchant merchant = merchantsByID.computeIfAbsent(order.getMerchantID(),
+					accountManagement::getMerchant);
+			if (merchant == null) {
+				results[i] = OrderResult.rejected("Merchant not found: " + order.getMerchantID());
+				continue;
+			}
+			if (merchant.getStatus() != MerchantStatus.ACTIVE) {
+				results[i] = OrderResult.rejected("Merchant account is not active. Status: " +
+						merchant.getStatus());
+				continue;
+			}
 
-		return orderID;
-	}
+			long[] credit = creditPlan.computeIfAbsent(merchant,
+					m -> new long[] {m.getCreditLimitPence() - m.getBalancePence(), 0});
+			// Tiers see the batch's earlier orders in the month's spend, as they would through createOrder
+			long[] spend = plannedSpend(spendPlan, merchant, order);
+			totals[i] = priceOrder(order, spend == null ? 0 : spend[0]);
+			if (totals[i] > credit[0]) {
+				results[i] = OrderResult.rejected(creditLimitMessage(
+						merchant.getBalancePence() + credit[1], totals[i], merchant.getCreditLimitPence()));
+				continue;
+			}
 
-	private double calculateOrderTotalFromItems(OrderItem[] items) {
-		if (items == null) return 0.0;
+			String problem = planStock(order.getItems(), productsByID, stockPlan);
+			if (problem != null) {
+				results[i] = OrderResult.rejected(problem);
+				continue;
+			}
+
+			credit[0] -= totals[i];
+			credit[1] += totals[i];
+			if (spend != null) spend[0] += order.getTotalPence();
+			merchantOf[i] = merchant;
+		}
 
-		double total = 0.0;
-		for (OrderItem item : items) {
-			total += item.getQuantity() * item.getUnitPrice();
+		// Charge each merchant's accepted orders in one update
+		creditPlan.values().removeIf(credit -> credit[1] == 0);
+		Merchant[] charged = creditPlan.keySet().toArray(new Merchant[0]);
+		long[] chargedPence = new long[charged.length];
+		int merchantLine = 0;
+		for (long[] credit : creditPlan.values()) {
+			chargedPence[merchantLine++] = credit[1];
 		}
-		return total;
+		boolean[] reserved = new boolean[charged.length];
+		if (accountManagement.reserveCredit(charged, chargedPence, reserved) < charged.length) {
+			// Balance moved since it was read; charge those merchants' orders one by one
+			Set<Merchant> refused = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (int m = 0; m < charged.length; m++) {
+				if (!reserved[m]) refused.add(charged[m]);
+			}
+			int[] retried = new int[size];
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				if (merchantOf[i] != null && refused.contains(merchantOf[i])) retried[count++] = i;
+			}
+			Merchant[] orderMerchants = new Merchant[count];
+			long[] orderTotals = new long[count];
+			for (int line = 0; line < count; line++) {
+				orderMerchants[line] = merchantOf[retried[line]];
+				orderTotals[line] = totals[retried[line]];
+			}
+			boolean[] orderReserved = new boolean[count];
+			accountManagement.reserveCredit(orderMerchants, orderTotals, orderReserved);
+			for (int line = 0; line < count; line++) {
+				if (orderReserved[line]) continue;
+
+				int i = retried[line];
+				Merchant merchant = merchantOf[i];
+				results[i] = OrderResult.rejected(creditLimitMessage(
+						merchant.getBalancePence(), totals[i], merchant.getCreditLimitPence()));
+				merchantOf[i] = null;
+				OrderItem[] items = batch.get(i).getItems();
+				unplanStock(items, productsByID, stockPlan, items == null ? 0 : items.length);
+			}
+		}
+
+		// Reserve the planned stock with one update per product
+		stockPlan.values().removeIf(plan -> plan[1] == 0);
+		Product[] plannedProducts = new Product[stockPlan.size()];
+		int[] plannedQuantities = new int[stockPlan.size()];
+		int line = 0;
+		for (Map.Entry<Product, int[]> entry : stockPlan.entrySet()) {
+			plannedProducts[line] = entry.getKey();
+			plannedQuantities[line] = entry.getValue()[1];
+			line++;
+		}
+
+		// Each reservation with the order it holds stock for, or -1 for every accepted order
+		List<StockReservation> reservations = new ArrayList<>();
+		List<Integer> reservedOrders = new ArrayList<>();
+		List<Merchant> refunded = new ArrayList<>();
+		List<Long> refunds = new ArrayList<>();
+		try {
+			reservations.add(productCatalogue.reserveStock(plannedProducts, plannedQuantities,
+					ProductCatalogue_API.DEFAULT_RESERVATION_TTL_MILLIS));
+			reservedOrders.add(-1);
+		} catch (IllegalStateException e) {
+			// Stock moved since it was read; reserve each order on its own and refund those refused
+			for (int i = 0; i < size; i++) {
+				if (merchantOf[i] == null) continue;
+				try {
+					reservations.add(productCatalogue.reserveStock(batch.get(i).getItems()));
+					reservedOrders.add(i);
+				} catch (RuntimeException orderProblem) {
+					refund(i, orderProblem.getMessage(), merchantOf, totals, results, refunded, refunds);
+				}
+			}
+		}
+
+		// Make the stock taken permanent before the orders exist; their log records carry it.
+		// A reservation already expired has had its stock returned, so its orders cannot go ahead
+		for (int r = 0; r < reservations.size(); r++) {
+			if (productCatalogue.commitLoggedReservation(reservations.get(r))) continue;
+
+			int reservedOrder = reservedOrders.get(r);
+			int first = reservedOrder < 0 ? 0 : reservedOrder;
+			int last = reservedOrder < 0 ? size - 1 : reservedOrder;
+			for (int i = first; i <= last; i++) {
+				if (merchantOf[i] != null) {
+					refund(i, "Stock reservation expired before the order was placed",
+							merchantOf, totals, results, refunded, refunds);
+				}
+			}
+		}
+		accountManagement.releaseCredit(refunded.toArray(new Merchant[0]),
+				refunds.stream().mapToLong(Long::longValue).toArray());
+
+		// Store accepted orders in submission order
+		for (int i = 0; i < size; i++) {
+			if (merchantOf[i] != null) {
+				results[i] = OrderResult.accepted(registerOrder(batch.get(i), totals[i]));
+			}
+		}
+
+		return Arrays.asList(results);
 	}
 
-	private void updateStockForOrder(OrderItem[] items) {
-		if (items == null) return;
+	// Rejects a charged batch order and queues its charge to be handed back
+	private static void refund(int i, String reason, Merchant[] merchantOf, long[] totals,
+							   OrderResult[] results, List<Merchant> refunded, List<Long> refunds) {
+		refunded.add(merchantOf[i]);
+		refunds.add(totals[i]);
+		merchantOf[i] = null;
+		results[i] = OrderResult.rejected(reason);
+	}
+
+	// Takes an order's lines out of the planned stock levels, or returns why it cannot
+	private String planStock(OrderItem[] items, Map<String, Product> productsByID,
+							 Map<Product, int[]> stockPlan) {
+		if (items == null) return null;
 
-		for (OrderItem item : items) {
-			Product product = productCatalogue.getProduct(item.getProductID());
-			if (product != null) {
-				int newStock = product.getStockLevel() - item.getQuantity();
-				product.setStockLevel(Math.max(0, newStock));
-				productCatalogue.updateStock(item.getProductID(), newStock);
+		for (int line = 0; line < items.length; line++) {
+			OrderItem item = items[line];
+			String problem = null;
+			Product product = item.getProductID() == null ? null :
+					productsByID.computeIfAbsent(item.getProductID(), productCatalogue::getProduct);
+			int[] plan = null;
+			if (product == null) {
+				problem = "Product not found: " + item.getProductID();
+			} else if (item.getQuantity() <= 0) {
+				problem = "Invalid quantity for product: " + item.getProductID();
+			} else {
+				// plan[0] is the stock still free, plan[1] the quantity taken by the batch
+				plan = stockPlan.computeIfAbsent(product, p -> new int[] {p.getStockLevel(), 0});
+				if (plan[0] < item.getQuantity()) {
+					problem = "Insufficient stock for product " + item.getProductID() +
+							". Requested: " + item.getQuantity() + ", Available: " + plan[0];
+				}
 			}
+
+			if (problem != null) {
+				// Give back the lines of this order already planned
+				unplanStock(items, productsByID, stockPlan, line);
+				return problem;
+			}
+
+			plan[0] -= item.getQuantity();
+			plan[1] += item.getQuantity();
+		}
+		return null;
+	}
+
+	private void unplanStock(OrderItem[] items, Map<String, Product> productsByID,
+							 Map<Product, int[]> stockPlan, int lines) {
+		for (int line = 0; line < lines; line++) {
+			int[] plan = stockPlan.get(productsByID.get(items[line].getProductID()));
+			plan[0] += items[line].getQuantity();
+			plan[1] -= items[line].getQuantity();
+		}
+	}
+
+	// Fixes the order's date and discount rate, and returns what the merchant is charged
+	private long priceOrder(Order order) {
+		return priceOrder(order, 0);
+	}
+
+	// The same, counting plannedPence of not yet registered orders in the month's spend
+	private long priceOrder(Order order, long plannedPence) {
+		if (order.getOrderDate() == null) {
+			order.setOrderDate(new Date());
+		}
+
+		DiscountRule rule = accountManagement.getDiscountRule(order.getMerchantID());
+		order.setDiscountRate(rule == null ? 0.0 : discounts.rateFor(rule, order.getMerchantID(),
+				order.getOrderDate(), plannedPence, order.getTotalPence()));
+		return order.getNetTotalPence();
+	}
+
+	// The batch's planned spend in the order's month, or null if the merchant's plan has no tiers
+	private long[] plannedSpend(Map<Merchant, Map<YearMonth, long[]>> spendPlan, Merchant merchant, Order order) {
+		DiscountRule rule = accountManagement.getDiscountRule(merchant.getMerchantID());
+		if (rule == null || !rule.isFlexible()) return null;
+
+		if (order.getOrderDate() == null) {
+			order.setOrderDate(new Date());
+		}
+		return spendPlan.computeIfAbsent(merchant, m -> new HashMap<>())
+				.computeIfAbsent(DiscountEngine.monthOf(order.getOrderDate()), month -> new long[1]);
+	}
+
+	private String registerOrder(Order order, long chargedPence) {
+		int number = orderCounter.incrementAndGet();
+		String orderID = "ORD" + number;
+		order.setOrderID(orderID);
+
+		if (order.getStatus() == null) {
+			order.setStatus(OrderStatus.PENDING);
+		}
+
+		// Log before publishing so no change to this order can be logged ahead of it
+		if (persistence != null) persistence.logOrderCreated(order, chargedPence);
+		// One write section, so a ReadView sees the order with its history and sales or not at all
+		long stamp = clock.beginWrite();
+		try {
+			order.created(clock.writeVersion());
+			orders.put(number, order);
+			history(merchantOrders, order.getMerchantID()).append(order);
+			orderLog.append(order);
+			orderTimes.add(order);
+			recordSale(order, chargedPence, clock.writeVersion());
+		} finally {
+			clock.endWrite(stamp);
 		}
+		ordersByStatus.update(order);
+		changes.incrementAndGet();
+		if (events != null) events.publish(new DomainEvent.OrderCreated(order));
+		return orderID;
+	}
+
+	private String creditLimitMessage(long balancePence, long orderTotalPence, long creditLimitPence) {
+		return "Order would exceed credit limit. " +
+				"Current balance: " + Money.toPounds(balancePence) +
+				", Order total: " + Money.toPounds(orderTotalPence) +
+				", Credit limit: " + Money.toPounds(creditLimitPence);
 	}
 
 	@Override
@@ -104,36 +393,96 @@ public class OrderManagment_API implements IOrderManagement {
 		if (orderID == null) {
 			throw new IllegalArgumentException("Order ID cannot be null");
 		}
-		return orders.get(orderID);
+		return findOrder(orderID);
+	}
+
+	private Order findOrder(String orderID) {
+		int number = orderNumber(orderID);
+		return number < 0 ? null : orders.get(number);
 	}
 
+	/**
+	 * The number in an order ID made by registerOrder, or -1 if the string is
+	 * not one. Read in place, so looking up an order allocates nothing.
+	 * @param orderID
+	 */
+	static int orderNumber(String orderID) {
+		if (orderID == null || !orderID.startsWith("ORD")) return -1;
+
+		int length = orderID.length();
+		// Generated IDs have no leading zeros, so ORD01001 is not ORD1001
+		if (length == 3 || length > 13 || length > 4 && orderID.charAt(3) == '0') return -1;
+		long number = 0;
+		for (int i = 3; i < length; i++) {
+			char digit = orderID.charAt(i);
+			if (digit < '0' || digit > '9') return -1;
+			number = number * 10 + (digit - '0');
+		}
+		return number > Integer.MAX_VALUE ? -1 : (int) number;
+	}
+
+	/**
+	 * Moves the order to the status, if that move is allowed from the status it
+	 * has now. Cancelling goes through cancelOrder, so stock and credit are
+	 * returned. Setting the status it already has succeeds without a change.
+	 * @param orderID
+	 * @param status
+	 */
 	@Override
-	public boolean updateOrderStatus(String orderID, String status) {
+	public boolean updateOrderStatus(String orderID, OrderStatus status) {
 		if (orderID == null || status == null) {
 			return false;
 		}
 
-		Order order = orders.get(orderID);
+		Order order = findOrder(orderID);
 		if (order == null) {
 			return false;
 		}
+		if (status == OrderStatus.CANCELLED) {
+			return order.getStatus() == status || cancelOrder(orderID);
+		}
 
-		order.setStatus(status);
+		OrderStatus previous;
+		do {
+			previous = order.getStatus();
+			if (previous == status) return true;
+			if (previous == null || !previous.canBecome(status)) return false;
+		} while (!transition(order, previous, status));
+
+		if (persistence != null) persistence.logOrderStatus(order);
+		ordersByStatus.update(order);
+		changes.incrementAndGet();
+		if (events != null) events.publish(new DomainEvent.StatusChanged(orderID, previous, status));
 		return true;
 	}
 
+	// A copy; getOrderHistory reads the same orders without one
 	@Override
 	public Order[] orderHistory(String merchantID) {
-		if (merchantID == null) {
-			return new Order[0];
-		}
+		return getOrderHistory(merchantID).toArray(new Order[0]);
+	}
 
-		List<Order> merchantOrderList = merchantOrders.get(merchantID);
-		if (merchantOrderList == null) {
-			return new Order[0];
-		}
+	/**
+	 * The merchant's orders in the order they were placed, read in place
+	 * rather than copied. Orders placed after the call are not seen.
+	 * @param merchantID
+	 */
+	public HistoryLog.View<Order> getOrderHistory(String merchantID) {
+		HistoryLog<Order> history = merchantID == null ? null : merchantOrders.get(merchantID);
+		return history == null ? HistoryLog.empty() : history.view();
+	}
 
-		return merchantOrderList.toArray(new Order[0]);
+	/**
+	 * Up to limit of the merchant's orders, starting at the cursor, in the
+	 * order they were placed. Start from 0 and pass each page's next cursor
+	 * to get the page after it.
+	 * @param merchantID
+	 * @param cursor
+	 * @param limit
+	 */
+	public HistoryLog.View<Order> getOrderHistory(String merchantID, int cursor, int limit) {
+		HistoryLog<Order> history = merchantID == null ? null : merchantOrders.get(merchantID);
+		return history == null ? HistoryLog.empty() : history.page(cursor, limit);
 	}
 
 	@Override
@@ -142,12 +491,12 @@ public class OrderManagment_API implements IOrderManagement {
 			return 0.0;
 		}
 
-		Order order = orders.get(orderID);
+		Order order = findOrder(orderID);
 		if (order == null) {
 			return 0.0;
 		}
 
-		return calculateOrderTotalFromItems(order.getItems());
+		return order.getTotal();
 	}
 
 	@Override
@@ -156,67 +505,90 @@ public class OrderManagment_API implements IOrderManagement {
 			return false;
 		}
 
-		Order order = orders.get(orderID);
+		Order order = findOrder(orderID);
 		if (order == null) {
 			return false;
 		}
 
-		// Can only cancel pending orders
-		if (!"PENDING".equals(order.getStatus())) {
-			return false;
+		// Can only cancel pending orders; only one cancel or dispatch can win the
+		// move out of PENDING, so the balance is never credited twice
+		Merchant merchant = accountManagement.getMerchant(order.getMerchantID());
+		long orderTotal = order.getNetTotalPence();
+		long stamp = clock.beginWrite();
+		try {
+			if (!order.transition(OrderStatus.PENDING, OrderStatus.CANCELLED, clock.writeVersion())) {
+				return false;
+			}
+			updateSalesForStatus(order, OrderStatus.PENDING);
+		} finally {
+			clock.endWrite(stamp);
 		}
 
-		order.setStatus("CANCELLED");
+		if (persistence != null) {
+			persistence.logOrderCancelled(order, merchant == null ? 0 : orderTotal);
+		}
+		ordersByStatus.update(order);
 
-		// Restore stock
-		restoreStockForCancelledOrder(order.getItems());
+		// Restore stock; the cancellation record carries it
+		productCatalogue.releaseLoggedStock(order.getItems());
 
 		// Update merchant balance
-		Merchant merchant = accountManagement.getMerchant(order.getMerchantID());
 		if (merchant != null) {
-			double orderTotal = calculateOrderTotalFromItems(order.getItems());
-			merchant.setBalance(merchant.getBalance() - orderTotal);
+			accountManagement.releaseCredit(merchant, orderTotal);
 		}
 
+		changes.incrementAndGet();
+		if (events != null) events.publish(new DomainEvent.OrderCancelled(order, merchant == null ? 0 : orderTotal));
 		return true;
 	}
 
-	private void restoreStockForCancelledOrder(OrderItem[] items) {
-		if (items == null) return;
-
-		for (OrderItem item : items) {
-			Product product = productCatalogue.getProduct(item.getProductID());
-			if (product != null) {
-				int newStock = product.getStockLevel() + item.getQuantity();
-				product.setStockLevel(newStock);
-				productCatalogue.updateStock(item.getProductID(), newStock);
-			}
-		}
-	}
-
 	@Override
 	public Invoice raiseInvoice(String orderID) {
 		if (orderID == null) {
 			throw new IllegalArgumentException("Order ID cannot be null");
 		}
 
-		Order order = orders.get(orderID);
+		Order order = findOrder(orderID);
 		if (order == null) {
 			throw new IllegalArgumentException("Order not found: " + orderID);
 		}
 
-		// Check if invoice already exists
-		for (Invoice inv : invoices.values()) {
-			if (orderID.equals(inv.getOrderID())) {
-				return inv; // Return existing invoice
+		Invoice existing = invoicesByOrder.get(orderID);
+		if (existing != null) return existing;
+
+		// Reserve the order rather than raising inside a map update, which would hold
+		// the map's lock across the log write and the event publish
+		CompletableFuture<Invoice> raising = new CompletableFuture<>();
+		CompletableFuture<Invoice> other = invoicesRaising.putIfAbsent(orderID, raising);
+		if (other != null) {
+			try {
+				return other.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw e;
 			}
 		}
+		try {
+			// Another caller may have finished between the check and the reservation
+			existing = invoicesByOrder.get(orderID);
+			Invoice invoice = existing != null ? existing : createInvoice(order);
+			raising.complete(invoice);
+			return invoice;
+		} catch (RuntimeException | Error e) {
+			raising.completeExceptionally(e);
+			throw e;
+		} finally {
+			invoicesRaising.remove(orderID, raising);
+		}
+	}
 
-		// Create new invoice
+	private Invoice createInvoice(Order order) {
 		Invoice invoice = new Invoice();
 		String invoiceID = "INV" + invoiceCounter.incrementAndGet();
 		invoice.setInvoiceID(invoiceID);
-		invoice.setOrderID(orderID);
+		invoice.setOrderID(order.getOrderID());
 		invoice.setMerchantID(order.getMerchantID());
 		invoice.setIssueDate(new Date());
 
@@ -225,17 +597,240 @@ public class OrderManagment_API implements IOrderManagement {
 		cal.add(Calendar.DAY_OF_MONTH, 30);
 		invoice.setDueDate(cal.getTime());
 
-		invoice.setTotalAmount(calculateOrderTotal(orderID));
-		invoice.setStatus("ISSUED");
+		invoice.setTotalAmountPence(order.getNetTotalPence());
+		invoice.setStatus(InvoiceStatus.ISSUED);
 
+		if (persistence != null) persistence.logInvoice(invoice);
 		invoices.put(invoiceID, invoice);
+		history(invoicesByMerchant, invoice.getMerchantID()).append(invoice);
+		invoice.setLogPosition(invoiceLog.append(invoice));
+		unpaidInvoicesByDueDate.add(invoice);
+		invoicesByStatus.update(invoice);
+		salesAggregates.invoiceOutstanding(invoice, true);
+		// Found by order only once it is logged and indexed
+		invoicesByOrder.put(order.getOrderID(), invoice);
+		changes.incrementAndGet();
+		if (events != null) events.publish(new DomainEvent.InvoiceRaised(invoice));
 
 		return invoice;
 	}
 
+	/**
+	 * Marks the invoice paid, or reverses a payment. Setting the status it
+	 * already has succeeds without a change.
+	 * @param invoiceID
+	 * @param status
+	 */
+	public boolean updateInvoiceStatus(String invoiceID, InvoiceStatus status) {
+		if (invoiceID == null || status == null) {
+			return false;
+		}
+
+		Invoice invoice = invoices.get(invoiceID);
+		if (invoice == null) {
+			return false;
+		}
+
+		InvoiceStatus previous;
+		do {
+			previous = invoice.getStatus();
+			if (previous == status) return true;
+			if (previous == null || !previous.canBecome(status)) return false;
+		} while (!invoice.transition(previous, status));
+
+		if (persistence != null) persistence.logInvoiceStatus(invoice);
+		updateUnpaid(invoice);
+		invoicesByStatus.update(invoice);
+		// Each won transition moves the outstanding total once, in whichever order they land
+		salesAggregates.invoiceOutstanding(invoice, status != InvoiceStatus.PAID);
+		changes.incrementAndGet();
+		if (events != null) events.publish(new DomainEvent.StatusChanged(invoiceID, previous, status));
+		return true;
+	}
+
+	// Keeps the unpaid set in step with the status, however concurrent changes interleave
+	private void updateUnpaid(Invoice invoice) {
+		InvoiceStatus status;
+		do {
+			status = invoice.getStatus();
+			if (status == InvoiceStatus.PAID) {
+				unpaidInvoicesByDueDate.remove(invoice);
+			} else {
+				unpaidInvoicesByDueDate.add(invoice);
+			}
+		} while (status != invoice.getStatus());
+	}
+
+	/**
+	 * Records how a pending order was sent and marks it DISPATCHED. The
+	 * details of an order already dispatched can be corrected the same way.
+	 * Fails if the tracking number belongs to another order, or if a courier
+	 * has already reported the parcel delivered.
+	 * @param orderID
+	 * @param courier
+	 * @param dispatchDate when it was sent; now if null
+	 * @param trackingNo
+	 */
 	@Override
 	public boolean updateDispatchInfo(String orderID, String courier, Date dispatchDate, String trackingNo) {
-		return false;
+		if (orderID == null || courier == null || trackingNo == null) {
+			return false;
+		}
+
+		Order order = findOrder(orderID);
+		if (order == null) {
+			return false;
+		}
+
+		Date sentAt = dispatchDate == null ? new Date() : dispatchDate;
+		DispatchRecord previous = order.getDispatch();
+		boolean sameParcel = previous != null && trackingNo.equals(previous.getTrackingNo());
+		if (!dispatchTracker.claim(trackingNo, order)) {
+			return false;
+		}
+
+		boolean sent = transition(order, OrderStatus.PENDING, OrderStatus.DISPATCHED);
+		if (!sent && order.getStatus() != OrderStatus.DISPATCHED) {
+			if (!sameParcel) dispatchTracker.release(trackingNo, order);
+			return false;
+		}
+
+		// A courier import may move the record on at any time; a delivered parcel is not sent again
+		DispatchRecord record = new DispatchRecord(orderID, courier, trackingNo, sentAt, OrderStatus.DISPATCHED, sentAt);
+		boolean recorded;
+		do {
+			previous = order.getDispatch();
+			recorded = previous == null || previous.getStatus() == OrderStatus.DISPATCHED
+					|| previous.getStatus().canBecome(OrderStatus.DISPATCHED);
+		} while (recorded && !order.compareAndSetDispatch(previous, record));
+
+		if (!recorded) {
+			if (!trackingNo.equals(previous.getTrackingNo())) dispatchTracker.release(trackingNo, order);
+			if (!sent) return false;
+		} else if (previous != null && previous.getTrackingNo() != null
+				&& !trackingNo.equals(previous.getTrackingNo())) {
+			dispatchTracker.release(previous.getTrackingNo(), order);
+		}
+		if (persistence != null) {
+			if (recorded) persistence.logDispatch(record);
+			if (sent) persistence.logOrderStatus(order);
+		}
+		if (sent) ordersByStatus.update(order);
+		changes.incrementAndGet();
+		if (sent && events != null) {
+			events.publish(new DomainEvent.StatusChanged(orderID, OrderStatus.PENDING, OrderStatus.DISPATCHED));
+		}
+		return recorded;
+	}
+
+	public DispatchTracker.ImportResult importCourierUpdates(Reader in) throws IOException {
+		return importCourierUpdates(in, DispatchTracker.DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Streams a courier status file and moves each parcel's order forward to
+	 * the reported status, a batch of rows at a time. Orders are changed with
+	 * compare-and-set rather than locked, so order entry and other imports
+	 * carry on while a large file is applied. Rows that would move an order
+	 * backwards are left alone; rows for cancelled orders are rejected.
+	 * @param in
+	 * @param batchSize rows applied and logged together
+	 */
+	public DispatchTracker.ImportResult importCourierUpdates(Reader in, int batchSize) throws IOException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+
+		DispatchTracker.ImportResult result = new DispatchTracker.ImportResult();
+		DispatchTracker.CourierFile file = new DispatchTracker.CourierFile(in);
+		List<DispatchTracker.CourierUpdate> batch;
+		while (!(batch = file.nextBatch(batchSize, result)).isEmpty()) {
+			applyCourierUpdates(batch, result);
+		}
+		return result;
+	}
+
+	private void applyCourierUpdates(List<DispatchTracker.CourierUpdate> batch, DispatchTracker.ImportResult result) {
+		Date now = new Date();
+		List<DispatchRecord> moved = new ArrayList<>(batch.size());
+		for (DispatchTracker.CourierUpdate update : batch) {
+			Order order = dispatchTracker.findByTracking(update.trackingNo);
+			if (order == null) {
+				result.unknown();
+				continue;
+			}
+
+			OrderStatus current;
+			do {
+				current = order.getStatus();
+			} while (current != null && current.canBecome(update.status)
+					&& !transition(order, current, update.status));
+
+			if (current != null && current.canBecome(update.status)) {
+				moved.add(advanceDispatchRecord(order, update.status, update.date == null ? now : update.date));
+				ordersByStatus.update(order);
+				result.applied();
+				if (events != null) events.publish(new DomainEvent.StatusChanged(order.getOrderID(), current, update.status));
+			} else if (current != null && current.isSent()) {
+				// Already at or past the reported status
+				result.unchanged();
+			} else {
+				result.reject(update.line, order.getOrderID() + " is " + current);
+			}
+		}
+
+		if (!moved.isEmpty()) {
+			if (persistence != null) persistence.logDispatchStatuses(moved);
+			changes.incrementAndGet();
+		}
+	}
+
+	// Moves the order's status in a write section, stamped with the store version
+	private boolean transition(Order order, OrderStatus from, OrderStatus to) {
+		long stamp = clock.beginWrite();
+		try {
+			return order.transition(from, to, clock.writeVersion());
+		} finally {
+			clock.endWrite(stamp);
+		}
+	}
+
+	// Brings the courier's record up to the status the order was just moved to
+	private static DispatchRecord advanceDispatchRecord(Order order, OrderStatus status, Date date) {
+		while (true) {
+			DispatchRecord record = order.getDispatch();
+			if (record != null && !record.getStatus().canBecome(status)) {
+				return record;
+			}
+			DispatchRecord next = record != null
+					? record.withStatus(status, date)
+					: new DispatchRecord(order.getOrderID(), null, null, date, status, date);
+			if (order.compareAndSetDispatch(record, next)) {
+				return next;
+			}
+		}
+	}
+
+	public Order getOrderByTrackingNo(String trackingNo) {
+		return dispatchTracker.findByTracking(trackingNo);
+	}
+
+	// Orders with the status, oldest first
+	public List<Order> getOrdersByStatus(OrderStatus status) {
+		return ordersByStatus.get(status);
+	}
+
+	public long countOrders(OrderStatus status) {
+		return ordersByStatus.count(status);
+	}
+
+	// Invoices with the status, oldest first
+	public List<Invoice> getInvoicesByStatus(InvoiceStatus status) {
+		return invoicesByStatus.get(status);
+	}
+
+	public long countInvoices(InvoiceStatus status) {
+		return invoicesByStatus.count(status);
 	}
 
 
@@ -246,27 +841,482 @@ public class OrderManagment_API implements IOrderManagement {
 		}
 
 		// Store payment
-		merchantPayments.computeIfAbsent(merchantID, k -> new ArrayList<>()).add(payment);
+		if (persistence != null) persistence.logPayment(merchantID, payment);
+		long stamp = clock.beginWrite();
+		try {
+			payment.setVersion(clock.writeVersion());
+			history(merchantPayments, merchantID).append(payment);
+		} finally {
+			clock.endWrite(stamp);
+		}
+		salesAggregates.paymentRecorded(merchantID, payment);
 
 		// Apply payment to merchant account
-		return accountManagement.ApplyPayment(merchantID, payment);
+		boolean applied = accountManagement.ApplyPayment(merchantID, payment);
+		changes.incrementAndGet();
+		if (events != null) events.publish(new DomainEvent.PaymentRecorded(merchantID, payment));
+		return applied;
 	}
 
-	public List<Invoice> getInvoicesForMerchant(String merchantID) {
-		List<Invoice> result = new ArrayList<>();
-		for (Invoice invoice : invoices.values()) {
-			if (merchantID.equals(invoice.getMerchantID())) {
-				result.add(invoice);
-			}
+	// The merchant's invoices in the order they were raised, read in place; later invoices are not seen
+	public HistoryLog.View<Invoice> getInvoicesForMerchant(String merchantID) {
+		HistoryLog<Invoice> history = merchantID == null ? null : invoicesByMerchant.get(merchantID);
+		return history == null ? HistoryLog.empty() : history.view();
+	}
+
+	public Invoice getInvoiceForOrder(String orderID) {
+		return invoicesByOrder.get(orderID);
+	}
+
+	// Unpaid invoices with a due date strictly before the cutoff, earliest first
+	public List<Invoice> getUnpaidInvoicesDueBefore(Date cutoff) {
+		Invoice probe = new Invoice();
+		probe.setDueDate(cutoff);
+		probe.setInvoiceID("");
+		return new ArrayList<>(unpaidInvoicesByDueDate.headSet(probe, false));
+	}
+
+	// Due date of the first unpaid invoice due at or after the time, or null if there is none
+	public Date getFirstUnpaidDueDateFrom(Date from) {
+		Invoice probe = new Invoice();
+		probe.setDueDate(from);
+		probe.setInvoiceID("");
+		Invoice first = unpaidInvoicesByDueDate.ceiling(probe);
+		return first == null ? null : first.getDueDate();
+	}
+
+	// The merchant's payments in the order they were recorded, read in place; later payments are not seen
+	public HistoryLog.View<Payment> getPaymentsForMerchant(String merchantID) {
+		HistoryLog<Payment> history = merchantID == null ? null : merchantPayments.get(merchantID);
+		return history == null ? HistoryLog.empty() : history.view();
+	}
+
+	/**
+	 * Up to limit of the merchant's payments, starting at the cursor, in the
+	 * order they were recorded.
+	 * @param merchantID
+	 * @param cursor
+	 * @param limit
+	 */
+	public HistoryLog.View<Payment> getPaymentsForMerchant(String merchantID, int cursor, int limit) {
+		HistoryLog<Payment> history = merchantID == null ? null : merchantPayments.get(merchantID);
+		return history == null ? HistoryLog.empty() : history.page(cursor, limit);
+	}
+
+	/**
+	 * One page of the orders that match every filter given. With a merchant,
+	 * their orders are read in the order they were recorded; otherwise, with
+	 * a status, the orders in it are read in ID order; otherwise every order
+	 * is read in the order it was recorded.
+	 * @param merchantID null for every merchant
+	 * @param status null for any status
+	 * @param from placed at or after this, or null
+	 * @param to placed before this, or null
+	 * @param limit
+	 * @param pageToken null for the first page
+	 */
+	@Override
+	public Page<Order> findOrders(String merchantID, OrderStatus status, Date from, Date to, int limit, String pageToken) {
+		Page.checkLimit(limit);
+		int cursor = Page.cursor(pageToken);
+		Predicate<Order> filter = order -> (status == null || order.getStatus() == status)
+				&& within(order.getOrderDate(), from, to);
+
+		if (merchantID != null) {
+			HistoryLog.View<Order> history = getOrderHistory(merchantID);
+			return Page.scan(cursor, history.size(), history::get, filter, limit);
 		}
-		return result;
+		if (status != null) {
+			return Page.scan(ordersByStatus.from(status, "ORD" + cursor),
+					order -> orderNumber(order.getOrderID()), filter, limit);
+		}
+		HistoryLog.View<Order> all = orderLog.view();
+		return Page.scan(cursor, all.size(), all::get, filter, limit);
+	}
+
+	/**
+	 * One page of the invoices that match every filter given, read the same
+	 * way as findOrders reads orders, except that with a status alone the
+	 * invoices in it are read in the order they were stored. Restored IDs need
+	 * not be numbered, so the token is a position in the invoice log.
+	 * @param merchantID null for every merchant
+	 * @param status null for any status
+	 * @param limit
+	 * @param pageToken null for the first page
+	 */
+	@Override
+	public Page<Invoice> findInvoices(String merchantID, InvoiceStatus status, int limit, String pageToken) {
+		Page.checkLimit(limit);
+		int cursor = Page.cursor(pageToken);
+		Predicate<Invoice> filter = invoice -> status == null || invoice.getStatus() == status;
+
+		if (merchantID != null) {
+			HistoryLog.View<Invoice> history = getInvoicesForMerchant(merchantID);
+			return Page.scan(cursor, history.size(), history::get, filter, limit);
+		}
+		if (status != null) {
+			return Page.scan(invoicesByStatus.from(status, Integer.toString(cursor)),
+					Invoice::getLogPosition, filter, limit);
+		}
+		HistoryLog.View<Invoice> all = invoiceLog.view();
+		return Page.scan(cursor, all.size(), all::get, filter, limit);
+	}
+
+	// Files an invoice in its status group by log position, which StatusIndex.ID_ORDER sorts as numbers
+	private static String invoiceKey(Invoice invoice) {
+		return Integer.toString(invoice.getLogPosition());
+	}
+
+	/**
+	 * One page of the merchant's payments dated within the window, in the
+	 * order they were recorded.
+	 * @param merchantID
+	 * @param from dated at or after this, or null
+	 * @param to dated before this, or null
+	 * @param limit
+	 * @param pageToken null for the first page
+	 */
+	@Override
+	public Page<Payment> findPayments(String merchantID, Date from, Date to, int limit, String pageToken) {
+		if (merchantID == null) {
+			throw new IllegalArgumentException("Merchant ID cannot be null");
+		}
+		Page.checkLimit(limit);
+		HistoryLog.View<Payment> payments = getPaymentsForMerchant(merchantID);
+		return Page.scan(Page.cursor(pageToken), payments.size(), payments::get,
+				payment -> within(payment.getDate(), from, to), limit);
+	}
+
+	// At or after from and before to; a missing bound does not limit
+	private static boolean within(Date date, Date from, Date to) {
+		if (from == null && to == null) return true;
+		return date != null && (from == null || !date.before(from)) && (to == null || date.before(to));
 	}
 
-	public List<Payment> getPaymentsForMerchant(String merchantID) {
-		return merchantPayments.getOrDefault(merchantID, new ArrayList<>());
+	private static <T> HistoryLog<T> history(Map<String, HistoryLog<T>> histories, String merchantID) {
+		HistoryLog<T> history = histories.get(merchantID);
+		return history != null ? history : histories.computeIfAbsent(merchantID, k -> new HistoryLog<>());
 	}
 
 	public Invoice getInvoice(String invoiceID) {
 		return invoices.get(invoiceID);
 	}
+
+	// Running totals that reports read instead of rescanning history
+	public SalesAggregates getSalesAggregates() {
+		return salesAggregates;
+	}
+
+	/**
+	 * Grows each time an order, invoice or payment changes, so a cached
+	 * result built from them can tell whether it is still current.
+	 */
+	public long getChangeCount() {
+		return changes.get();
+	}
+
+	// Every order line in columnar form, for scans the running totals do not cover
+	public OrderLineStore getOrderLineStore() {
+		return orderLines;
+	}
+
+	/**
+	 * The store as it stands now, for a report that must read orders, payments
+	 * and totals that agree with each other while orders keep arriving.
+	 */
+	public ReadView openReadView() {
+		return clock.openView(version -> new ReadView(this, version, orderLines.size()));
+	}
+
+	/**
+	 * Orders placed at or after from and before to, oldest day first.
+	 * @param from
+	 * @param to
+	 */
+	public List<Order> getOrdersPlaced(Date from, Date to) {
+		return orderTimes.getOrders(from.getTime(), to.getTime());
+	}
+
+	/**
+	 * One merchant's orders placed at or after from and before to, oldest day first.
+	 * @param merchantID
+	 * @param from
+	 * @param to
+	 */
+	public List<Order> getOrdersPlaced(String merchantID, Date from, Date to) {
+		return orderTimes.getOrders(merchantID, from.getTime(), to.getTime());
+	}
+
+	/**
+	 * Non-cancelled sales placed strictly after start and strictly before end.
+	 * Days wholly inside the period come from the daily totals; only orders
+	 * on a partly covered first or last day are read one by one.
+	 * @param start
+	 * @param end
+	 */
+	public SalesAggregates.Turnover getTurnover(Date start, Date end) {
+		return getTurnover(start, end, ParallelReportEngine.sequential());
+	}
+
+	/**
+	 * The same, with the whole days summed in parallel by the engine.
+	 * @param start
+	 * @param end
+	 * @param engine
+	 */
+	public SalesAggregates.Turnover getTurnover(Date start, Date end, ParallelReportEngine engine) {
+		return getTurnover(start, end, engine, null);
+	}
+
+	/**
+	 * The same as of the view, with the whole days summed from the order lines
+	 * it covers rather than the running totals, which are always current.
+	 * @param start
+	 * @param end
+	 * @param view
+	 */
+	SalesAggregates.Turnover getTurnover(Date start, Date end, ReadView view) {
+		return getTurnover(start, end, ParallelReportEngine.sequential(), view);
+	}
+
+	/**
+	 * The same as of the view, or from the running totals if it is null, with
+	 * the whole days split across the engine.
+	 * @param start
+	 * @param end
+	 * @param engine
+	 * @param view
+	 */
+	SalesAggregates.Turnover getTurnover(Date start, Date end, ParallelReportEngine engine, ReadView view) {
+		SalesAggregates.Turnover turnover = new SalesAggregates.Turnover();
+		long from = start.getTime() + 1;
+		long to = end.getTime();
+		if (to <= from) return turnover;
+
+		long fromDay = SalesAggregates.epochDay(from);
+		long firstWholeDay = SalesAggregates.startOfDay(fromDay) == from ? fromDay : fromDay + 1;
+		long endDay = SalesAggregates.epochDay(to);
+		if (firstWholeDay >= endDay) {
+			addOrderSales(turnover, orderTimes.getOrders(from, to), view);
+		} else {
+			addOrderSales(turnover, orderTimes.getOrders(from, SalesAggregates.startOfDay(firstWholeDay)), view);
+			if (view == null) {
+				salesAggregates.addTurnover(turnover, firstWholeDay, endDay - 1, engine);
+			} else {
+				orderLines.addTurnover(turnover, firstWholeDay, endDay - 1, view.getOrderLines(), engine);
+			}
+			addOrderSales(turnover, orderTimes.getOrders(SalesAggregates.startOfDay(endDay), to), view);
+		}
+		return turnover;
+	}
+
+	// Counted the same way as the daily totals; with a view, as the orders stood in it
+	private static void addOrderSales(SalesAggregates.Turnover turnover, List<Order> placed, ReadView view) {
+		for (Order order : placed) {
+			if (view != null && !view.contains(order)) continue;
+			OrderStatus status = view == null ? order.getStatus() : view.getStatus(order);
+			if (status == OrderStatus.CANCELLED) continue;
+
+			turnover.addOrders(1);
+			OrderItem[] items = order.getItems();
+			if (items == null) continue;
+			for (OrderItem item : items) {
+				if (item.getProductID() == null) continue;
+				turnover.addProduct(item.getProductID(), item.getQuantity(),
+						Money.times(item.getUnitPricePence(), item.getQuantity()));
+			}
+		}
+	}
+
+	private void recordSale(Order order, long totalPence, long version) {
+		salesAggregates.orderPlaced(order, totalPence, version);
+		if (order.getStatus() != OrderStatus.CANCELLED) {
+			orderLines.append(order, 1);
+			discounts.addOrder(order, 1);
+		}
+	}
+
+	// Moves an order in or out of turnover when its status crosses CANCELLED
+	private void updateSalesForStatus(Order order, OrderStatus previousStatus) {
+		boolean wasCancelled = previousStatus == OrderStatus.CANCELLED;
+		boolean isCancelled = order.getStatus() == OrderStatus.CANCELLED;
+		if (!wasCancelled && isCancelled) {
+			salesAggregates.orderCancelled(order);
+			orderLines.append(order, -1);
+			discounts.addOrder(order, -1);
+		} else if (wasCancelled && !isCancelled) {
+			salesAggregates.orderReinstated(order);
+			orderLines.append(order, 1);
+			discounts.addOrder(order, 1);
+		}
+	}
+
+	/**
+	 * Settles a month that has ended for every merchant on a tiered plan, and
+	 * takes what each is still owed off their balance. A month already
+	 * settled is left alone, so running this twice credits nothing more.
+	 * @param month
+	 */
+	public List<DiscountEngine.Settlement> settleDiscounts(YearMonth month) {
+		if (month == null || !month.isBefore(YearMonth.now())) {
+			throw new IllegalArgumentException("Only a month that has ended can be settled: " + month);
+		}
+
+		List<DiscountEngine.Settlement> settlements = discounts.settle(month, accountManagement::getDiscountRule);
+		if (settlements.isEmpty()) {
+			return settlements;
+		}
+
+		if (persistence != null) persistence.logDiscountSettlement(settlements);
+		for (DiscountEngine.Settlement settlement : settlements) {
+			Merchant merchant = accountManagement.getMerchant(settlement.getMerchantID());
+			if (merchant != null && settlement.getCreditPence() > 0) {
+				accountManagement.releaseCredit(merchant, settlement.getCreditPence());
+			}
+		}
+		changes.incrementAndGet();
+		return settlements;
+	}
+
+	// Merchant's spend before discount in the month, as the tiers see it
+	public long getMonthSpendPence(String merchantID, YearMonth month) {
+		return discounts.getMonthSpendPence(merchantID, month);
+	}
+
+	void setPersistence(PersistenceManager persistence) {
+		this.persistence = persistence;
+	}
+
+	// Publishes every change made from now on; set before the store is shared
+	public void setEventBus(EventBus events) {
+		this.events = events;
+	}
+
+	// Used by recovery: stores entities as logged, without validation or logging
+
+	void restoreOrder(Order order) {
+		int number = orderNumber(order.getOrderID());
+		if (number < 0) {
+			throw new IllegalStateException("Not an order ID: " + order.getOrderID());
+		}
+		orders.put(number, order);
+		history(merchantOrders, order.getMerchantID()).append(order);
+		orderLog.append(order);
+		orderTimes.add(order);
+		ordersByStatus.update(order);
+		recordSale(order, order.getNetTotalPence(), 0);
+		advanceCounter(orderCounter, order.getOrderID(), "ORD");
+	}
+
+	// Moves only go forward, so replaying two logged moves of one order in either order gives the same status
+	void restoreOrderStatus(Order order, OrderStatus status) {
+		OrderStatus previous = order.getStatus();
+		if (previous == status || previous != null && !previous.canBecome(status)) return;
+
+		order.setStatus(status);
+		updateSalesForStatus(order, previous);
+		ordersByStatus.update(order);
+	}
+
+	void restoreDispatch(DispatchRecord record) {
+		Order order = findOrder(record.getOrderID());
+		if (order == null) return;
+
+		DispatchRecord previous = order.getDispatch();
+		if (previous != null && previous.getTrackingNo() != null) {
+			dispatchTracker.release(previous.getTrackingNo(), order);
+		}
+		order.setDispatch(record);
+		if (record.getTrackingNo() != null) {
+			dispatchTracker.claim(record.getTrackingNo(), order);
+		}
+	}
+
+	void restoreDispatchStatus(String orderID, OrderStatus status, Date date) {
+		Order order = findOrder(orderID);
+		if (order == null) return;
+
+		restoreOrderStatus(order, status);
+		advanceDispatchRecord(order, status, date);
+	}
+
+	void restoreInvoice(Invoice invoice) {
+		invoices.put(invoice.getInvoiceID(), invoice);
+		invoicesByOrder.put(invoice.getOrderID(), invoice);
+		history(invoicesByMerchant, invoice.getMerchantID()).append(invoice);
+		invoice.setLogPosition(invoiceLog.append(invoice));
+		if (invoice.getStatus() != InvoiceStatus.PAID) {
+			unpaidInvoicesByDueDate.add(invoice);
+			salesAggregates.invoiceOutstanding(invoice, true);
+		}
+		invoicesByStatus.update(invoice);
+		advanceCounter(invoiceCounter, invoice.getInvoiceID(), "INV");
+	}
+
+	// Each logged status replaces the last, as the moves were made; nothing is logged or published
+	void restoreInvoiceStatus(String invoiceID, InvoiceStatus status) {
+		Invoice invoice = invoices.get(invoiceID);
+		if (invoice == null || status == null || invoice.getStatus() == status) return;
+
+		boolean wasOutstanding = invoice.getStatus() != InvoiceStatus.PAID;
+		invoice.setStatus(status);
+		updateUnpaid(invoice);
+		invoicesByStatus.update(invoice);
+		if (wasOutstanding != (status != InvoiceStatus.PAID)) {
+			salesAggregates.invoiceOutstanding(invoice, !wasOutstanding);
+		}
+	}
+
+	void restorePayment(String merchantID, Payment payment) {
+		history(merchantPayments, merchantID).append(payment);
+		salesAggregates.paymentRecorded(merchantID, payment);
+	}
+
+	void restoreSettlement(DiscountEngine.Settlement settlement) {
+		discounts.restoreSettlement(settlement);
+	}
+
+	void restoreCounters(int orderCount, int invoiceCount) {
+		orderCounter.accumulateAndGet(orderCount, Math::max);
+		invoiceCounter.accumulateAndGet(invoiceCount, Math::max);
+	}
+
+	int getOrderCounter() {
+		return orderCounter.get();
+	}
+
+	int getInvoiceCounter() {
+		return invoiceCounter.get();
+	}
+
+	Collection<Order> getAllOrders() {
+		return orders.values();
+	}
+
+	Collection<Invoice> getAllInvoices() {
+		return new ArrayList<>(invoices.values());
+	}
+
+	Map<String, List<Payment>> getAllPayments() {
+		Map<String, List<Payment>> payments = new HashMap<>();
+		for (String merchantID : merchantPayments.keySet()) {
+			payments.put(merchantID, getPaymentsForMerchant(merchantID));
+		}
+		return payments;
+	}
+
+	List<DiscountEngine.Settlement> getDiscountSettlements() {
+		return discounts.getSettlements();
+	}
+
+	// Keeps the ID counter ahead of every restored ID so recovered IDs are never reused
+	private static void advanceCounter(AtomicInteger counter, String id, String prefix) {
+		if (id != null && id.startsWith(prefix)) {
+			try {
+				counter.accumulateAndGet(Integer.parseInt(id.substring(prefix.length())), Math::max);
+			} catch (NumberFormatException e) {
+				// Not a generated ID
+			}
+		}
+	}
 }
\ No newline at end of file
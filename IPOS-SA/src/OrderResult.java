@@ -0,0 +1,36 @@
+/**
+ * Outcome of one order submitted through a batch.
+ */
+public class OrderResult {
+
+	private final String orderID;
+	private final boolean accepted;
+	private final String message;
+
+	OrderResult(String orderID, boolean accepted, String message) {
+		this.orderID = orderID;
+		this.accepted = accepted;
+		this.message = message;
+	}
+
+	static OrderResult accepted(String orderID) {
+		return new OrderResult(orderID, true, null);
+	}
+
+	static OrderResult rejected(String message) {
+		return new OrderResult(null, false, message);
+	}
+
+	public String getOrderID() {
+		return this.orderID;
+	}
+
+	public boolean isAccepted() {
+		return this.accepted;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+
+}
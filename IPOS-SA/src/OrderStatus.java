@@ -0,0 +1,35 @@
+import java.util.Locale;
+
+/**
+ * Where an order is in its life. Declared in delivery order: a pending order
+ * is dispatched and then delivered, or cancelled before it is sent.
+ */
+public enum OrderStatus {
+	PENDING, DISPATCHED, DELIVERED, CANCELLED;
+
+	public boolean canBecome(OrderStatus next) {
+		switch (this) {
+			case PENDING: return next == DISPATCHED || next == DELIVERED || next == CANCELLED;
+			case DISPATCHED: return next == DELIVERED;
+			default: return false;
+		}
+	}
+
+	// Dispatched or delivered; what a courier reports
+	public boolean isSent() {
+		return this == DISPATCHED || this == DELIVERED;
+	}
+
+	/**
+	 * The status with this name, ignoring case, or null if there is none.
+	 * @param name
+	 */
+	public static OrderStatus fromName(String name) {
+		if (name == null) return null;
+		try {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
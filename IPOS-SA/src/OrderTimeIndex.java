@@ -0,0 +1,62 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Orders bucketed by the epoch day they were placed, across all merchants
+ * and per merchant. A date-range query reads only the buckets the range
+ * covers, and checks order times only in the first and last bucket.
+ */
+public class OrderTimeIndex {
+
+	private final ConcurrentSkipListMap<Long, Queue<Order>> allByDay = new ConcurrentSkipListMap<>();
+	private final Map<String, ConcurrentSkipListMap<Long, Queue<Order>>> byMerchant = new ConcurrentHashMap<>();
+
+	void add(Order order) {
+		long day = SalesAggregates.epochDay(order.getOrderDate());
+		allByDay.computeIfAbsent(day, k -> new ConcurrentLinkedQueue<>()).add(order);
+		byMerchant.computeIfAbsent(order.getMerchantID(), k -> new ConcurrentSkipListMap<>())
+				.computeIfAbsent(day, k -> new ConcurrentLinkedQueue<>()).add(order);
+	}
+
+	/**
+	 * Orders placed from one time up to, but not including, another; by day,
+	 * then in the order they were placed.
+	 * @param fromMillis
+	 * @param toMillis
+	 */
+	public List<Order> getOrders(long fromMillis, long toMillis) {
+		return collect(allByDay, fromMillis, toMillis);
+	}
+
+	/**
+	 * The same for one merchant's orders.
+	 * @param merchantID
+	 * @param fromMillis
+	 * @param toMillis
+	 */
+	public List<Order> getOrders(String merchantID, long fromMillis, long toMillis) {
+		NavigableMap<Long, Queue<Order>> days = byMerchant.get(merchantID);
+		return days == null ? new ArrayList<>() : collect(days, fromMillis, toMillis);
+	}
+
+	private static List<Order> collect(NavigableMap<Long, Queue<Order>> days, long fromMillis, long toMillis) {
+		List<Order> result = new ArrayList<>();
+		if (toMillis <= fromMillis) return result;
+
+		long firstDay = SalesAggregates.epochDay(fromMillis);
+		long lastDay = SalesAggregates.epochDay(toMillis - 1);
+		for (Map.Entry<Long, Queue<Order>> day : days.subMap(firstDay, true, lastDay, true).entrySet()) {
+			boolean edge = day.getKey() == firstDay || day.getKey() == lastDay;
+			for (Order order : day.getValue()) {
+				long placed = order.getOrderDate().getTime();
+				if (!edge || placed >= fromMillis && placed < toMillis) {
+					result.add(order);
+				}
+			}
+		}
+		return result;
+	}
+
+}
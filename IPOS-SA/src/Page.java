@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * One page of a find query's results, with the token that fetches the next
+ * page. A token is a position in the store being read rather than a count
+ * of rows already returned, so rows added while a client pages through are
+ * met at the end instead of shifting the pages it has read. Pass a token
+ * back to the query that returned it, with the same filters.
+ *
+ * A page can hold fewer rows than the limit, even none, and still have a
+ * next page; a client should stop only when the token is null.
+ */
+public final class Page<T> {
+
+	private final List<T> items;
+	private final String nextToken;
+
+	Page(List<T> items, String nextToken) {
+		this.items = Collections.unmodifiableList(items);
+		this.nextToken = nextToken;
+	}
+
+	public List<T> getItems() {
+		return this.items;
+	}
+
+	// Null once the last page has been read
+	public String getNextToken() {
+		return this.nextToken;
+	}
+
+	public boolean hasMore() {
+		return this.nextToken != null;
+	}
+
+	// Where a query resumes for a token it returned; a null token starts from the beginning
+	static int cursor(String token) {
+		if (token == null) return 0;
+		try {
+			int cursor = Integer.parseInt(token);
+			if (cursor >= 0) return cursor;
+		} catch (NumberFormatException e) {
+			// Not one of ours
+		}
+		throw new IllegalArgumentException("Invalid page token: " + token);
+	}
+
+	static void checkLimit(int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Limit must be at least 1: " + limit);
+		}
+	}
+
+	/**
+	 * Reads the entries at positions from cursor up to end, keeping those the
+	 * filter accepts, until limit are kept. A position with no entry is skipped.
+	 * @param cursor
+	 * @param end
+	 * @param entries entry at a position, or null
+	 * @param filter
+	 * @param limit
+	 */
+	static <T> Page<T> scan(int cursor, int end, IntFunction<T> entries, Predicate<T> filter, int limit) {
+		List<T> items = new ArrayList<>(Math.min(limit, 64));
+		int position = cursor;
+		while (position < end && items.size() < limit) {
+			T entry = entries.apply(position++);
+			if (entry != null && filter.test(entry)) items.add(entry);
+		}
+		return new Page<>(items, position < end ? Integer.toString(position) : null);
+	}
+
+	/**
+	 * The same for entries already in position order, such as a StatusIndex
+	 * group read from the cursor on.
+	 * @param entries
+	 * @param positionOf
+	 * @param filter
+	 * @param limit
+	 */
+	static <T> Page<T> scan(Iterator<T> entries, ToIntFunction<T> positionOf, Predicate<T> filter, int limit) {
+		List<T> items = new ArrayList<>(Math.min(limit, 64));
+		T entry = null;
+		while (items.size() < limit && entries.hasNext()) {
+			entry = entries.next();
+			if (filter.test(entry)) items.add(entry);
+		}
+		return new Page<>(items, entries.hasNext() ? Integer.toString(positionOf.applyAsInt(entry) + 1) : null);
+	}
+
+}
@@ -0,0 +1,95 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Splits report work into contiguous slices and runs them on an executor.
+ * Results come back in slice order, so a report that merges them in that
+ * order is byte-identical to a sequential run however many threads it used.
+ *
+ * Any ExecutorService can be used: the default is the common fork-join
+ * pool, and on Java 21 or later a virtual-thread-per-task executor works
+ * the same way.
+ */
+public class ParallelReportEngine {
+
+	// Below this many items per slice, cheap per-item work is not worth handing to another thread
+	public static final int DEFAULT_MIN_SLICE_SIZE = 1024;
+
+	private final ExecutorService executor;
+	private final int slices;
+
+	// The common fork-join pool, a few slices per core to even out uneven work
+	public ParallelReportEngine() {
+		this(ForkJoinPool.commonPool(), 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * 
+	 * @param executor runs the slices, or null to run them on the calling thread
+	 * @param slices largest number of slices one list is split into
+	 */
+	public ParallelReportEngine(ExecutorService executor, int slices) {
+		if (slices < 1) {
+			throw new IllegalArgumentException("Slices must be at least 1");
+		}
+		this.executor = executor;
+		this.slices = slices;
+	}
+
+	// Runs everything on the calling thread
+	public static ParallelReportEngine sequential() {
+		return new ParallelReportEngine(null, 1);
+	}
+
+	public <T, R> List<R> mapSlices(List<T> items, Function<List<T>, R> work) {
+		return mapSlices(items, DEFAULT_MIN_SLICE_SIZE, work);
+	}
+
+	/**
+	 * Applies the work to contiguous slices of the items and returns each
+	 * slice's result in order. An empty list is one empty slice.
+	 * @param items
+	 * @param minSliceSize fewest items worth a slice of their own
+	 * @param work
+	 */
+	public <T, R> List<R> mapSlices(List<T> items, int minSliceSize, Function<List<T>, R> work) {
+		int count = Math.min(slices, Math.max(1, items.size() / Math.max(1, minSliceSize)));
+		if (executor == null || count == 1) {
+			return Collections.singletonList(work.apply(items));
+		}
+
+		List<Future<R>> futures = new ArrayList<>(count);
+		for (int slice = 0; slice < count; slice++) {
+			List<T> part = items.subList(
+					(int) ((long) items.size() * slice / count),
+					(int) ((long) items.size() * (slice + 1) / count));
+			futures.add(executor.submit(() -> work.apply(part)));
+		}
+
+		List<R> results = new ArrayList<>(count);
+		try {
+			for (Future<R> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancel(futures);
+			throw new IllegalStateException("Interrupted while generating a report", e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+		return results;
+	}
+
+	private static void cancel(List<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+}
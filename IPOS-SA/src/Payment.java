@@ -4,8 +4,11 @@ public class Payment {
 
 	private String paymentID;
 	private String merchantID;
-	private double amount;
+	// Held in pence; see Money
+	private long amountPence;
 	private Date date;
+	// Store version it was recorded at; see VersionClock
+	private long version;
 
 
 
@@ -45,11 +48,35 @@ public class Payment {
 		this.date = date;
 	}
 
-	public void setAmount(Double amount) {
-		this.amount = amount;
+	/**
+	 * 
+	 * @param amount rounded to the nearest penny
+	 */
+	public void setAmount(double amount) {
+		this.amountPence = Money.ofPounds(amount);
 	}
 
 	public double getAmount() {
-		return this.amount;
+		return Money.toPounds(this.amountPence);
+	}
+
+	public long getAmountPence() {
+		return this.amountPence;
+	}
+
+	/**
+	 * 
+	 * @param amountPence
+	 */
+	public void setAmountPence(long amountPence) {
+		this.amountPence = amountPence;
+	}
+
+	long getVersion() {
+		return this.version;
+	}
+
+	void setVersion(long version) {
+		this.version = version;
 	}
 }
\ No newline at end of file
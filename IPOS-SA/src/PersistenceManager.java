@@ -0,0 +1,934 @@
+// PersistenceManager.java
+import java.io.*;
+import java.nio.file.*;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Makes the in-memory stores durable. Every change is appended to a
+ * write-ahead log before (or as) it becomes visible; snapshots compact the
+ * log, and recovery loads the latest snapshot and replays the log after it.
+ *
+ * Snapshots are built by replaying closed log segments into a private copy of
+ * the stores, so taking one never pauses order entry.
+ */
+public class PersistenceManager implements Closeable {
+
+	// Records that carry a whole entity
+	private static final byte MERCHANT_PUT = 1;
+	private static final byte ADMIN_PUT = 2;
+	private static final byte MANAGER_PUT = 3;
+	private static final byte DISCOUNT_PLAN_PUT = 4;
+	private static final byte PRODUCT_PUT = 5;
+	private static final byte ORDER_PUT = 6;
+	private static final byte INVOICE_PUT = 7;
+	private static final byte PAYMENT_PUT = 8;
+	private static final byte COUNTERS = 9;
+	private static final byte DISPATCH_PUT = 10;
+	private static final byte DISCOUNT_BINDING = 11;
+	private static final byte DISCOUNT_SETTLED = 12;
+
+	// Records that carry a change to an existing entity
+	private static final byte CREDIT_LIMIT = 20;
+	private static final byte MERCHANT_STATUS = 21;
+	private static final byte BALANCE_CHANGE = 22;
+	private static final byte STOCK_CHANGE = 23;
+	private static final byte MINIMUM_STOCK = 24;
+	private static final byte ORDER_CREATED = 25;
+	private static final byte ORDER_STATUS = 26;
+	private static final byte ORDER_CANCELLED = 27;
+	private static final byte INVOICE_STATUS = 28;
+	private static final byte DISPATCH_STATUS = 29;
+	private static final byte DISCOUNT_SETTLEMENT = 30;
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+	private static final long NO_DATE = Long.MIN_VALUE;
+
+	private final Path directory;
+	private final WriteAheadLog.FsyncPolicy fsyncPolicy;
+	private final long fsyncIntervalMillis;
+	private final AccountManagement_API accountManagement;
+	private final ProductCatalogue_API productCatalogue;
+	private final OrderManagment_API orderManagement;
+
+	private WriteAheadLog wal;
+	private ScheduledExecutorService checkpointScheduler;
+	private final AtomicLong checkpointFailures = new AtomicLong();
+	private volatile Consumer<Exception> checkpointFailureHandler =
+			e -> System.err.println("Checkpoint failed: " + e.getMessage());
+	private long replayedRecords;
+	private long recoveredRecords;
+	private long recoveryMillis;
+
+	public PersistenceManager(Path directory, WriteAheadLog.FsyncPolicy fsyncPolicy,
+							  long fsyncIntervalMillis,
+							  AccountManagement_API accountManagement,
+							  ProductCatalogue_API productCatalogue,
+							  OrderManagment_API orderManagement) {
+		this.directory = directory;
+		this.fsyncPolicy = fsyncPolicy;
+		this.fsyncIntervalMillis = fsyncIntervalMillis;
+		this.accountManagement = accountManagement;
+		this.productCatalogue = productCatalogue;
+		this.orderManagement = orderManagement;
+	}
+
+	/**
+	 * Recovers the stores from disk, then logs every further change. The
+	 * stores must be freshly constructed and not yet in use.
+	 */
+	public void open() throws IOException {
+		long start = System.nanoTime();
+		Files.createDirectories(directory);
+		long lastLsn = recover(accountManagement, productCatalogue, orderManagement, Long.MAX_VALUE);
+		recoveredRecords = replayedRecords;
+		recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		wal = WriteAheadLog.open(directory, fsyncPolicy, fsyncIntervalMillis, lastLsn + 1);
+		accountManagement.setPersistence(this);
+		productCatalogue.setPersistence(this);
+		orderManagement.setPersistence(this);
+	}
+
+	/**
+	 * Writes a snapshot covering every record logged so far and deletes the log
+	 * segments and snapshots it replaces.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		long boundary = wal.rotate();
+
+		// Rebuild state up to the boundary in a private copy of the stores
+		AccountManagement_API accounts = new AccountManagement_API();
+		ProductCatalogue_API catalogue = new ProductCatalogue_API();
+		OrderManagment_API ordersCopy = new OrderManagment_API(accounts, catalogue);
+		recover(accounts, catalogue, ordersCopy, boundary);
+
+		Path temporary = directory.resolve(SNAPSHOT_PREFIX + "tmp");
+		try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+			writeSnapshot(out, accounts, catalogue, ordersCopy);
+			out.flush();
+			file.getFD().sync();
+		}
+		Path snapshot = snapshotPath(boundary - 1);
+		Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		for (Path old : snapshotFiles()) {
+			if (!old.equals(snapshot)) {
+				Files.deleteIfExists(old);
+			}
+		}
+		wal.deleteSegmentsBefore(boundary);
+	}
+
+	/**
+	 * Takes a snapshot at a fixed rate on a background thread.
+	 * @param periodMillis
+	 */
+	public synchronized void startCheckpoints(long periodMillis) {
+		if (checkpointScheduler != null) return;
+
+		checkpointScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "wal-checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		checkpointScheduler.scheduleAtFixedRate(() -> {
+			// An exception escaping here would cancel every later checkpoint
+			try {
+				checkpoint();
+			} catch (IOException | RuntimeException e) {
+				checkpointFailures.incrementAndGet();
+				try {
+					checkpointFailureHandler.accept(e);
+				} catch (RuntimeException handlerFailure) {
+					// Nowhere left to report it; the count above still shows it
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Replaces what is done when a background checkpoint fails; by default it
+	 * is printed. The log keeps every change, so the next checkpoint retries.
+	 * @param handler
+	 */
+	public void setCheckpointFailureHandler(Consumer<Exception> handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("Failure handler cannot be null");
+		}
+		checkpointFailureHandler = handler;
+	}
+
+	// Background checkpoints that failed since startCheckpoints
+	public long getCheckpointFailures() {
+		return checkpointFailures.get();
+	}
+
+	// Latency of log appends as seen by the writing thread
+	public LatencyRecorder getWriteLatency() {
+		return wal.getAppendLatency();
+	}
+
+	public long getRecoveredRecords() {
+		return recoveredRecords;
+	}
+
+	public long getRecoveryMillis() {
+		return recoveryMillis;
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (checkpointScheduler != null) {
+				checkpointScheduler.shutdownNow();
+			}
+		}
+		accountManagement.setPersistence(null);
+		productCatalogue.setPersistence(null);
+		orderManagement.setPersistence(null);
+		if (wal != null) {
+			wal.close();
+		}
+	}
+
+	// ---- Recovery ----
+
+	private long recover(AccountManagement_API accounts, ProductCatalogue_API catalogue,
+						 OrderManagment_API ordersStore, long beforeLsn) throws IOException {
+		long lsn = 0;
+		long[] applied = new long[1];
+		WriteAheadLog.RecordVisitor apply = (recordLsn, type, payload) -> {
+			applyRecord(type, payload, accounts, catalogue, ordersStore);
+			applied[0]++;
+		};
+
+		List<Path> snapshots = snapshotFiles();
+		if (!snapshots.isEmpty()) {
+			Path latest = snapshots.get(snapshots.size() - 1);
+			lsn = snapshotLsn(latest);
+			WriteAheadLog.readRecords(latest, apply);
+		}
+
+		lsn = WriteAheadLog.replay(directory, lsn, beforeLsn, apply);
+		replayedRecords = applied[0];
+		return lsn;
+	}
+
+	private void applyRecord(byte type, DataInputStream in, AccountManagement_API accounts,
+							 ProductCatalogue_API catalogue, OrderManagment_API ordersStore)
+			throws IOException {
+		switch (type) {
+			case MERCHANT_PUT:
+				accounts.restoreMerchant(readMerchant(in));
+				break;
+			case ADMIN_PUT: {
+				Admin admin = new Admin();
+				admin.setAdminID(readString(in));
+				admin.setName(readString(in));
+				admin.setEmail(readString(in));
+				admin.setRole(readString(in));
+				accounts.restoreAdmin(admin);
+				break;
+			}
+			case MANAGER_PUT: {
+				Manager manager = new Manager();
+				manager.setManagerID(readString(in));
+				manager.setName(readString(in));
+				manager.setEmail(readString(in));
+				manager.setRegion(readString(in));
+				accounts.restoreManager(manager);
+				break;
+			}
+			case DISCOUNT_PLAN_PUT: {
+				String key = readString(in);
+				accounts.restoreDiscountPlan(key, readDiscountPlan(in));
+				break;
+			}
+			case DISCOUNT_BINDING: {
+				String merchantID = readString(in);
+				accounts.restoreDiscountBinding(merchantID, readDiscountPlan(in));
+				break;
+			}
+			case DISCOUNT_SETTLED: {
+				// Already in the snapshot's balances
+				for (DiscountEngine.Settlement settlement : readSettlements(in)) {
+					ordersStore.restoreSettlement(settlement);
+				}
+				break;
+			}
+			case PRODUCT_PUT: {
+				Product product = new Product();
+				product.setProductID(readString(in));
+				product.setName(readString(in));
+				product.setPricePence(in.readLong());
+				product.setStockLevel(in.readInt());
+				product.setMinimumStockLevel(in.readInt());
+				catalogue.restoreProduct(product);
+				break;
+			}
+			case ORDER_PUT:
+				ordersStore.restoreOrder(readOrder(in));
+				break;
+			case ORDER_CREATED: {
+				Order order = readOrder(in);
+				long chargedPence = in.readLong();
+				ordersStore.restoreOrder(order);
+				Merchant merchant = accounts.getMerchant(order.getMerchantID());
+				if (merchant != null) merchant.adjustBalance(chargedPence);
+				// Older logs have the stock taken in a STOCK_CHANGE record of its own
+				if (in.available() > 0) readStockChanges(in, catalogue);
+				break;
+			}
+			case INVOICE_PUT: {
+				Invoice invoice = new Invoice();
+				invoice.setInvoiceID(readString(in));
+				invoice.setOrderID(readString(in));
+				invoice.setMerchantID(readString(in));
+				invoice.setIssueDate(readDate(in));
+				invoice.setDueDate(readDate(in));
+				invoice.setTotalAmountPence(in.readLong());
+				invoice.setStatus(readStatus(in, InvoiceStatus.class));
+				ordersStore.restoreInvoice(invoice);
+				break;
+			}
+			case PAYMENT_PUT: {
+				String merchantID = readString(in);
+				Payment payment = new Payment();
+				payment.setPaymentID(readString(in));
+				payment.setMerchantID(readString(in));
+				payment.setAmountPence(in.readLong());
+				payment.setDate(readDate(in));
+				ordersStore.restorePayment(merchantID, payment);
+				break;
+			}
+			case COUNTERS:
+				ordersStore.restoreCounters(in.readInt(), in.readInt());
+				break;
+			case CREDIT_LIMIT: {
+				Merchant merchant = accounts.getMerchant(readString(in));
+				long limitPence = in.readLong();
+				if (merchant != null) merchant.setCreditLimitPence(limitPence);
+				break;
+			}
+			case MERCHANT_STATUS: {
+				String merchantID = readString(in);
+				accounts.restoreMerchantStatus(merchantID, readStatus(in, MerchantStatus.class));
+				break;
+			}
+			case BALANCE_CHANGE: {
+				Merchant merchant = accounts.getMerchant(readString(in));
+				long deltaPence = in.readLong();
+				if (merchant != null) merchant.adjustBalance(deltaPence);
+				break;
+			}
+			case STOCK_CHANGE:
+				readStockChanges(in, catalogue);
+				break;
+			case MINIMUM_STOCK: {
+				String productID = readString(in);
+				catalogue.restoreMinimumStockLevel(productID, in.readInt());
+				break;
+			}
+			case ORDER_STATUS: {
+				Order order = ordersStore.getOrder(readString(in));
+				OrderStatus status = readStatus(in, OrderStatus.class);
+				if (order != null) ordersStore.restoreOrderStatus(order, status);
+				break;
+			}
+			case ORDER_CANCELLED: {
+				Order order = ordersStore.getOrder(readString(in));
+				long refundPence = in.readLong();
+				if (order != null) {
+					ordersStore.restoreOrderStatus(order, OrderStatus.CANCELLED);
+					Merchant merchant = accounts.getMerchant(order.getMerchantID());
+					if (merchant != null) merchant.adjustBalance(-refundPence);
+					if (in.available() > 0) readStockChanges(in, catalogue);
+				}
+				break;
+			}
+			case INVOICE_STATUS: {
+				String invoiceID = readString(in);
+				ordersStore.restoreInvoiceStatus(invoiceID, readStatus(in, InvoiceStatus.class));
+				break;
+			}
+			case DISPATCH_PUT:
+				ordersStore.restoreDispatch(readDispatch(in));
+				break;
+			case DISPATCH_STATUS: {
+				int lines = in.readInt();
+				for (int line = 0; line < lines; line++) {
+					String orderID = readString(in);
+					OrderStatus status = readStatus(in, OrderStatus.class);
+					ordersStore.restoreDispatchStatus(orderID, status, readDate(in));
+				}
+				break;
+			}
+			case DISCOUNT_SETTLEMENT: {
+				for (DiscountEngine.Settlement settlement : readSettlements(in)) {
+					ordersStore.restoreSettlement(settlement);
+					Merchant merchant = accounts.getMerchant(settlement.getMerchantID());
+					if (merchant != null) merchant.adjustBalance(-settlement.getCreditPence());
+				}
+				break;
+			}
+			default:
+				throw new IOException("Unknown log record type: " + type);
+		}
+	}
+
+	private static void readStockChanges(DataInputStream in, ProductCatalogue_API catalogue) throws IOException {
+		int lines = in.readInt();
+		for (int line = 0; line < lines; line++) {
+			String productID = readString(in);
+			catalogue.restoreStockChange(productID, in.readInt());
+		}
+	}
+
+	// ---- Snapshots ----
+
+	private void writeSnapshot(DataOutputStream out, AccountManagement_API accounts,
+							   ProductCatalogue_API catalogue, OrderManagment_API ordersStore)
+			throws IOException {
+		RecordBuilder record = new RecordBuilder();
+
+		record.start();
+		record.out.writeInt(ordersStore.getOrderCounter());
+		record.out.writeInt(ordersStore.getInvoiceCounter());
+		WriteAheadLog.writeRecord(out, 0, COUNTERS, record.bytes());
+
+		for (Map.Entry<String, DiscountPlan> entry : accounts.getDiscountPlanEntries().entrySet()) {
+			WriteAheadLog.writeRecord(out, 0, DISCOUNT_PLAN_PUT,
+					encodeDiscountPlan(record, entry.getKey(), entry.getValue()));
+		}
+		for (Admin admin : accounts.getAllAdmins()) {
+			WriteAheadLog.writeRecord(out, 0, ADMIN_PUT, encodeAdmin(admin));
+		}
+		for (Manager manager : accounts.getAllManagers()) {
+			WriteAheadLog.writeRecord(out, 0, MANAGER_PUT, encodeManager(manager));
+		}
+		for (Merchant merchant : accounts.getAllMerchants()) {
+			WriteAheadLog.writeRecord(out, 0, MERCHANT_PUT, encodeMerchant(record, merchant));
+		}
+		for (Map.Entry<String, DiscountPlan> entry : accounts.getDiscountBindings().entrySet()) {
+			WriteAheadLog.writeRecord(out, 0, DISCOUNT_BINDING,
+					encodeDiscountPlan(record, entry.getKey(), entry.getValue()));
+		}
+		for (Product product : catalogue.listProducts()) {
+			WriteAheadLog.writeRecord(out, 0, PRODUCT_PUT, encodeProduct(record, product));
+		}
+
+		// Orders in creation order so each merchant's history keeps its order
+		List<Order> orders = new ArrayList<>(ordersStore.getAllOrders());
+		orders.sort(Comparator.comparingLong(o -> idNumber(o.getOrderID())));
+		for (Order order : orders) {
+			record.start();
+			writeOrder(record.out, order);
+			WriteAheadLog.writeRecord(out, 0, ORDER_PUT, record.bytes());
+		}
+		for (Order order : orders) {
+			if (order.getDispatch() != null) {
+				WriteAheadLog.writeRecord(out, 0, DISPATCH_PUT, encodeDispatch(record, order.getDispatch()));
+			}
+		}
+		List<DiscountEngine.Settlement> settlements = ordersStore.getDiscountSettlements();
+		if (!settlements.isEmpty()) {
+			WriteAheadLog.writeRecord(out, 0, DISCOUNT_SETTLED, encodeSettlements(record, settlements));
+		}
+
+		List<Invoice> invoices = new ArrayList<>(ordersStore.getAllInvoices());
+		invoices.sort(Comparator.comparingLong(i -> idNumber(i.getInvoiceID())));
+		for (Invoice invoice : invoices) {
+			WriteAheadLog.writeRecord(out, 0, INVOICE_PUT, encodeInvoice(record, invoice));
+		}
+
+		for (Map.Entry<String, List<Payment>> entry : ordersStore.getAllPayments().entrySet()) {
+			for (Payment payment : entry.getValue()) {
+				WriteAheadLog.writeRecord(out, 0, PAYMENT_PUT,
+						encodePayment(record, entry.getKey(), payment));
+			}
+		}
+	}
+
+	private List<Path> snapshotFiles() throws IOException {
+		List<Path> snapshots = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return snapshots;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+			for (Path file : files) {
+				snapshots.add(file);
+			}
+		}
+		snapshots.sort(Comparator.comparingLong(PersistenceManager::snapshotLsn));
+		return snapshots;
+	}
+
+	private Path snapshotPath(long lsn) {
+		return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, lsn, SNAPSHOT_SUFFIX));
+	}
+
+	private static long snapshotLsn(Path snapshot) {
+		String name = snapshot.getFileName().toString();
+		return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(),
+				name.length() - SNAPSHOT_SUFFIX.length()));
+	}
+
+	private static long idNumber(String id) {
+		int start = 0;
+		while (start < id.length() && !Character.isDigit(id.charAt(start))) {
+			start++;
+		}
+		try {
+			return Long.parseLong(id.substring(start));
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	// ---- Logging, called by the stores ----
+
+	void logMerchant(Merchant merchant) {
+		append(MERCHANT_PUT, encodeMerchant(new RecordBuilder(), merchant));
+	}
+
+	void logCreditLimit(Merchant merchant) {
+		RecordBuilder record = new RecordBuilder().start();
+		try {
+			writeString(record.out, merchant.getMerchantID());
+			record.out.writeLong(merchant.getCreditLimitPence());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		append(CREDIT_LIMIT, record.bytes());
+	}
+
+	void logMerchantStatus(Merchant merchant) {
+		append(MERCHANT_STATUS, encodeStrings(merchant.getMerchantID(), statusName(merchant.getStatus())));
+	}
+
+	void logBalanceChange(String merchantID, long deltaPence) {
+		RecordBuilder record = new RecordBuilder().start();
+		try {
+			writeString(record.out, merchantID);
+			record.out.writeLong(deltaPence);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		append(BALANCE_CHANGE, record.bytes());
+	}
+
+	void logAdmin(Admin admin) {
+		append(ADMIN_PUT, encodeAdmin(admin));
+	}
+
+	void logManager(Manager manager) {
+		append(MANAGER_PUT, encodeManager(manager));
+	}
+
+	void logDiscountPlan(String key, DiscountPlan plan) {
+		append(DISCOUNT_PLAN_PUT, encodeDiscountPlan(new RecordBuilder(), key, plan));
+	}
+
+	void logDiscountBinding(String merchantID, DiscountPlan plan) {
+		append(DISCOUNT_BINDING, encodeDiscountPlan(new RecordBuilder(), merchantID, plan));
+	}
+
+	// One record for a month's settlement across all merchants
+	void logDiscountSettlement(List<DiscountEngine.Settlement> settlements) {
+		append(DISCOUNT_SETTLEMENT, encodeSettlements(new RecordBuilder(), settlements));
+	}
+
+	void logProduct(Product product) {
+		append(PRODUCT_PUT, encodeProduct(new RecordBuilder(), product));
+	}
+
+	void logStockChange(String productID, int delta) {
+		logStockChanges(new String[] {productID}, new int[] {delta});
+	}
+
+	void logStockChanges(String[] productIDs, int[] deltas) {
+		RecordBuilder record = new RecordBuilder().start();
+		try {
+			record.out.writeInt(productIDs.length);
+			for (int line = 0; line < productIDs.length; line++) {
+				writeString(record.out, productIDs[line]);
+				record.out.writeInt(deltas[line]);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		append(STOCK_CHANGE, record.bytes());
+	}
+
+	void logMinimumStockLevel(Product product) {
+		RecordBuilder record = new RecordBuilder().start();
+		try {
+			writeString(record.out, product.getProductID());
+			record.out.writeInt(product.getMinimumStockLevel());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		append(MINIMUM_STOCK, record.bytes());
+	}
+
+	// The charge and the stock taken go in the same record, so recovery never has one without the other
+	void logOrderCreated(Order order, long chargedPence) {
+		RecordBuilder record = new RecordBuilder().start();
+		try {
+			writeOrder(record.out, order);
+			record.out.writeLong(chargedPence);
+			writeStockChanges(record.out, order.getItems(), -1);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		append(ORDER_CREATED, record.bytes());
+	}
+
+	void logOrderStatus(Order order) {
+		append(ORDER_STATUS, encodeStrings(order.getOrderID(), statusName(order.getStatus())));
+	}
+
+	void logOrderCancelled(Order order, long refundPence) {
+		RecordBuilder record = new RecordBuilder().start();
+		try {
+			writeString(record.out, order.getOrderID());
+			record.out.writeLong(refundPence);
+			writeStockChanges(record.out, order.getItems(), 1);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		append(ORDER_CANCELLED, record.bytes());
+	}
+
+	void logDispatch(DispatchRecord dispatch) {
+		append(DISPATCH_PUT, encodeDispatch(new RecordBuilder(), dispatch));
+	}
+
+	// One record for a batch of courier updates
+	void logDispatchStatuses(List<DispatchRecord> dispatches) {
+		RecordBuilder record = new RecordBuilder().start();
+		try {
+			record.out.writeInt(dispatches.size());
+			for (DispatchRecord dispatch : dispatches) {
+				writeString(record.out, dispatch.getOrderID());
+				writeString(record.out, statusName(dispatch.getStatus()));
+				writeDate(record.out, dispatch.getStatusDate());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		append(DISPATCH_STATUS, record.bytes());
+	}
+
+	void logInvoice(Invoice invoice) {
+		append(INVOICE_PUT, encodeInvoice(new RecordBuilder(), invoice));
+	}
+
+	void logInvoiceStatus(Invoice invoice) {
+		append(INVOICE_STATUS, encodeStrings(invoice.getInvoiceID(), statusName(invoice.getStatus())));
+	}
+
+	void logPayment(String merchantID, Payment payment) {
+		append(PAYMENT_PUT, encodePayment(new RecordBuilder(), merchantID, payment));
+	}
+
+	private void append(byte type, byte[] payload) {
+		wal.append(type, payload);
+	}
+
+	// ---- Encoding ----
+
+	private static class RecordBuilder {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		final DataOutputStream out = new DataOutputStream(bytes);
+
+		RecordBuilder start() {
+			bytes.reset();
+			return this;
+		}
+
+		byte[] bytes() {
+			return bytes.toByteArray();
+		}
+	}
+
+	private static byte[] encodeStrings(String... values) {
+		RecordBuilder record = new RecordBuilder().start();
+		try {
+			for (String value : values) {
+				writeString(record.out, value);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return record.bytes();
+	}
+
+	private static byte[] encodeMerchant(RecordBuilder record, Merchant merchant) {
+		record.start();
+		try {
+			writeString(record.out, merchant.getMerchantID());
+			writeString(record.out, merchant.getName());
+			writeString(record.out, merchant.getAddress());
+			record.out.writeLong(merchant.getCreditLimitPence());
+			record.out.writeLong(merchant.getBalancePence());
+			writeString(record.out, statusName(merchant.getStatus()));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return record.bytes();
+	}
+
+	private static Merchant readMerchant(DataInputStream in) throws IOException {
+		Merchant merchant = new Merchant();
+		merchant.setMerchantID(readString(in));
+		merchant.setName(readString(in));
+		merchant.setAddress(readString(in));
+		merchant.setCreditLimitPence(in.readLong());
+		merchant.setBalancePence(in.readLong());
+		merchant.setStatus(readStatus(in, MerchantStatus.class));
+		return merchant;
+	}
+
+	private static byte[] encodeAdmin(Admin admin) {
+		return encodeStrings(admin.getAdminID(), admin.getName(), admin.getEmail(), admin.getRole());
+	}
+
+	private static byte[] encodeManager(Manager manager) {
+		return encodeStrings(manager.getManagerID(), manager.getName(), manager.getEmail(),
+				manager.getRegion());
+	}
+
+	private static byte[] encodeDiscountPlan(RecordBuilder record, String key, DiscountPlan plan) {
+		record.start();
+		try {
+			writeString(record.out, key);
+			writeString(record.out, plan.getPlanID());
+			writeString(record.out, plan.getDescription());
+			record.out.writeDouble(plan.getDiscountRate());
+			writeString(record.out, statusName(plan.getType()));
+			long[] fromPence = plan.getTierFromPence();
+			double[] rates = plan.getTierRates();
+			record.out.writeInt(fromPence.length);
+			for (int tier = 0; tier < fromPence.length; tier++) {
+				record.out.writeLong(fromPence[tier]);
+				record.out.writeDouble(rates[tier]);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return record.bytes();
+	}
+
+	private static DiscountPlan readDiscountPlan(DataInputStream in) throws IOException {
+		DiscountPlan plan = new DiscountPlan();
+		plan.setPlanID(readString(in));
+		plan.setDescription(readString(in));
+		plan.setDiscountRate(in.readDouble());
+		// Plans logged before tiers were added end here
+		if (in.available() > 0) {
+			plan.setType(readStatus(in, DiscountPlan.Type.class));
+			int tiers = in.readInt();
+			long[] fromPence = new long[tiers];
+			double[] rates = new double[tiers];
+			for (int tier = 0; tier < tiers; tier++) {
+				fromPence[tier] = in.readLong();
+				rates[tier] = in.readDouble();
+			}
+			plan.setTiers(fromPence, rates);
+		}
+		return plan;
+	}
+
+	private static byte[] encodeSettlements(RecordBuilder record, List<DiscountEngine.Settlement> settlements) {
+		record.start();
+		try {
+			record.out.writeInt(settlements.size());
+			for (DiscountEngine.Settlement settlement : settlements) {
+				writeString(record.out, settlement.getMerchantID());
+				writeString(record.out, settlement.getMonth().toString());
+				record.out.writeLong(settlement.getSpendPence());
+				record.out.writeDouble(settlement.getRate());
+				record.out.writeLong(settlement.getCreditPence());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return record.bytes();
+	}
+
+	private static List<DiscountEngine.Settlement> readSettlements(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<DiscountEngine.Settlement> settlements = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String merchantID = readString(in);
+			YearMonth month = YearMonth.parse(readString(in));
+			long spendPence = in.readLong();
+			double rate = in.readDouble();
+			settlements.add(new DiscountEngine.Settlement(merchantID, month, spendPence, rate, in.readLong()));
+		}
+		return settlements;
+	}
+
+	private static byte[] encodeProduct(RecordBuilder record, Product product) {
+		record.start();
+		try {
+			writeString(record.out, product.getProductID());
+			writeString(record.out, product.getName());
+			record.out.writeLong(product.getPricePence());
+			record.out.writeInt(product.getStockLevel());
+			record.out.writeInt(product.getMinimumStockLevel());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return record.bytes();
+	}
+
+	private static void writeOrder(DataOutputStream out, Order order) throws IOException {
+		writeString(out, order.getOrderID());
+		writeString(out, order.getMerchantID());
+		writeDate(out, order.getOrderDate());
+		writeString(out, statusName(order.getStatus()));
+		out.writeDouble(order.getDiscountRate());
+		OrderItem[] items = order.getItems();
+		out.writeInt(items == null ? -1 : items.length);
+		if (items != null) {
+			for (OrderItem item : items) {
+				writeString(out, item.getProductID());
+				out.writeInt(item.getQuantity());
+				out.writeLong(item.getUnitPricePence());
+			}
+		}
+	}
+
+	// An order's lines as stock changes, in the form a STOCK_CHANGE record holds them
+	private static void writeStockChanges(DataOutputStream out, OrderItem[] items, int sign) throws IOException {
+		out.writeInt(items == null ? 0 : items.length);
+		if (items != null) {
+			for (OrderItem item : items) {
+				writeString(out, item.getProductID());
+				out.writeInt(sign * item.getQuantity());
+			}
+		}
+	}
+
+	private static Order readOrder(DataInputStream in) throws IOException {
+		Order order = new Order();
+		order.setOrderID(readString(in));
+		order.setMerchantID(readString(in));
+		order.setOrderDate(readDate(in));
+		order.setStatus(readStatus(in, OrderStatus.class));
+		order.setDiscountRate(in.readDouble());
+		int count = in.readInt();
+		if (count >= 0) {
+			OrderItem[] items = new OrderItem[count];
+			for (int i = 0; i < count; i++) {
+				items[i] = new OrderItem();
+				items[i].setProductID(readString(in));
+				items[i].setQuantity(in.readInt());
+				items[i].setUnitPricePence(in.readLong());
+			}
+			order.setItems(items);
+		}
+		return order;
+	}
+
+	private static byte[] encodeDispatch(RecordBuilder record, DispatchRecord dispatch) {
+		record.start();
+		try {
+			writeString(record.out, dispatch.getOrderID());
+			writeString(record.out, dispatch.getCourier());
+			writeString(record.out, dispatch.getTrackingNo());
+			writeDate(record.out, dispatch.getDispatchDate());
+			writeString(record.out, statusName(dispatch.getStatus()));
+			writeDate(record.out, dispatch.getStatusDate());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return record.bytes();
+	}
+
+	private static DispatchRecord readDispatch(DataInputStream in) throws IOException {
+		String orderID = readString(in);
+		String courier = readString(in);
+		String trackingNo = readString(in);
+		Date dispatchDate = readDate(in);
+		OrderStatus status = readStatus(in, OrderStatus.class);
+		return new DispatchRecord(orderID, courier, trackingNo, dispatchDate, status, readDate(in));
+	}
+
+	private static byte[] encodeInvoice(RecordBuilder record, Invoice invoice) {
+		record.start();
+		try {
+			writeString(record.out, invoice.getInvoiceID());
+			writeString(record.out, invoice.getOrderID());
+			writeString(record.out, invoice.getMerchantID());
+			writeDate(record.out, invoice.getIssueDate());
+			writeDate(record.out, invoice.getDueDate());
+			record.out.writeLong(invoice.getTotalAmountPence());
+			writeString(record.out, statusName(invoice.getStatus()));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return record.bytes();
+	}
+
+	private static byte[] encodePayment(RecordBuilder record, String merchantID, Payment payment) {
+		record.start();
+		try {
+			writeString(record.out, merchantID);
+			writeString(record.out, payment.getPaymentID());
+			writeString(record.out, payment.getMerchantID());
+			record.out.writeLong(payment.getAmountPence());
+			writeDate(record.out, payment.getDate());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return record.bytes();
+	}
+
+	// Statuses are logged by name
+	private static String statusName(Enum<?> status) {
+		return status == null ? null : status.name();
+	}
+
+	private static <S extends Enum<S>> S readStatus(DataInputStream in, Class<S> type) throws IOException {
+		String name = readString(in);
+		if (name == null) return null;
+		try {
+			return Enum.valueOf(type, name);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unknown " + type.getSimpleName() + ": " + name);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeDate(DataOutputStream out, Date date) throws IOException {
+		out.writeLong(date == null ? NO_DATE : date.getTime());
+	}
+
+	private static Date readDate(DataInputStream in) throws IOException {
+		long time = in.readLong();
+		return time == NO_DATE ? null : new Date(time);
+	}
+
+}
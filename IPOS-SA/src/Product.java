@@ -1,10 +1,13 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Product {
 
 	private String productID;
 	private String name;
-	private double price;
-	private int stockLevel;
-	private int minimumStockLevel;
+	// Held in pence; see Money
+	private long pricePence;
+	private final AtomicInteger stockLevel = new AtomicInteger();
+	private volatile int minimumStockLevel;
 
 	public String getProductID() {
 		return this.productID;
@@ -31,19 +34,31 @@ public class Product {
 	}
 
 	public double getPrice() {
-		return this.price;
+		return Money.toPounds(this.pricePence);
 	}
 
 	/**
 	 * 
-	 * @param price
+	 * @param price rounded to the nearest penny
 	 */
 	public void setPrice(double price) {
-		this.price = price;
+		this.pricePence = Money.ofPounds(price);
+	}
+
+	public long getPricePence() {
+		return this.pricePence;
+	}
+
+	/**
+	 * 
+	 * @param pricePence
+	 */
+	public void setPricePence(long pricePence) {
+		this.pricePence = pricePence;
 	}
 
 	public int getStockLevel() {
-		return this.stockLevel;
+		return this.stockLevel.get();
 	}
 
 	/**
@@ -51,7 +66,58 @@ public class Product {
 	 * @param stockLevel
 	 */
 	public void setStockLevel(int stockLevel) {
-		this.stockLevel = stockLevel;
+		this.stockLevel.set(stockLevel);
+	}
+
+	/**
+	 * Sets the stock level and returns the level it replaced.
+	 * @param stockLevel
+	 */
+	public int getAndSetStockLevel(int stockLevel) {
+		return this.stockLevel.getAndSet(stockLevel);
+	}
+
+	/**
+	 * Takes the quantity out of stock only if enough is available.
+	 * @param quantity
+	 */
+	public boolean tryReserve(int quantity) {
+		while (true) {
+			int current = this.stockLevel.get();
+			if (current < quantity) {
+				return false;
+			}
+			if (this.stockLevel.compareAndSet(current, current - quantity)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Adds the delta to stock unless that would take it below zero, and
+	 * returns the new level, or -1 if the change was refused.
+	 * @param delta
+	 */
+	public int tryAdjustStock(int delta) {
+		while (true) {
+			int current = this.stockLevel.get();
+			int next = current + delta;
+			// A sum that overflows comes out negative and is refused too
+			if (next < 0 || delta > 0 && next < current) {
+				return -1;
+			}
+			if (this.stockLevel.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param delta
+	 */
+	public int adjustStock(int delta) {
+		return this.stockLevel.addAndGet(delta);
 	}
 
 	public int getMinimumStockLevel() {
@@ -1,11 +1,27 @@
 // ProductCatalogue_API.java
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ProductCatalogue_API implements IProductCatalogue {
 
-	private Map<String, Product> products = new ConcurrentHashMap<>();
+	// Reservations not committed within this time can be expired
+	public static final long DEFAULT_RESERVATION_TTL_MILLIS = 15 * 60 * 1000L;
+
+	// Products by handle, and by item number for the int-keyed stock calls
+	private final IdRegistry productIds = new IdRegistry();
+	private final IntMap<Product> products = new IntMap<>();
+	// Every handle below this has its product stored, so paging never passes one still being added
+	private volatile int listedHandles;
+	private final IntMap<Product> productsByItemNumber = new IntMap<>();
+	private final ProductSearchIndex searchIndex = new ProductSearchIndex();
+	private final LowStockWatch lowStock = new LowStockWatch(productIds::handleOf);
+	private Map<String, StockReservation> heldReservations = new ConcurrentHashMap<>();
+	private AtomicLong reservationCounter = new AtomicLong();
+	// Bumped after every change to a product's stock or minimum level
+	private final AtomicLong changes = new AtomicLong();
+	private PersistenceManager persistence;
+	private EventBus events;
 
 	public ProductCatalogue_API() {
 		initializeSampleCatalogue();
@@ -37,7 +53,9 @@ public class ProductCatalogue_API implements IProductCatalogue {
 		product.setPrice(price);
 		product.setStockLevel(stock);
 		product.setMinimumStockLevel(minStock);
-		products.put(id, product);
+		store(product);
+		searchIndex.add(product);
+		stockRestored(product);
 	}
 
 	@Override
@@ -45,12 +63,55 @@ public class ProductCatalogue_API implements IProductCatalogue {
 		if (productID == null) {
 			throw new IllegalArgumentException("Product ID cannot be null");
 		}
-		return products.get(productID);
+		return findProduct(productID);
 	}
 
+	// In the order they were added
 	@Override
 	public Product[] listProducts() {
-		return products.values().toArray(new Product[0]);
+		Product[] list = new Product[products.size()];
+		int count = 0;
+		for (int handle = 0, end = productIds.size(); handle < end && count < list.length; handle++) {
+			Product product = products.get(handle);
+			if (product != null) list[count++] = product;
+		}
+		return count == list.length ? list : Arrays.copyOf(list, count);
+	}
+
+	private Product findProduct(String productID) {
+		int handle = productIds.handleOf(productID);
+		return handle == IdRegistry.NONE ? null : products.get(handle);
+	}
+
+	// Called under the products lock, or while the catalogue is being built
+	private void store(Product product) {
+		int handle = productIds.register(product.getProductID());
+		products.put(handle, product);
+		if (handle >= listedHandles) listedHandles = handle + 1;
+		int itemNumber = itemNumber(product.getProductID());
+		if (itemNumber >= 0) {
+			productsByItemNumber.put(itemNumber, product);
+		}
+	}
+
+	/**
+	 * The item number a product ID stands for, as used by addStock(int, int),
+	 * or -1 if it is not one. Item numbers are written with at least eight
+	 * digits, so 10000001 is "10000001" and 42 is "00000042".
+	 * @param productID
+	 */
+	static int itemNumber(String productID) {
+		int length = productID.length();
+		if (length < 8 || length > 10 || length > 8 && productID.charAt(0) == '0') {
+			return -1;
+		}
+		long number = 0;
+		for (int i = 0; i < length; i++) {
+			char digit = productID.charAt(i);
+			if (digit < '0' || digit > '9') return -1;
+			number = number * 10 + (digit - '0');
+		}
+		return number > Integer.MAX_VALUE ? -1 : (int) number;
 	}
 
 	@Override
@@ -59,7 +120,7 @@ public class ProductCatalogue_API implements IProductCatalogue {
 			return false;
 		}
 
-		if (products.containsKey(product.getProductID())) {
+		if (findProduct(product.getProductID()) != null) {
 			return false;
 		}
 
@@ -68,7 +129,16 @@ public class ProductCatalogue_API implements IProductCatalogue {
 			product.setMinimumStockLevel(10);
 		}
 
-		products.put(product.getProductID(), product);
+		// Log before publishing so no stock change can be logged ahead of it
+		synchronized (products) {
+			if (findProduct(product.getProductID()) != null) {
+				return false;
+			}
+			if (persistence != null) persistence.logProduct(product);
+			store(product);
+			searchIndex.add(product);
+		}
+		stockChanged(product);
 		return true;
 	}
 
@@ -78,22 +148,62 @@ public class ProductCatalogue_API implements IProductCatalogue {
 			return false;
 		}
 
-		Product product = products.get(productID);
+		Product product = findProduct(productID);
 		if (product == null) {
 			return false;
 		}
 
-		product.setStockLevel(quantity);
+		// Logged as a change so it replays correctly among concurrent adjustments
+		int previous = product.getAndSetStockLevel(quantity);
+		if (persistence != null) persistence.logStockChange(productID, quantity - previous);
+		stockChanged(product);
 		return true;
 	}
 
+	// Read from the maintained low-stock set, in product ID order
 	@Override
 	public Product[] getLowStockProducts() {
-		List<Product> lowStock = products.values().stream()
-				.filter(p -> p.getStockLevel() < p.getMinimumStockLevel())
-				.collect(Collectors.toList());
+		return lowStock.getProducts();
+	}
 
-		return lowStock.toArray(new Product[0]);
+	/**
+	 * One page of products in the order they were added; with lowStockOnly,
+	 * only those below their minimum stock level.
+	 * @param lowStockOnly
+	 * @param limit
+	 * @param pageToken null for the first page
+	 */
+	@Override
+	public Page<Product> findProducts(boolean lowStockOnly, int limit, String pageToken) {
+		Page.checkLimit(limit);
+		int cursor = Page.cursor(pageToken);
+		// Low stock is read from the watch's own set, so a page costs the products on it rather than the catalogue
+		if (lowStockOnly) {
+			return Page.scan(lowStock.from(cursor), product -> productIds.handleOf(product.getProductID()),
+					product -> true, limit);
+		}
+		return Page.scan(cursor, listedHandles, products::get, product -> true, limit);
+	}
+
+	// Grows each time a product is added or its stock or minimum level changes
+	public long getChangeCount() {
+		return changes.get();
+	}
+
+	private void stockChanged(Product product) {
+		stockRestored(product);
+		if (events != null) events.publish(new DomainEvent.StockChanged(product));
+	}
+
+	// As stockChanged, without publishing; for the sample catalogue and recovery
+	private void stockRestored(Product product) {
+		lowStock.update(product);
+		changes.incrementAndGet();
+	}
+
+	// Low-stock set with change notifications, for dashboards and reorder alerts
+	public LowStockWatch getLowStockWatch() {
+		return lowStock;
 	}
 
 	@Override
@@ -102,51 +212,340 @@ public class ProductCatalogue_API implements IProductCatalogue {
 			return false;
 		}
 
-		Product product = products.get(productID);
+		Product product = findProduct(productID);
 		if (product == null) {
 			return false;
 		}
 
 		product.setMinimumStockLevel(level);
+		if (persistence != null) persistence.logMinimumStockLevel(product);
+		stockChanged(product);
 		return true;
 	}
 
 	@Override
 	public void addStock(int itemID, int quantity) {
-		// Convert int ID to String ID
-		String productID = String.valueOf(itemID);
-		// Pad with zeros to match format (e.g., 10000001)
-		while (productID.length() < 8) {
-			productID = "0" + productID;
+		// Found by number, so no padded ID string is built
+		Product product = productsByItemNumber.get(itemID);
+		if (product != null && quantity > 0) {
+			product.adjustStock(quantity);
+			if (persistence != null) persistence.logStockChange(product.getProductID(), quantity);
+			stockChanged(product);
 		}
+	}
 
-		Product product = products.get(productID);
-		if (product != null && quantity > 0) {
-			int newStock = product.getStockLevel() + quantity;
-			product.setStockLevel(newStock);
+	/**
+	 * Adds a positive delta to the product's stock or takes a negative one out
+	 * of it, refusing any change that would leave less than nothing. Finds the
+	 * product by item number and allocates nothing unless a log is attached.
+	 * @param itemNumber
+	 * @param delta
+	 * @return the new stock level, I_IPOS_CA.UNKNOWN_PRODUCT or I_IPOS_CA.INSUFFICIENT_STOCK
+	 */
+	public int adjustStock(int itemNumber, int delta) {
+		Product product = productsByItemNumber.get(itemNumber);
+		if (product == null) {
+			return I_IPOS_CA.UNKNOWN_PRODUCT;
+		}
+		if (delta == 0) {
+			return product.getStockLevel();
+		}
+
+		int level = product.tryAdjustStock(delta);
+		if (level < 0) {
+			return I_IPOS_CA.INSUFFICIENT_STOCK;
+		}
+		if (persistence != null) persistence.logStockChange(product.getProductID(), delta);
+		stockChanged(product);
+		return level;
+	}
+
+	/**
+	 * Applies each delta as adjustStock(int, int) would, in order, and logs
+	 * the changes made as one record. Each change stands alone: a refused line
+	 * does not stop the rest.
+	 * @param itemNumbers
+	 * @param deltas
+	 * @param levels receives each line's new stock level or error code; may be null
+	 * @return the number of lines applied
+	 */
+	public int adjustStock(int[] itemNumbers, int[] deltas, int[] levels) {
+		if (itemNumbers.length != deltas.length || levels != null && levels.length < itemNumbers.length) {
+			throw new IllegalArgumentException("Item numbers, deltas and levels must be the same length");
 		}
+
+		// Changes made, gathered only when there is a log to write them to
+		PersistenceManager log = persistence;
+		String[] loggedIDs = log == null ? null : new String[itemNumbers.length];
+		int[] loggedDeltas = log == null ? null : new int[itemNumbers.length];
+		int logged = 0;
+		int applied = 0;
+		for (int line = 0; line < itemNumbers.length; line++) {
+			Product product = productsByItemNumber.get(itemNumbers[line]);
+			int level;
+			if (product == null) {
+				level = I_IPOS_CA.UNKNOWN_PRODUCT;
+			} else if (deltas[line] == 0) {
+				level = product.getStockLevel();
+			} else {
+				level = product.tryAdjustStock(deltas[line]);
+				if (level < 0) {
+					level = I_IPOS_CA.INSUFFICIENT_STOCK;
+				} else {
+					stockChanged(product);
+					if (log != null) {
+						loggedIDs[logged] = product.getProductID();
+						loggedDeltas[logged++] = deltas[line];
+					}
+				}
+			}
+			if (level >= 0) applied++;
+			if (levels != null) levels[line] = level;
+		}
+
+		if (logged > 0) {
+			log.logStockChanges(Arrays.copyOf(loggedIDs, logged), Arrays.copyOf(loggedDeltas, logged));
+		}
+		return applied;
+	}
+
+	// The stock level of the product with the item number, or I_IPOS_CA.UNKNOWN_PRODUCT
+	public int getStockLevel(int itemNumber) {
+		Product product = productsByItemNumber.get(itemNumber);
+		return product == null ? I_IPOS_CA.UNKNOWN_PRODUCT : product.getStockLevel();
 	}
 
 	// Additional method for adding stock with String ID
 	public void addStock(String productID, int quantity) {
 		if (productID == null || quantity <= 0) return;
 
-		Product product = products.get(productID);
+		Product product = findProduct(productID);
 		if (product != null) {
-			int newStock = product.getStockLevel() + quantity;
-			product.setStockLevel(newStock);
+			product.adjustStock(quantity);
+			if (persistence != null) persistence.logStockChange(productID, quantity);
+			stockChanged(product);
 		}
 	}
 
+	public StockReservation reserveStock(OrderItem[] items) {
+		return reserveStock(items, DEFAULT_RESERVATION_TTL_MILLIS);
+	}
+
+	/**
+	 * Reserves every line of an order or none of them. Each product is
+	 * decremented with compare-and-set, so concurrent orders on the same
+	 * product never lose updates and stock never goes negative.
+	 * @param items
+	 * @param ttlMillis
+	 */
+	public StockReservation reserveStock(OrderItem[] items, long ttlMillis) {
+		int lines = items == null ? 0 : items.length;
+		for (int line = 0; line < lines; line++) {
+			if (items[line].getQuantity() <= 0) {
+				throw new IllegalArgumentException("Invalid quantity for product: " +
+						items[line].getProductID());
+			}
+		}
+
+		// Combine lines for the same product so each product is reserved once; orders
+		// are usually a few lines, so a scan finds repeats without building a map
+		Product[] reservedProducts = new Product[lines];
+		int[] reservedQuantities = new int[lines];
+		Map<Product, Integer> positions = lines > 16 ? new IdentityHashMap<>() : null;
+		int count = 0;
+		for (int line = 0; line < lines; line++) {
+			Product product = findProduct(items[line].getProductID());
+			if (product == null) {
+				throw new IllegalArgumentException("Product not found: " + items[line].getProductID());
+			}
+			int position;
+			if (positions != null) {
+				position = positions.computeIfAbsent(product, p -> positions.size());
+			} else {
+				position = 0;
+				while (position < count && reservedProducts[position] != product) position++;
+			}
+			if (position == count) {
+				reservedProducts[count++] = product;
+			}
+			reservedQuantities[position] += items[line].getQuantity();
+		}
+
+		if (count < lines) {
+			reservedProducts = Arrays.copyOf(reservedProducts, count);
+			reservedQuantities = Arrays.copyOf(reservedQuantities, count);
+		}
+		return reserveStock(reservedProducts, reservedQuantities, ttlMillis);
+	}
+
+	/**
+	 * Reserves already resolved products, one quantity per product.
+	 * @param reservedProducts
+	 * @param reservedQuantities
+	 * @param ttlMillis
+	 */
+	public StockReservation reserveStock(Product[] reservedProducts, int[] reservedQuantities,
+										 long ttlMillis) {
+		for (int line = 0; line < reservedProducts.length; line++) {
+			if (!reservedProducts[line].tryReserve(reservedQuantities[line])) {
+				// Put back what was already taken before rejecting
+				for (int taken = 0; taken < line; taken++) {
+					reservedProducts[taken].adjustStock(reservedQuantities[taken]);
+					stockChanged(reservedProducts[taken]);
+				}
+				throw new IllegalStateException("Insufficient stock for product " +
+						reservedProducts[line].getProductID() +
+						". Requested: " + reservedQuantities[line] +
+						", Available: " + reservedProducts[line].getStockLevel());
+			}
+		}
+		for (Product product : reservedProducts) {
+			stockChanged(product);
+		}
+
+		StockReservation reservation = new StockReservation(
+				"RES" + reservationCounter.incrementAndGet(),
+				reservedProducts, reservedQuantities,
+				System.currentTimeMillis() + ttlMillis);
+		heldReservations.put(reservation.getReservationID(), reservation);
+		return reservation;
+	}
+
+	// Makes the reserved quantities a permanent stock reduction
+	public boolean commitReservation(StockReservation reservation) {
+		if (!commitLoggedReservation(reservation)) {
+			return false;
+		}
+
+		// Held stock is not logged; it only becomes durable once committed
+		if (persistence != null && reservation.getLineCount() > 0) {
+			String[] productIDs = new String[reservation.getLineCount()];
+			int[] deltas = new int[reservation.getLineCount()];
+			for (int line = 0; line < productIDs.length; line++) {
+				productIDs[line] = reservation.getProduct(line).getProductID();
+				deltas[line] = -reservation.getQuantity(line);
+			}
+			persistence.logStockChanges(productIDs, deltas);
+		}
+		return true;
+	}
+
+	// As commitReservation, for an order whose log record already carries the stock it takes
+	boolean commitLoggedReservation(StockReservation reservation) {
+		if (reservation == null ||
+				!reservation.transition(StockReservation.State.HELD, StockReservation.State.COMMITTED)) {
+			return false;
+		}
+		heldReservations.remove(reservation.getReservationID());
+		return true;
+	}
+
+	// Returns the reserved quantities to stock
+	public boolean releaseReservation(StockReservation reservation) {
+		if (reservation == null ||
+				!reservation.transition(StockReservation.State.HELD, StockReservation.State.RELEASED)) {
+			return false;
+		}
+		heldReservations.remove(reservation.getReservationID());
+		returnReservedStock(reservation);
+		return true;
+	}
+
+	// Releases every held reservation whose time has run out
+	public int expireReservations(long now) {
+		int expired = 0;
+		for (StockReservation reservation : heldReservations.values()) {
+			if (reservation.getExpiresAt() <= now &&
+					reservation.transition(StockReservation.State.HELD, StockReservation.State.EXPIRED)) {
+				heldReservations.remove(reservation.getReservationID());
+				returnReservedStock(reservation);
+				expired++;
+			}
+		}
+		return expired;
+	}
+
+	public StockReservation getReservation(String reservationID) {
+		return heldReservations.get(reservationID);
+	}
+
+	private void returnReservedStock(StockReservation reservation) {
+		for (int line = 0; line < reservation.getLineCount(); line++) {
+			reservation.getProduct(line).adjustStock(reservation.getQuantity(line));
+			stockChanged(reservation.getProduct(line));
+		}
+	}
+
+	// Puts the quantities of a cancelled order back into stock
+	public void releaseStock(OrderItem[] items) {
+		releaseStock(items, persistence);
+	}
+
+	// As releaseStock, for an order whose cancellation record already carries the stock it returns
+	void releaseLoggedStock(OrderItem[] items) {
+		releaseStock(items, null);
+	}
+
+	private void releaseStock(OrderItem[] items, PersistenceManager log) {
+		if (items == null) return;
+
+		for (OrderItem item : items) {
+			Product product = findProduct(item.getProductID());
+			if (product != null) {
+				product.adjustStock(item.getQuantity());
+				if (log != null) log.logStockChange(item.getProductID(), item.getQuantity());
+				stockChanged(product);
+			}
+		}
+	}
+
+	// Every product whose name or ID contains the keyword, best matches first
 	public List<Product> searchProducts(String keyword) {
-		if (keyword == null || keyword.trim().isEmpty()) {
-			return new ArrayList<>(products.values());
+		return searchIndex.search(keyword, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * One page of searchProducts results, for search-as-you-type.
+	 * @param keyword
+	 * @param offset number of ranked matches to skip
+	 * @param limit largest number of products to return
+	 */
+	public List<Product> searchProducts(String keyword, int offset, int limit) {
+		return searchIndex.search(keyword, offset, limit);
+	}
+
+	void setPersistence(PersistenceManager persistence) {
+		this.persistence = persistence;
+	}
+
+	// Publishes every change made from now on; set before the store is shared
+	public void setEventBus(EventBus events) {
+		this.events = events;
+	}
+
+	// Used by recovery: stores the product as logged, without validation or logging
+	void restoreProduct(Product product) {
+		synchronized (products) {
+			store(product);
+		}
+		searchIndex.add(product);
+		lowStock.forget(product.getProductID());
+		stockRestored(product);
+	}
+
+	void restoreStockChange(String productID, int delta) {
+		Product product = findProduct(productID);
+		if (product != null) {
+			product.adjustStock(delta);
+			stockRestored(product);
 		}
+	}
 
-		String lowerKeyword = keyword.toLowerCase();
-		return products.values().stream()
-				.filter(p -> p.getName().toLowerCase().contains(lowerKeyword) ||
-						p.getProductID().contains(keyword))
-				.collect(Collectors.toList());
+	void restoreMinimumStockLevel(String productID, int level) {
+		Product product = findProduct(productID);
+		if (product != null) {
+			product.setMinimumStockLevel(level);
+			stockRestored(product);
+		}
 	}
 }
\ No newline at end of file
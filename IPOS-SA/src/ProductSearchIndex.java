@@ -0,0 +1,269 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory search over product names and IDs, updated as products are
+ * added. Results are ranked in tiers: ID prefix, then name prefix, then a
+ * word of the name starting with the query, then the query anywhere in the
+ * name or ID. The prefix tiers are sorted maps read in order; substring
+ * matches come from a trigram index, so a page of results is found without
+ * scanning the catalogue.
+ *
+ * Names are lower-cased once when indexed. A product renamed after it was
+ * added keeps its old name in the index until it is added again.
+ */
+public class ProductSearchIndex {
+
+	// Sorts before any character of a name, so "aspirin" keys come before "aspirin c" keys
+	private static final char SEPARATOR = '\u0000';
+	private static final char PREFIX_END = '\uffff';
+
+	// Guarded by this; readers see whole documents up to docCount. A product
+	// added again gets a new document and its old slot is cleared.
+	private volatile Product[] docs = new Product[1024];
+	private volatile String[] docNames = new String[1024];
+	private volatile int docCount;
+
+	// Document numbers by product ID, by name then ID, and by each word of the name
+	private final ConcurrentSkipListMap<String, Integer> byID = new ConcurrentSkipListMap<>();
+	private final ConcurrentSkipListMap<String, Integer> byName = new ConcurrentSkipListMap<>();
+	private final ConcurrentSkipListMap<String, Postings> byWord = new ConcurrentSkipListMap<>();
+	// The same postings by word, for the lookups made on every add
+	private final Map<String, Postings> wordPostings = new HashMap<>();
+	private final Map<Long, Postings> trigrams = new ConcurrentHashMap<>();
+
+	/**
+	 * Indexes the product, replacing any earlier entry with the same ID.
+	 * @param product
+	 */
+	public synchronized void add(Product product) {
+		String productID = product.getProductID();
+		String name = normalise(product.getName());
+
+		Integer previous = byID.get(productID);
+		if (previous != null) {
+			// Word and trigram postings keep the old number, which no longer matches
+			byName.remove(docNames[previous] + SEPARATOR + productID);
+			docs[previous] = null;
+		}
+
+		int doc = docCount;
+		if (doc == docs.length) {
+			docNames = Arrays.copyOf(docNames, doc * 2);
+			docs = Arrays.copyOf(docs, doc * 2);
+		}
+		docs[doc] = product;
+		docNames[doc] = name;
+		addTrigrams(name, doc);
+		addTrigrams(productID.toLowerCase(Locale.ROOT), doc);
+		addWords(name, doc);
+		docCount = doc + 1;
+
+		byID.put(productID, doc);
+		byName.put(name + SEPARATOR + productID, doc);
+	}
+
+	public int size() {
+		return byID.size();
+	}
+
+	/**
+	 * Returns one page of ranked matches. A blank query lists every product
+	 * in ID order.
+	 * @param query matched case-insensitively against names, and against IDs
+	 * @param offset number of ranked matches to skip
+	 * @param limit largest number of products to return
+	 */
+	public List<Product> search(String query, int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("Offset and limit cannot be negative");
+		}
+		Page page = new Page(offset, limit);
+		Product[] products = docs;
+		String trimmed = query == null ? "" : query.trim();
+		if (trimmed.isEmpty()) {
+			page.offerAll(byID.values(), products);
+			return page.products;
+		}
+
+		String normalised = normalise(trimmed);
+		if (page.offerAll(byID.subMap(trimmed, trimmed + PREFIX_END).values(), products)
+				&& page.offerAll(byName.subMap(normalised, normalised + PREFIX_END).values(), products)
+				&& offerWordMatches(normalised, page, products)) {
+			offerSubstringMatches(normalised, page);
+		}
+		return page.products;
+	}
+
+	// Names with a word starting with the query, word by word
+	private boolean offerWordMatches(String query, Page page, Product[] products) {
+		for (Postings postings : byWord.subMap(query, query + PREFIX_END).values()) {
+			int size = postings.size;
+			int[] words = postings.docs;
+			for (int i = 0; i < size; i++) {
+				Product product = words[i] < products.length ? products[words[i]] : null;
+				if (product != null && !page.offer(product)) return false;
+			}
+		}
+		return true;
+	}
+
+	private void offerSubstringMatches(String query, Page page) {
+		int count = docCount;
+		Product[] products = docs;
+		String[] names = docNames;
+
+		if (query.length() < 3) {
+			// Too short for a trigram; only reached once the prefix tiers are used up
+			for (int doc = 0; doc < count; doc++) {
+				if (matches(products[doc], names[doc], query) && !page.offer(products[doc])) return;
+			}
+			return;
+		}
+
+		// Every trigram of the query must appear in a matching document
+		int grams = query.length() - 2;
+		int[][] lists = new int[grams][];
+		int[] sizes = new int[grams];
+		int shortest = 0;
+		for (int i = 0; i < grams; i++) {
+			Postings postings = trigrams.get(trigram(query, i));
+			if (postings == null) return;
+			sizes[i] = postings.size;
+			lists[i] = postings.docs;
+			if (sizes[i] < sizes[shortest]) shortest = i;
+		}
+
+		// Walk the shortest list; the others are searched forward from where the last lookup stopped
+		int[] positions = new int[grams];
+		int[] candidates = lists[shortest];
+		for (int c = 0; c < sizes[shortest]; c++) {
+			int doc = candidates[c];
+			if (doc >= count) break;
+			boolean inAll = true;
+			for (int i = 0; i < grams && inAll; i++) {
+				if (i == shortest) continue;
+				positions[i] = seek(lists[i], positions[i], sizes[i], doc);
+				inAll = positions[i] < sizes[i] && lists[i][positions[i]] == doc;
+			}
+			if (inAll && matches(products[doc], names[doc], query) && !page.offer(products[doc])) return;
+		}
+	}
+
+	// First position at or after from whose document is at least doc, galloping then bisecting
+	private static int seek(int[] list, int from, int size, int doc) {
+		int step = 1;
+		int low = from;
+		int high = from;
+		while (high < size && list[high] < doc) {
+			low = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		high = Math.min(high, size);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (list[mid] < doc) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static boolean matches(Product product, String name, String query) {
+		return product != null && (name.contains(query)
+				|| product.getProductID().toLowerCase(Locale.ROOT).contains(query));
+	}
+
+	private void addTrigrams(String text, int doc) {
+		for (int i = 0; i + 3 <= text.length(); i++) {
+			trigrams.computeIfAbsent(trigram(text, i), k -> new Postings()).add(doc);
+		}
+	}
+
+	// The three chars packed into one long, then mixed so Long.hashCode spreads them
+	private static long trigram(String text, int start) {
+		long packed = ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+		return packed * 0x9E3779B97F4A7C15L;
+	}
+
+	private static String normalise(String text) {
+		return text == null ? "" : text.toLowerCase(Locale.ROOT);
+	}
+
+	// Each run of letters and digits in the name
+	private void addWords(String name, int doc) {
+		int start = -1;
+		for (int i = 0; i <= name.length(); i++) {
+			boolean wordChar = i < name.length() && Character.isLetterOrDigit(name.charAt(i));
+			if (wordChar && start < 0) {
+				start = i;
+			} else if (!wordChar && start >= 0) {
+				String word = name.substring(start, i);
+				Postings postings = wordPostings.get(word);
+				if (postings == null) {
+					postings = new Postings();
+					wordPostings.put(word, postings);
+					byWord.put(word, postings);
+				}
+				postings.add(doc);
+				start = -1;
+			}
+		}
+	}
+
+	// Ascending document numbers containing one trigram, appended under the index lock
+	private static class Postings {
+		private volatile int[] docs = new int[4];
+		private volatile int size;
+
+		void add(int doc) {
+			int next = size;
+			if (next > 0 && docs[next - 1] == doc) return;
+			if (next == docs.length) {
+				docs = Arrays.copyOf(docs, next * 2);
+			}
+			docs[next] = doc;
+			size = next + 1;
+		}
+	}
+
+	// Collects results after the offset, skipping products already taken by an earlier tier
+	private static class Page {
+		private final Set<Product> seen = new HashSet<>();
+		private final List<Product> products = new ArrayList<>();
+		private final int limit;
+		private int toSkip;
+
+		Page(int offset, int limit) {
+			this.toSkip = offset;
+			this.limit = limit;
+		}
+
+		// Returns false once the page is full
+		boolean offer(Product product) {
+			if (products.size() >= limit) return false;
+			if (seen.add(product)) {
+				if (toSkip > 0) {
+					toSkip--;
+				} else {
+					products.add(product);
+				}
+			}
+			return products.size() < limit;
+		}
+
+		boolean offerAll(Collection<Integer> candidates, Product[] docs) {
+			if (products.size() >= limit) return false;
+			for (int doc : candidates) {
+				Product product = doc < docs.length ? docs[doc] : null;
+				if (product != null && !offer(product)) return false;
+			}
+			return true;
+		}
+	}
+
+}
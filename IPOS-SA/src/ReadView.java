@@ -0,0 +1,141 @@
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * The order store as it stood at one instant, for reports that read many
+ * orders and totals and need them to agree. Orders placed and payments
+ * recorded after the view was opened are left out, and each order has the
+ * status it had then. Sales totals are summed from the order lines logged
+ * up to that instant.
+ *
+ * A view is a version number and a line count, so it costs nothing to keep
+ * and holds up writers only while it is opened; see VersionClock. Merchants, invoices and stock are not
+ * versioned and are read as they are now.
+ */
+public class ReadView {
+
+	private final OrderManagment_API orders;
+	private final long version;
+	private final int orderLines;
+
+	ReadView(OrderManagment_API orders, long version, int orderLines) {
+		this.orders = orders;
+		this.version = version;
+		this.orderLines = orderLines;
+	}
+
+	public long getVersion() {
+		return this.version;
+	}
+
+	// Number of order lines the view's sales totals are summed from
+	int getOrderLines() {
+		return this.orderLines;
+	}
+
+	// Whether the order had been placed when the view was opened
+	public boolean contains(Order order) {
+		return order.existedAt(version);
+	}
+
+	// The order's status when the view was opened, or null if it had not been placed
+	public OrderStatus getStatus(Order order) {
+		return order.getStatus(version);
+	}
+
+	// The merchant's orders in the order they were placed, read in place
+	public List<Order> getOrderHistory(String merchantID) {
+		HistoryLog.View<Order> history = orders.getOrderHistory(merchantID);
+		// Orders join a history in version order, so any placed since the view are all at its end
+		int visible = history.size();
+		while (visible > 0 && !contains(history.get(visible - 1))) {
+			visible--;
+		}
+		return history.subList(0, visible);
+	}
+
+	/**
+	 * The merchant's orders placed at or after from and before to, oldest day first.
+	 * @param merchantID
+	 * @param from
+	 * @param to
+	 */
+	public List<Order> getOrdersPlaced(String merchantID, Date from, Date to) {
+		return visible(orders.getOrdersPlaced(merchantID, from, to));
+	}
+
+	// The merchant's payments in the order they were recorded, read in place
+	public List<Payment> getPayments(String merchantID) {
+		HistoryLog.View<Payment> history = orders.getPaymentsForMerchant(merchantID);
+		int visible = history.size();
+		while (visible > 0 && history.get(visible - 1).getVersion() > version) {
+			visible--;
+		}
+		return history.subList(0, visible);
+	}
+
+	// Order count and amount charged per month for one merchant, oldest month first, as SalesAggregates keeps them
+	public NavigableMap<YearMonth, long[]> getMonthlySales(String merchantID) {
+		NavigableMap<YearMonth, long[]> months = orders.getSalesAggregates().getMonthlySales(merchantID, version);
+		return months != null ? months : sumMonthlySales(merchantID);
+	}
+
+	// The same summed from the merchant's orders, for a view older than the totals kept
+	private NavigableMap<YearMonth, long[]> sumMonthlySales(String merchantID) {
+		ZoneId zone = ZoneId.systemDefault();
+		// End of the month, orders and pence, keyed by the month's first millisecond so most orders skip the calendar
+		TreeMap<Long, long[]> byStart = new TreeMap<>();
+		for (Order order : getOrderHistory(merchantID)) {
+			long time = order.getOrderDate().getTime();
+			Map.Entry<Long, long[]> entry = byStart.floorEntry(time);
+			long[] totals;
+			if (entry != null && time < entry.getValue()[0]) {
+				totals = entry.getValue();
+			} else {
+				YearMonth month = YearMonth.from(Instant.ofEpochMilli(time).atZone(zone));
+				totals = new long[] {month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli(), 0, 0};
+				byStart.put(month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli(), totals);
+			}
+			totals[1]++;
+			totals[2] += order.getNetTotalPence();
+		}
+
+		NavigableMap<YearMonth, long[]> months = new TreeMap<>();
+		for (Map.Entry<Long, long[]> month : byStart.entrySet()) {
+			months.put(YearMonth.from(Instant.ofEpochMilli(month.getKey()).atZone(zone)),
+					new long[] {month.getValue()[1], month.getValue()[2]});
+		}
+		return months;
+	}
+
+	/**
+	 * Non-cancelled sales placed strictly after start and strictly before end,
+	 * as OrderManagment_API.getTurnover counts them.
+	 * @param start
+	 * @param end
+	 */
+	public SalesAggregates.Turnover getTurnover(Date start, Date end) {
+		return orders.getTurnover(start, end, this);
+	}
+
+	/**
+	 * The same, with the whole days split across the engine.
+	 * @param start
+	 * @param end
+	 * @param engine
+	 */
+	public SalesAggregates.Turnover getTurnover(Date start, Date end, ParallelReportEngine engine) {
+		return orders.getTurnover(start, end, engine, this);
+	}
+
+	private List<Order> visible(List<Order> candidates) {
+		List<Order> result = new ArrayList<>(candidates.size());
+		for (Order order : candidates) {
+			if (contains(order)) result.add(order);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,376 @@
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs report requests as jobs on a bounded pool of worker threads and keeps
+ * the finished reports. Identical requests made while one is running share
+ * that job. A kept report is returned again until the orders, stock or
+ * merchants it was built from change, or the day it was built on ends; an
+ * overdue payments report also lapses when another unpaid invoice falls due.
+ */
+public class ReportService implements Closeable {
+
+	public enum ReportType {
+		MERCHANT(true, false, true),
+		STOCK(false, true, false),
+		ORDER_SUMMARY(true, false, true),
+		SALES_PERFORMANCE(true, false, true),
+		OVERDUE_PAYMENTS(true, false, true),
+		TURNOVER(true, false, false);
+
+		// Which change counts a report of this type depends on
+		private final boolean orders;
+		private final boolean stock;
+		private final boolean merchants;
+
+		ReportType(boolean orders, boolean stock, boolean merchants) {
+			this.orders = orders;
+			this.stock = stock;
+			this.merchants = merchants;
+		}
+	}
+
+	// One report and its parameters; equal requests share a job and a kept report
+	public static final class Request {
+
+		private final ReportType type;
+		private final String merchantID;
+		private final long startMillis;
+		private final long endMillis;
+
+		private Request(ReportType type, String merchantID, long startMillis, long endMillis) {
+			this.type = type;
+			this.merchantID = merchantID;
+			this.startMillis = startMillis;
+			this.endMillis = endMillis;
+		}
+
+		public static Request merchant(String merchantID) {
+			return forMerchant(ReportType.MERCHANT, merchantID);
+		}
+
+		public static Request stock() {
+			return new Request(ReportType.STOCK, null, 0, 0);
+		}
+
+		public static Request orderSummary(String merchantID) {
+			return forMerchant(ReportType.ORDER_SUMMARY, merchantID);
+		}
+
+		public static Request salesPerformance(String merchantID) {
+			return forMerchant(ReportType.SALES_PERFORMANCE, merchantID);
+		}
+
+		public static Request overduePayments() {
+			return new Request(ReportType.OVERDUE_PAYMENTS, null, 0, 0);
+		}
+
+		public static Request turnover(DateRange period) {
+			if (period == null || period.getStart() == null || period.getEnd() == null) {
+				throw new IllegalArgumentException("Turnover period needs a start and an end");
+			}
+			return new Request(ReportType.TURNOVER, null, period.getStart().getTime(), period.getEnd().getTime());
+		}
+
+		private static Request forMerchant(ReportType type, String merchantID) {
+			if (merchantID == null) {
+				throw new IllegalArgumentException("Merchant ID cannot be null");
+			}
+			return new Request(type, merchantID, 0, 0);
+		}
+
+		public ReportType getType() {
+			return this.type;
+		}
+
+		public String getMerchantID() {
+			return this.merchantID;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) return true;
+			if (!(other instanceof Request)) return false;
+			Request request = (Request) other;
+			return type == request.type && Objects.equals(merchantID, request.merchantID)
+					&& startMillis == request.startMillis && endMillis == request.endMillis;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(type, merchantID, startMillis, endMillis);
+		}
+
+		@Override
+		public String toString() {
+			return type + (merchantID == null ? "" : " " + merchantID)
+					+ (type == ReportType.TURNOVER ? " " + startMillis + "-" + endMillis : "");
+		}
+	}
+
+	// A finished report and what it was built from
+	private static class Kept {
+		private final Report report;
+		private final long[] changeCounts;
+		private final long expiresAt;
+
+		Kept(Report report, long[] changeCounts, long expiresAt) {
+			this.report = report;
+			this.changeCounts = changeCounts;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+	public static final int DEFAULT_MAX_KEPT = 10000;
+
+	private final Reporting_API reporting;
+	private final AccountManagement_API accountManagement;
+	private final ProductCatalogue_API productCatalogue;
+	private final OrderManagment_API orderManagement;
+	private final ThreadPoolExecutor workers;
+	private final int maxKept;
+
+	private final Map<Request, Kept> kept = new ConcurrentHashMap<>();
+	private final Map<Request, CompletableFuture<Report>> running = new ConcurrentHashMap<>();
+	private ScheduledExecutorService scheduler;
+
+	public ReportService(Reporting_API reporting,
+						 AccountManagement_API accountManagement,
+						 ProductCatalogue_API productCatalogue,
+						 OrderManagment_API orderManagement) {
+		this(reporting, accountManagement, productCatalogue, orderManagement,
+				Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_KEPT);
+	}
+
+	/**
+	 * 
+	 * @param reporting
+	 * @param accountManagement
+	 * @param productCatalogue
+	 * @param orderManagement
+	 * @param workerCount threads building reports
+	 * @param queueCapacity jobs that may wait for a worker before new ones are refused
+	 * @param maxKept largest number of finished reports kept
+	 */
+	public ReportService(Reporting_API reporting,
+						 AccountManagement_API accountManagement,
+						 ProductCatalogue_API productCatalogue,
+						 OrderManagment_API orderManagement,
+						 int workerCount, int queueCapacity, int maxKept) {
+		if (workerCount < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Workers and queue capacity must be at least 1");
+		}
+		if (maxKept < 0) {
+			throw new IllegalArgumentException("Kept report limit cannot be negative");
+		}
+		this.reporting = reporting;
+		this.accountManagement = accountManagement;
+		this.productCatalogue = productCatalogue;
+		this.orderManagement = orderManagement;
+		this.maxKept = maxKept;
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), daemonThreads("report-worker"));
+	}
+
+	/**
+	 * Returns the kept report if it is still current, joins a running job for
+	 * the same request, or starts a new one. When the queue is full the
+	 * returned future fails with a RejectedExecutionException.
+	 * @param request
+	 */
+	public CompletableFuture<Report> submit(Request request) {
+		if (request == null) {
+			throw new IllegalArgumentException("Report request cannot be null");
+		}
+
+		Kept report = kept.get(request);
+		if (report != null) {
+			if (isCurrent(request, report)) {
+				return CompletableFuture.completedFuture(report.report);
+			}
+			kept.remove(request, report);
+		}
+
+		// Registered before it is queued, so a job that finishes at once still finds itself here
+		CompletableFuture<Report> job = new CompletableFuture<>();
+		CompletableFuture<Report> existing = running.putIfAbsent(request, job);
+		// Callers get their own view, so one cancelling does not cancel the job for the rest
+		if (existing != null) {
+			return existing.copy();
+		}
+		try {
+			workers.execute(() -> run(request, job));
+		} catch (RejectedExecutionException e) {
+			running.remove(request, job);
+			job.completeExceptionally(e);
+		}
+		return job.copy();
+	}
+
+	/**
+	 * Submits the request and waits for its report.
+	 * @param request
+	 */
+	public Report getReport(Request request) {
+		try {
+			return submit(request).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+
+	private void run(Request request, CompletableFuture<Report> job) {
+		try {
+			// Read before building, so a change made while it builds makes it stale
+			long now = System.currentTimeMillis();
+			long[] changeCounts = changeCounts();
+			long expiresAt = expiresAt(request, now);
+
+			Report report = build(request);
+			keep(request, new Kept(report, changeCounts, expiresAt));
+			running.remove(request, job);
+			job.complete(report);
+		} catch (RuntimeException | Error e) {
+			running.remove(request, job);
+			job.completeExceptionally(e);
+		}
+	}
+
+	private Report build(Request request) {
+		switch (request.type) {
+			case MERCHANT: return reporting.generateMerchantReport(request.merchantID);
+			case STOCK: return reporting.generateStockReport();
+			case ORDER_SUMMARY: return reporting.generateOrderSummary(request.merchantID);
+			case SALES_PERFORMANCE: return reporting.generateSalesPerformanceReport(request.merchantID);
+			case OVERDUE_PAYMENTS: return reporting.generateOverduePaymentsReport();
+			case TURNOVER:
+				DateRange period = new DateRange();
+				period.setStart(new Date(request.startMillis));
+				period.setEnd(new Date(request.endMillis));
+				return reporting.generateTurnoverReport(period);
+			default: throw new IllegalArgumentException("Unknown report type: " + request.type);
+		}
+	}
+
+	private void keep(Request request, Kept report) {
+		if (kept.size() >= maxKept) {
+			kept.entrySet().removeIf(entry -> !isCurrent(entry.getKey(), entry.getValue()));
+			if (kept.size() >= maxKept) return;
+		}
+		kept.put(request, report);
+	}
+
+	private long[] changeCounts() {
+		return new long[] {orderManagement.getChangeCount(), productCatalogue.getChangeCount(),
+				accountManagement.getChangeCount()};
+	}
+
+	// Reports show the date they were made and read "now", so none outlives its day
+	private long expiresAt(Request request, long now) {
+		long expiresAt = SalesAggregates.startOfDay(SalesAggregates.epochDay(now) + 1);
+		if (request.type == ReportType.OVERDUE_PAYMENTS) {
+			Date nextDue = orderManagement.getFirstUnpaidDueDateFrom(new Date(now));
+			if (nextDue != null) {
+				expiresAt = Math.min(expiresAt, nextDue.getTime());
+			}
+		}
+		return expiresAt;
+	}
+
+	private boolean isCurrent(Request request, Kept report) {
+		if (System.currentTimeMillis() >= report.expiresAt) return false;
+
+		ReportType type = request.type;
+		long[] counts = report.changeCounts;
+		return (!type.orders || counts[0] == orderManagement.getChangeCount())
+				&& (!type.stock || counts[1] == productCatalogue.getChangeCount())
+				&& (!type.merchants || counts[2] == accountManagement.getChangeCount());
+	}
+
+	// Drops every kept report
+	public void invalidateAll() {
+		kept.clear();
+	}
+
+	public int getKeptCount() {
+		return kept.size();
+	}
+
+	public int getRunningCount() {
+		return running.size();
+	}
+
+	/**
+	 * Builds the stock and overdue payments reports every night at the given
+	 * local time, so the first requests of the day find them ready.
+	 * @param time
+	 */
+	public synchronized void scheduleNightly(LocalTime time) {
+		if (time == null) {
+			throw new IllegalArgumentException("Time cannot be null");
+		}
+		if (scheduler != null) {
+			throw new IllegalStateException("Nightly reports are already scheduled");
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("report-scheduler"));
+		scheduleNext(time);
+	}
+
+	// Worked out afresh each night so the run stays at the same local time across clock changes
+	private synchronized void scheduleNext(LocalTime time) {
+		if (scheduler == null || scheduler.isShutdown()) return;
+
+		ZonedDateTime now = ZonedDateTime.now();
+		ZonedDateTime next = now.with(time);
+		if (!next.isAfter(now)) {
+			next = LocalDate.now().plusDays(1).atTime(time).atZone(now.getZone());
+		}
+		long delay = next.toInstant().toEpochMilli() - now.toInstant().toEpochMilli();
+		scheduler.schedule(() -> {
+			pregenerate(Request.stock());
+			pregenerate(Request.overduePayments());
+			scheduleNext(time);
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void pregenerate(Request request) {
+		submit(request).whenComplete((report, failure) -> {
+			if (failure != null) {
+				System.err.println("Nightly " + request + " report failed: " + failure.getMessage());
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+			}
+		}
+		workers.shutdownNow();
+		for (CompletableFuture<Report> job : running.values()) {
+			job.cancel(false);
+		}
+		running.clear();
+	}
+
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+}
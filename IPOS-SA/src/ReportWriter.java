@@ -0,0 +1,173 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Writes report text straight to a Writer, one column at a time. Padding and
+ * two-decimal money values, in pounds or pence, match String.format's "%-Ns",
+ * "%-Nd" and "%-N.2f" output without creating a Formatter or intermediate
+ * strings per cell.
+ */
+public class ReportWriter implements Closeable, Flushable {
+
+	// Larger values are left to Formatter
+	private static final double MAX_FAST_MONEY = 1e9;
+
+	private final Writer out;
+	private final char decimalSeparator;
+	private final boolean asciiDigits;
+	// Scratch space for one number, reused for every cell
+	private final char[] digits = new char[32];
+
+	public ReportWriter(Writer out) {
+		this.out = out;
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+		this.decimalSeparator = symbols.getDecimalSeparator();
+		this.asciiDigits = symbols.getZeroDigit() == '0';
+	}
+
+	public ReportWriter(OutputStream out) {
+		this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+
+	public ReportWriter(WritableByteChannel channel) {
+		this(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8)));
+	}
+
+	public ReportWriter append(String text) throws IOException {
+		out.write(text == null ? "null" : text);
+		return this;
+	}
+
+	public ReportWriter append(char c) throws IOException {
+		out.write(c);
+		return this;
+	}
+
+	public ReportWriter append(long value) throws IOException {
+		out.write(digits, 0, formatLong(value));
+		return this;
+	}
+
+	public ReportWriter append(Object value) throws IOException {
+		return append(String.valueOf(value));
+	}
+
+	public ReportWriter newLine() throws IOException {
+		out.write('\n');
+		return this;
+	}
+
+	// Same as String.format("%-" + width + "s", text)
+	public ReportWriter left(String text, int width) throws IOException {
+		String value = text == null ? "null" : text;
+		out.write(value);
+		return pad(width - value.length());
+	}
+
+	// Same as String.format("%-" + width + "d", value)
+	public ReportWriter left(long value, int width) throws IOException {
+		int length = formatLong(value);
+		out.write(digits, 0, length);
+		return pad(width - length);
+	}
+
+	// Same as String.format("%.2f", value)
+	public ReportWriter money(double value) throws IOException {
+		return money(value, 0);
+	}
+
+	// Same as String.format("%-" + width + ".2f", value)
+	public ReportWriter money(double value, int width) throws IOException {
+		int length = formatMoney(value);
+		if (length < 0) {
+			String slow = String.format("%.2f", value);
+			out.write(slow);
+			return pad(width - slow.length());
+		}
+		out.write(digits, 0, length);
+		return pad(width - length);
+	}
+
+	// Same as String.format("%.2f", pounds) for an amount in pence
+	public ReportWriter pence(long pence) throws IOException {
+		return pence(pence, 0);
+	}
+
+	// Same as String.format("%-" + width + ".2f", pounds) for an amount in pence
+	public ReportWriter pence(long pence, int width) throws IOException {
+		if (!asciiDigits) {
+			String slow = String.format("%.2f", BigDecimal.valueOf(pence, 2));
+			out.write(slow);
+			return pad(width - slow.length());
+		}
+		int length = moveToStart(Money.format(pence, decimalSeparator, digits));
+		out.write(digits, 0, length);
+		return pad(width - length);
+	}
+
+	private ReportWriter pad(int spaces) throws IOException {
+		for (int i = 0; i < spaces; i++) {
+			out.write(' ');
+		}
+		return this;
+	}
+
+	// Writes the value into digits and returns its length
+	private int formatLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			String text = Long.toString(value);
+			text.getChars(0, text.length(), digits, 0);
+			return text.length();
+		}
+		boolean negative = value < 0;
+		long remaining = Math.abs(value);
+		int pos = digits.length;
+		do {
+			digits[--pos] = (char) ('0' + remaining % 10);
+			remaining /= 10;
+		} while (remaining != 0);
+		if (negative) digits[--pos] = '-';
+		return moveToStart(pos);
+	}
+
+	/**
+	 * Writes the value to two decimal places into digits and returns its
+	 * length, or -1 when only Formatter can produce the exact text. Rounding
+	 * is Money.ofPounds, which matches Formatter's half-up rounding of the
+	 * shortest decimal form of the double.
+	 */
+	private int formatMoney(double value) {
+		if (!asciiDigits || Double.isNaN(value) || Double.isInfinite(value)) return -1;
+
+		double magnitude = Math.abs(value);
+		if (magnitude >= MAX_FAST_MONEY) return -1;
+
+		int pos = Money.format(Money.ofPounds(magnitude), decimalSeparator, digits);
+		// Formatter keeps the sign of negative values that round to zero
+		if (Double.compare(value, 0.0) < 0) digits[--pos] = '-';
+		return moveToStart(pos);
+	}
+
+	// Shifts the text that ends at the end of digits to the start and returns its length
+	private int moveToStart(int pos) {
+		int length = digits.length - pos;
+		System.arraycopy(digits, pos, digits, 0, length);
+		return length;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
@@ -1,13 +1,23 @@
 // Reporting_API.java
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.text.SimpleDateFormat;
+import java.time.YearMonth;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class Reporting_API implements IReporting {
 
 	private AccountManagement_API accountManagement;
 	private OrderManagment_API orderManagement;
 	private ProductCatalogue_API productCatalogue;
+	// Splits the all-merchant reports across threads
+	private ParallelReportEngine reportEngine = new ParallelReportEngine();
+
+	// Writes the body of one report
+	private interface ReportBody {
+		void write(ReportWriter out) throws IOException;
+	}
 
 	public Reporting_API(AccountManagement_API accountManagement,
 						 OrderManagment_API orderManagement,
@@ -17,227 +27,225 @@ public class Reporting_API implements IReporting {
 		this.productCatalogue = productCatalogue;
 	}
 
+	public void setReportEngine(ParallelReportEngine reportEngine) {
+		if (reportEngine == null) {
+			throw new IllegalArgumentException("Report engine cannot be null");
+		}
+		this.reportEngine = reportEngine;
+	}
+
 	@Override
 	public Report generateMerchantReport(String merchantID) {
-		if (merchantID == null) {
-			throw new IllegalArgumentException("Merchant ID cannot be null");
-		}
+		Merchant merchant = requireMerchant(merchantID);
+		return render("Merchant Report - " + merchant.getName(), out -> writeMerchantReport(merchant, out));
+	}
 
-		Merchant merchant = accountManagement.getMerchant(merchantID);
-		if (merchant == null) {
-			throw new IllegalArgumentException("Merchant not found: " + merchantID);
-		}
+	@Override
+	public void writeMerchantReport(String merchantID, ReportWriter out) throws IOException {
+		writeMerchantReport(requireMerchant(merchantID), out);
+		out.flush();
+	}
+
+	private void writeMerchantReport(Merchant merchant, ReportWriter out) throws IOException {
+		String merchantID = merchant.getMerchantID();
+		out.append("MERCHANT REPORT\n");
+		out.append("================\n\n");
+		out.append("Merchant ID: ").append(merchant.getMerchantID()).newLine();
+		out.append("Name: ").append(merchant.getName()).newLine();
+		out.append("Address: ").append(merchant.getAddress()).newLine();
+		out.append("Credit Limit: £").pence(merchant.getCreditLimitPence()).newLine();
+		out.append("Current Balance: £").pence(merchant.getBalancePence()).newLine();
+		out.append("Status: ").append(merchant.getStatus()).append("\n\n");
 
-		StringBuilder content = new StringBuilder();
-		content.append("MERCHANT REPORT\n");
-		content.append("================\n\n");
-		content.append("Merchant ID: ").append(merchant.getMerchantID()).append("\n");
-		content.append("Name: ").append(merchant.getName()).append("\n");
-		content.append("Address: ").append(merchant.getAddress()).append("\n");
-		content.append("Credit Limit: £").append(String.format("%.2f", merchant.getCreditLimit())).append("\n");
-		content.append("Current Balance: £").append(String.format("%.2f", merchant.getBalance())).append("\n");
-		content.append("Status: ").append(merchant.getStatus()).append("\n\n");
+		// Orders, payments and their totals all as of one instant
+		ReadView view = orderManagement.openReadView();
 
 		// Add order history
-		content.append("ORDER HISTORY:\n");
-		content.append("--------------\n");
-		Order[] orders = orderManagement.orderHistory(merchantID);
-		if (orders.length == 0) {
-			content.append("No orders found.\n");
+		out.append("ORDER HISTORY:\n");
+		out.append("--------------\n");
+		List<Order> orders = view.getOrderHistory(merchantID);
+		if (orders.isEmpty()) {
+			out.append("No orders found.\n");
 		} else {
-			double totalOrderValue = 0;
+			// Amounts charged after discount, as on the balance and invoices
+			long ordersTotal = 0;
 			for (Order order : orders) {
-				content.append("Order ID: ").append(order.getOrderID()).append("\n");
-				content.append("  Date: ").append(order.getOrderDate()).append("\n");
-				content.append("  Status: ").append(order.getStatus()).append("\n");
-				double orderTotal = orderManagement.calculateOrderTotal(order.getOrderID());
-				content.append("  Total: £").append(String.format("%.2f", orderTotal)).append("\n");
-				totalOrderValue += orderTotal;
+				long total = order.getNetTotalPence();
+				out.append("Order ID: ").append(order.getOrderID()).newLine();
+				out.append("  Date: ").append(order.getOrderDate()).newLine();
+				out.append("  Status: ").append(view.getStatus(order)).newLine();
+				out.append("  Total: £").pence(total).newLine();
+				ordersTotal += total;
 			}
-			content.append("\nTotal Value of All Orders: £").append(String.format("%.2f", totalOrderValue)).append("\n");
+			out.append("\nTotal Value of All Orders: £").pence(ordersTotal).newLine();
 		}
 
 		// Add payment history
-		content.append("\nPAYMENT HISTORY:\n");
-		content.append("----------------\n");
-		List<Payment> payments = orderManagement.getPaymentsForMerchant(merchantID);
+		out.append("\nPAYMENT HISTORY:\n");
+		out.append("----------------\n");
+		List<Payment> payments = view.getPayments(merchantID);
 		if (payments.isEmpty()) {
-			content.append("No payments recorded.\n");
+			out.append("No payments recorded.\n");
 		} else {
-			double totalPayments = 0;
+			long paymentsTotal = 0;
 			for (Payment payment : payments) {
-				content.append("Payment ID: ").append(payment.getPaymentID()).append("\n");
-				content.append("  Date: ").append(payment.getDate()).append("\n");
-				content.append("  Amount: £").append(String.format("%.2f", payment.getAmount())).append("\n");
-				totalPayments += payment.getAmount();
+				out.append("Payment ID: ").append(payment.getPaymentID()).newLine();
+				out.append("  Date: ").append(payment.getDate()).newLine();
+				out.append("  Amount: £").pence(payment.getAmountPence()).newLine();
+				paymentsTotal += payment.getAmountPence();
 			}
-			content.append("\nTotal Payments: £").append(String.format("%.2f", totalPayments)).append("\n");
+			out.append("\nTotal Payments: £").pence(paymentsTotal).newLine();
 		}
-
-		Report report = new Report();
-		report.setTitle("Merchant Report - " + merchant.getName());
-		report.setGeneratedOn(new Date());
-		report.setContent(content.toString());
-
-		return report;
 	}
 
 	@Override
 	public Report generateStockReport() {
-		StringBuilder content = new StringBuilder();
-		content.append("STOCK REPORT\n");
-		content.append("============\n\n");
+		return render("Stock Report", this::writeStockReportBody);
+	}
+
+	@Override
+	public void writeStockReport(ReportWriter out) throws IOException {
+		writeStockReportBody(out);
+		out.flush();
+	}
+
+	private void writeStockReportBody(ReportWriter out) throws IOException {
+		out.append("STOCK REPORT\n");
+		out.append("============\n\n");
 
 		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-		content.append("Generated: ").append(dateFormat.format(new Date())).append("\n\n");
+		out.append("Generated: ").append(dateFormat.format(new Date())).append("\n\n");
 
 		Product[] products = productCatalogue.listProducts();
 
 		// Sort by product ID
 		Arrays.sort(products, (p1, p2) -> p1.getProductID().compareTo(p2.getProductID()));
 
-		content.append(String.format("%-10s %-30s %-10s %-15s %-15s %-15s\n",
-				"Item ID", "Description", "Price", "Stock Level", "Min Stock", "Status"));
-		content.append(String.format("%-10s %-30s %-10s %-15s %-15s %-15s\n",
-				"-------", "-----------", "-----", "-----------", "---------", "------"));
+		out.left("Item ID", 10).append(' ').left("Description", 30).append(' ').left("Price", 10).append(' ')
+				.left("Stock Level", 15).append(' ').left("Min Stock", 15).append(' ').left("Status", 15).newLine();
+		out.left("-------", 10).append(' ').left("-----------", 30).append(' ').left("-----", 10).append(' ')
+				.left("-----------", 15).append(' ').left("---------", 15).append(' ').left("------", 15).newLine();
 
 		int totalItems = 0;
-		int lowStockCount = 0;
-		double totalStockValue = 0;
+		Map<Product, Integer> lowStock = new LinkedHashMap<>();
+		long totalStockValue = 0;
 
 		for (Product product : products) {
-			String status = product.getStockLevel() < product.getMinimumStockLevel() ?
+			// Read once so the row, the count and the recommendations agree
+			int stockLevel = product.getStockLevel();
+			String status = stockLevel < product.getMinimumStockLevel() ?
 					"LOW STOCK" : "OK";
-			if ("LOW STOCK".equals(status)) lowStockCount++;
+			if ("LOW STOCK".equals(status)) lowStock.put(product, stockLevel);
 
-			content.append(String.format("%-10s %-30s £%-9.2f %-15d %-15d %-15s\n",
-					product.getProductID(),
-					truncate(product.getName(), 28),
-					product.getPrice(),
-					product.getStockLevel(),
-					product.getMinimumStockLevel(),
-					status));
+			out.left(product.getProductID(), 10).append(' ')
+					.left(truncate(product.getName(), 28), 30).append(" £")
+					.pence(product.getPricePence(), 9).append(' ')
+					.left(stockLevel, 15).append(' ')
+					.left(product.getMinimumStockLevel(), 15).append(' ')
+					.left(status, 15).newLine();
 
 			totalItems++;
-			totalStockValue += product.getPrice() * product.getStockLevel();
+			totalStockValue += Money.times(product.getPricePence(), stockLevel);
 		}
 
-		content.append("\n");
-		content.append("SUMMARY:\n");
-		content.append("--------\n");
-		content.append("Total Products: ").append(totalItems).append("\n");
-		content.append("Low Stock Items: ").append(lowStockCount).append("\n");
-		content.append("Total Stock Value: £").append(String.format("%.2f", totalStockValue)).append("\n");
+		out.newLine();
+		out.append("SUMMARY:\n");
+		out.append("--------\n");
+		out.append("Total Products: ").append(totalItems).newLine();
+		out.append("Low Stock Items: ").append(lowStock.size()).newLine();
+		out.append("Total Stock Value: £").pence(totalStockValue).newLine();
 
 		// Add recommended orders for low stock items
-		if (lowStockCount > 0) {
-			content.append("\nRECOMMENDED ORDERS (Low Stock Items):\n");
-			content.append("-------------------------------------\n");
-			content.append(String.format("%-10s %-30s %-15s %-20s\n",
-					"Item ID", "Description", "Current Stock", "Recommended Order"));
-
-			for (Product product : products) {
-				if (product.getStockLevel() < product.getMinimumStockLevel()) {
-					int recommendedOrder = (int)(product.getMinimumStockLevel() * 1.1) - product.getStockLevel();
-					content.append(String.format("%-10s %-30s %-15d %-20d\n",
-							product.getProductID(),
-							truncate(product.getName(), 28),
-							product.getStockLevel(),
-							Math.max(0, recommendedOrder)));
-				}
+		if (!lowStock.isEmpty()) {
+			out.append("\nRECOMMENDED ORDERS (Low Stock Items):\n");
+			out.append("-------------------------------------\n");
+			out.left("Item ID", 10).append(' ').left("Description", 30).append(' ')
+					.left("Current Stock", 15).append(' ').left("Recommended Order", 20).newLine();
+
+			for (Map.Entry<Product, Integer> low : lowStock.entrySet()) {
+				Product product = low.getKey();
+				int stockLevel = low.getValue();
+				int recommendedOrder = (int)(product.getMinimumStockLevel() * 1.1) - stockLevel;
+				out.left(product.getProductID(), 10).append(' ')
+						.left(truncate(product.getName(), 28), 30).append(' ')
+						.left(stockLevel, 15).append(' ')
+						.left(Math.max(0, recommendedOrder), 20).newLine();
 			}
 		}
-
-		Report report = new Report();
-		report.setTitle("Stock Report");
-		report.setGeneratedOn(new Date());
-		report.setContent(content.toString());
-
-		return report;
 	}
 
 	@Override
 	public Report generateOrderSummary(String merchantID) {
-		if (merchantID == null) {
-			throw new IllegalArgumentException("Merchant ID cannot be null");
-		}
+		Merchant merchant = requireMerchant(merchantID);
+		return render("Order Summary - " + merchant.getName(), out -> writeOrderSummary(merchant, out));
+	}
 
-		Merchant merchant = accountManagement.getMerchant(merchantID);
-		if (merchant == null) {
-			throw new IllegalArgumentException("Merchant not found: " + merchantID);
-		}
+	@Override
+	public void writeOrderSummary(String merchantID, ReportWriter out) throws IOException {
+		writeOrderSummary(requireMerchant(merchantID), out);
+		out.flush();
+	}
 
-		StringBuilder content = new StringBuilder();
-		content.append("ORDER SUMMARY\n");
-		content.append("=============\n\n");
+	private void writeOrderSummary(Merchant merchant, ReportWriter out) throws IOException {
+		out.append("ORDER SUMMARY\n");
+		out.append("=============\n\n");
 
 		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-		content.append("Merchant: ").append(merchant.getName()).append("\n");
-		content.append("Account: ").append(merchant.getMerchantID()).append("\n");
-		content.append("Generated: ").append(dateFormat.format(new Date())).append("\n\n");
+		out.append("Merchant: ").append(merchant.getName()).newLine();
+		out.append("Account: ").append(merchant.getMerchantID()).newLine();
+		out.append("Generated: ").append(dateFormat.format(new Date())).append("\n\n");
 
-		content.append("CONTACT DETAILS:\n");
-		content.append("----------------\n");
-		content.append(merchant.getAddress()).append("\n\n");
+		out.append("CONTACT DETAILS:\n");
+		out.append("----------------\n");
+		out.append(merchant.getAddress()).append("\n\n");
 
-		content.append("ORDER HISTORY SUMMARY:\n");
-		content.append("----------------------\n");
+		out.append("ORDER HISTORY SUMMARY:\n");
+		out.append("----------------------\n");
 
-		Order[] orders = orderManagement.orderHistory(merchantID);
-
-		// Filter orders for current month
+		// Orders placed this month, read from the date index
 		Calendar cal = Calendar.getInstance();
-		int currentMonth = cal.get(Calendar.MONTH);
-		int currentYear = cal.get(Calendar.YEAR);
-
-		List<Order> currentMonthOrders = Arrays.stream(orders)
-				.filter(o -> {
-					cal.setTime(o.getOrderDate());
-					return cal.get(Calendar.MONTH) == currentMonth &&
-							cal.get(Calendar.YEAR) == currentYear;
-				})
-				.collect(Collectors.toList());
-
-		content.append(String.format("%-10s %-12s %-12s %-12s %-15s\n",
-				"Order ID", "Date", "Amount", "Status", "Payment Status"));
-
-		double totalAmount = 0;
+		cal.set(Calendar.DAY_OF_MONTH, 1);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		Date monthStart = cal.getTime();
+		cal.add(Calendar.MONTH, 1);
+		ReadView view = orderManagement.openReadView();
+		List<Order> orders = view.getOrdersPlaced(merchant.getMerchantID(), monthStart, cal.getTime());
+
+		out.left("Order ID", 10).append(' ').left("Date", 12).append(' ').left("Amount", 12).append(' ')
+				.left("Status", 12).append(' ').left("Payment Status", 15).newLine();
+
+		long totalAmount = 0;
 		int pendingCount = 0;
 
-		for (Order order : currentMonthOrders) {
-			double amount = orderManagement.calculateOrderTotal(order.getOrderID());
-			String paymentStatus = getPaymentStatus(order, merchant);
+		for (Order order : orders) {
+			// Charged after discount, as invoiced
+			long amount = order.getNetTotalPence();
+			OrderStatus status = view.getStatus(order);
+			String paymentStatus = getPaymentStatus(status, merchant);
 
-			content.append(String.format("%-10s %-12s £%-11.2f %-12s %-15s\n",
-					order.getOrderID(),
-					dateFormat.format(order.getOrderDate()),
-					amount,
-					order.getStatus(),
-					paymentStatus));
+			out.left(order.getOrderID(), 10).append(' ')
+					.left(dateFormat.format(order.getOrderDate()), 12).append(" £")
+					.pence(amount, 11).append(' ')
+					.left(String.valueOf(status), 12).append(' ')
+					.left(paymentStatus, 15).newLine();
 
 			totalAmount += amount;
 			if ("PENDING".equals(paymentStatus)) pendingCount++;
 		}
 
-		content.append("\n");
-		content.append(String.format("%-10s %-12s £%-11.2f\n",
-				"TOTAL:", "", totalAmount));
-		content.append("Pending Payments: ").append(pendingCount).append("\n");
-
-		Report report = new Report();
-		report.setTitle("Order Summary - " + merchant.getName());
-		report.setGeneratedOn(new Date());
-		report.setContent(content.toString());
-
-		return report;
+		out.newLine();
+		out.left("TOTAL:", 10).append(' ').left("", 12).append(" £").pence(totalAmount, 11).newLine();
+		out.append("Pending Payments: ").append(pendingCount).newLine();
 	}
 
-	private String getPaymentStatus(Order order, Merchant merchant) {
+	private String getPaymentStatus(OrderStatus status, Merchant merchant) {
 		// Simplified payment status logic
-		double orderTotal = orderManagement.calculateOrderTotal(order.getOrderID());
-		if ("DISPATCHED".equals(order.getStatus()) || "DELIVERED".equals(order.getStatus())) {
+		if (status != null && status.isSent()) {
 			// Check if paid based on merchant balance
-			if (merchant.getBalance() <= 0) {
+			if (merchant.getBalancePence() <= 0) {
 				return "PAID";
 			} else {
 				return "PENDING";
@@ -248,198 +256,206 @@ public class Reporting_API implements IReporting {
 
 	@Override
 	public Report generateSalesPerformanceReport(String merchantID) {
-		if (merchantID == null) {
-			throw new IllegalArgumentException("Merchant ID cannot be null");
-		}
+		Merchant merchant = requireMerchant(merchantID);
+		return render("Sales Performance - " + merchant.getName(), out -> writeSalesPerformanceReport(merchant, out));
+	}
 
-		Merchant merchant = accountManagement.getMerchant(merchantID);
-		if (merchant == null) {
-			throw new IllegalArgumentException("Merchant not found: " + merchantID);
-		}
+	@Override
+	public void writeSalesPerformanceReport(String merchantID, ReportWriter out) throws IOException {
+		writeSalesPerformanceReport(requireMerchant(merchantID), out);
+		out.flush();
+	}
 
-		StringBuilder content = new StringBuilder();
-		content.append("SALES PERFORMANCE REPORT\n");
-		content.append("========================\n\n");
+	private void writeSalesPerformanceReport(Merchant merchant, ReportWriter out) throws IOException {
+		out.append("SALES PERFORMANCE REPORT\n");
+		out.append("========================\n\n");
 
 		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-		content.append("Merchant: ").append(merchant.getName()).append("\n");
-		content.append("Generated: ").append(dateFormat.format(new Date())).append("\n\n");
+		out.append("Merchant: ").append(merchant.getName()).newLine();
+		out.append("Generated: ").append(dateFormat.format(new Date())).append("\n\n");
 
-		Order[] orders = orderManagement.orderHistory(merchantID);
-
-		// Group orders by month
-		Map<String, List<Order>> ordersByMonth = new HashMap<>();
+		// Monthly totals as of one view, so counts and amounts agree; rows stay sorted by month name
+		Map<String, long[]> salesByMonth = new TreeMap<>();
 		SimpleDateFormat monthFormat = new SimpleDateFormat("MMMM yyyy");
+		Calendar monthStart = Calendar.getInstance();
+		monthStart.clear();
 
-		for (Order order : orders) {
-			String month = monthFormat.format(order.getOrderDate());
-			ordersByMonth.computeIfAbsent(month, k -> new ArrayList<>()).add(order);
+		for (Map.Entry<YearMonth, long[]> month :
+				orderManagement.openReadView().getMonthlySales(merchant.getMerchantID()).entrySet()) {
+			monthStart.set(month.getKey().getYear(), month.getKey().getMonthValue() - 1, 1);
+			salesByMonth.put(monthFormat.format(monthStart.getTime()), month.getValue());
 		}
 
-		content.append(String.format("%-15s %-15s %-15s %-15s\n",
-				"Month", "Orders", "Total Sales", "Avg Order Value"));
+		out.left("Month", 15).append(' ').left("Orders", 15).append(' ').left("Total Sales", 15).append(' ')
+				.left("Avg Order Value", 15).newLine();
 
-		List<String> months = new ArrayList<>(ordersByMonth.keySet());
-		Collections.sort(months);
-
-		double totalSales = 0;
+		long totalSales = 0;
 		int totalOrders = 0;
 
-		for (String month : months) {
-			List<Order> monthOrders = ordersByMonth.get(month);
-			double monthTotal = 0;
-			for (Order order : monthOrders) {
-				monthTotal += orderManagement.calculateOrderTotal(order.getOrderID());
-			}
-			double avgOrder = monthOrders.isEmpty() ? 0 : monthTotal / monthOrders.size();
+		for (Map.Entry<String, long[]> month : salesByMonth.entrySet()) {
+			int monthOrders = (int) month.getValue()[0];
+			long monthTotal = month.getValue()[1];
+			long avgOrder = Money.divide(monthTotal, monthOrders);
 
-			content.append(String.format("%-15s %-15d £%-14.2f £%-14.2f\n",
-					month, monthOrders.size(), monthTotal, avgOrder));
+			out.left(month.getKey(), 15).append(' ')
+					.left(monthOrders, 15).append(" £")
+					.pence(monthTotal, 14).append(" £")
+					.pence(avgOrder, 14).newLine();
 
 			totalSales += monthTotal;
-			totalOrders += monthOrders.size();
+			totalOrders += monthOrders;
 		}
 
-		content.append("\n");
-		content.append("TOTALS:\n");
-		content.append("-------\n");
-		content.append("Total Orders: ").append(totalOrders).append("\n");
-		content.append("Total Sales: £").append(String.format("%.2f", totalSales)).append("\n");
-		content.append("Average Order Value: £").append(
-				totalOrders == 0 ? "0.00" : String.format("%.2f", totalSales / totalOrders)).append("\n");
-
-		Report report = new Report();
-		report.setTitle("Sales Performance - " + merchant.getName());
-		report.setGeneratedOn(new Date());
-		report.setContent(content.toString());
-
-		return report;
+		out.newLine();
+		out.append("TOTALS:\n");
+		out.append("-------\n");
+		out.append("Total Orders: ").append(totalOrders).newLine();
+		out.append("Total Sales: £").pence(totalSales).newLine();
+		out.append("Average Order Value: £");
+		if (totalOrders == 0) {
+			out.append("0.00");
+		} else {
+			out.pence(Money.divide(totalSales, totalOrders));
+		}
+		out.newLine();
 	}
 
 	// Additional reports required for IPOS-SA
 	public Report generateOverduePaymentsReport() {
-		StringBuilder content = new StringBuilder();
-		content.append("OVERDUE PAYMENTS REPORT\n");
-		content.append("=======================\n\n");
+		return render("Overdue Payments Report", this::writeOverduePaymentsReportBody);
+	}
+
+	public void writeOverduePaymentsReport(ReportWriter out) throws IOException {
+		writeOverduePaymentsReportBody(out);
+		out.flush();
+	}
+
+	private void writeOverduePaymentsReportBody(ReportWriter out) throws IOException {
+		out.append("OVERDUE PAYMENTS REPORT\n");
+		out.append("=======================\n\n");
 
 		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-		content.append("Generated: ").append(dateFormat.format(new Date())).append("\n\n");
+		out.append("Generated: ").append(dateFormat.format(new Date())).append("\n\n");
 
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.DAY_OF_MONTH, -30); // 30 days overdue threshold
-
-		List<Merchant> allMerchants = accountManagement.getAllMerchants();
-		List<Merchant> overdueMerchants = new ArrayList<>();
-
-		for (Merchant merchant : allMerchants) {
-			if (merchant.getBalance() > 0) {
-				// Check if any invoices are overdue
-				List<Invoice> invoices = orderManagement.getInvoicesForMerchant(
-						merchant.getMerchantID());
-				for (Invoice invoice : invoices) {
-					if (invoice.getDueDate().before(new Date()) &&
-							!"PAID".equals(invoice.getStatus())) {
-						overdueMerchants.add(merchant);
-						break;
+		// Merchants with at least one unpaid invoice past its due date
+		Set<String> merchantsWithOverdueInvoices = new HashSet<>();
+		for (Invoice invoice : orderManagement.getUnpaidInvoicesDueBefore(new Date())) {
+			merchantsWithOverdueInvoices.add(invoice.getMerchantID());
+		}
+
+		// Each slice of merchants renders its own rows; slices are joined in merchant order
+		List<String> rows = reportEngine.mapSlices(accountManagement.getAllMerchants(), merchants -> {
+			StringWriter text = new StringWriter();
+			ReportWriter slice = new ReportWriter(text);
+			try {
+				for (Merchant merchant : merchants) {
+					if (merchant.getBalancePence() > 0 &&
+							merchantsWithOverdueInvoices.contains(merchant.getMerchantID())) {
+						writeOverdueMerchant(merchant, slice);
 					}
 				}
+				slice.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
-		}
+			return text.toString();
+		});
 
-		if (overdueMerchants.isEmpty()) {
-			content.append("No overdue payments found.\n");
+		if (rows.stream().allMatch(String::isEmpty)) {
+			out.append("No overdue payments found.\n");
 		} else {
-			content.append(String.format("%-15s %-30s %-15s %-15s\n",
-					"Merchant ID", "Name", "Balance", "Status"));
-
-			for (Merchant merchant : overdueMerchants) {
-				content.append(String.format("%-15s %-30s £%-14.2f %-15s\n",
-						merchant.getMerchantID(),
-						truncate(merchant.getName(), 28),
-						merchant.getBalance(),
-						merchant.getStatus()));
+			out.left("Merchant ID", 15).append(' ').left("Name", 30).append(' ').left("Balance", 15).append(' ')
+					.left("Status", 15).newLine();
+
+			for (String slice : rows) {
+				out.append(slice);
 			}
 		}
 
-		Report report = new Report();
-		report.setTitle("Overdue Payments Report");
-		report.setGeneratedOn(new Date());
-		report.setContent(content.toString());
+		// Unpaid invoice totals by how far past their due date they are
+		out.append("\nOUTSTANDING BALANCE AGEING:\n");
+		out.append("---------------------------\n");
+		long[] ageing = orderManagement.getSalesAggregates().getOutstandingAgeing(new Date());
+		for (int i = 0; i < ageing.length; i++) {
+			out.left(SalesAggregates.AGEING_LABELS[i], 15).append(" £").pence(ageing[i]).newLine();
+		}
+	}
 
-		return report;
+	private void writeOverdueMerchant(Merchant merchant, ReportWriter out) throws IOException {
+		out.left(merchant.getMerchantID(), 15).append(' ')
+				.left(truncate(merchant.getName(), 28), 30).append(" £")
+				.pence(merchant.getBalancePence(), 14).append(' ')
+				.left(String.valueOf(merchant.getStatus()), 15).newLine();
 	}
 
 	public Report generateTurnoverReport(DateRange period) {
-		StringBuilder content = new StringBuilder();
-		content.append("TURNOVER REPORT\n");
-		content.append("===============\n\n");
-
-		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-		content.append("Period: ").append(dateFormat.format(period.getStart()))
-				.append(" to ").append(dateFormat.format(period.getEnd())).append("\n\n");
+		return render("Turnover Report", out -> writeTurnoverReportBody(period, out));
+	}
 
-		// Get all orders within period
-		List<Order> ordersInPeriod = new ArrayList<>();
-		Product[] allProducts = productCatalogue.listProducts();
+	public void writeTurnoverReport(DateRange period, ReportWriter out) throws IOException {
+		writeTurnoverReportBody(period, out);
+		out.flush();
+	}
 
-		// Calculate sales
-		Map<String, Integer> quantitySold = new HashMap<>();
-		Map<String, Double> revenueByProduct = new HashMap<>();
-		double totalRevenue = 0;
-		int totalItemsSold = 0;
+	private void writeTurnoverReportBody(DateRange period, ReportWriter out) throws IOException {
+		out.append("TURNOVER REPORT\n");
+		out.append("===============\n\n");
 
-		for (Merchant merchant : accountManagement.getAllMerchants()) {
-			Order[] orders = orderManagement.orderHistory(merchant.getMerchantID());
-			for (Order order : orders) {
-				if (order.getOrderDate().after(period.getStart()) &&
-						order.getOrderDate().before(period.getEnd()) &&
-						!"CANCELLED".equals(order.getStatus())) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+		out.append("Period: ").append(dateFormat.format(period.getStart()))
+				.append(" to ").append(dateFormat.format(period.getEnd())).append("\n\n");
 
-					ordersInPeriod.add(order);
+		// Orders strictly inside the period, as of one instant; whole days are summed from the order lines in the view,
+		// a run of chunks per slice
+		SalesAggregates.Turnover turnover = orderManagement.openReadView()
+				.getTurnover(period.getStart(), period.getEnd(), reportEngine);
 
-					// Calculate items sold
-					for (OrderItem item : order.getItems()) {
-						String productID = item.getProductID();
-						int qty = item.getQuantity();
-						double itemRevenue = qty * item.getUnitPrice();
+		out.left("Item ID", 10).append(' ').left("Description", 30).append(' ').left("Quantity Sold", 15).append(' ')
+				.left("Revenue", 15).newLine();
 
-						quantitySold.put(productID,
-								quantitySold.getOrDefault(productID, 0) + qty);
-						revenueByProduct.put(productID,
-								revenueByProduct.getOrDefault(productID, 0.0) + itemRevenue);
+		for (Map.Entry<String, long[]> sales : turnover.getProducts().entrySet()) {
+			Product product = productCatalogue.getProduct(sales.getKey());
+			long qty = sales.getValue()[0];
 
-						totalItemsSold += qty;
-						totalRevenue += itemRevenue;
-					}
-				}
+			if (product != null && qty > 0) {
+				out.left(product.getProductID(), 10).append(' ')
+						.left(truncate(product.getName(), 28), 30).append(' ')
+						.left(qty, 15).append(" £")
+						.pence(sales.getValue()[1], 14).newLine();
 			}
 		}
 
-		content.append(String.format("%-10s %-30s %-15s %-15s\n",
-				"Item ID", "Description", "Quantity Sold", "Revenue"));
+		out.newLine();
+		out.append("SUMMARY:\n");
+		out.append("--------\n");
+		out.append("Total Orders: ").append(turnover.getOrders()).newLine();
+		out.append("Total Items Sold: ").append(turnover.getItems()).newLine();
+		out.append("Total Revenue: £").pence(turnover.getRevenuePence()).newLine();
+	}
 
-		for (Product product : allProducts) {
-			int qty = quantitySold.getOrDefault(product.getProductID(), 0);
-			double revenue = revenueByProduct.getOrDefault(product.getProductID(), 0.0);
+	private Merchant requireMerchant(String merchantID) {
+		if (merchantID == null) {
+			throw new IllegalArgumentException("Merchant ID cannot be null");
+		}
 
-			if (qty > 0) {
-				content.append(String.format("%-10s %-30s %-15d £%-14.2f\n",
-						product.getProductID(),
-						truncate(product.getName(), 28),
-						qty,
-						revenue));
-			}
+		Merchant merchant = accountManagement.getMerchant(merchantID);
+		if (merchant == null) {
+			throw new IllegalArgumentException("Merchant not found: " + merchantID);
 		}
+		return merchant;
+	}
 
-		content.append("\n");
-		content.append("SUMMARY:\n");
-		content.append("--------\n");
-		content.append("Total Orders: ").append(ordersInPeriod.size()).append("\n");
-		content.append("Total Items Sold: ").append(totalItemsSold).append("\n");
-		content.append("Total Revenue: £").append(String.format("%.2f", totalRevenue)).append("\n");
+	// Builds a String-backed report from the streaming version of its body
+	private Report render(String title, ReportBody body) {
+		StringWriter content = new StringWriter();
+		try {
+			body.write(new ReportWriter(content));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 
 		Report report = new Report();
-		report.setTitle("Turnover Report");
+		report.setTitle(title);
 		report.setGeneratedOn(new Date());
 		report.setContent(content.toString());
 
@@ -0,0 +1,345 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running sales totals kept up to date by order, cancellation, invoice and
+ * payment events, so reports read them instead of rescanning order history.
+ * Money is held in pence.
+ */
+public class SalesAggregates {
+
+	// Earlier values of a month's totals kept for ReadViews; a view older than these rescans its orders
+	private static final int KEPT_VERSIONS = 8;
+
+	// Upper bound, in days overdue, of each ageing bucket after "not yet due"
+	private static final int[] AGEING_LIMITS = {30, 60, 90};
+	public static final String[] AGEING_LABELS = {"Not yet due", "1-30 days", "31-60 days", "61-90 days", "Over 90 days"};
+
+	// Non-cancelled sales by order date, then product
+	private final ConcurrentSkipListMap<Long, DayTotals> salesByDay = new ConcurrentSkipListMap<>();
+	private final Map<String, MerchantTotals> merchantTotals = new ConcurrentHashMap<>();
+	// Unpaid invoice amounts by due date
+	private final ConcurrentSkipListMap<Long, LongAdder> outstandingByDueDay = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Counts a newly placed order towards turnover and its merchant's totals.
+	 * @param order
+	 * @param totalPence
+	 * @param version store version the order was placed at; 0 for recovery
+	 */
+	void orderPlaced(Order order, long totalPence, long version) {
+		MerchantTotals merchant = merchantTotals.computeIfAbsent(order.getMerchantID(), k -> new MerchantTotals());
+		merchant.orders.increment();
+		merchant.orderPence.add(totalPence);
+		addToMonth(merchant.months.computeIfAbsent(YearMonth.from(localDate(order.getOrderDate())),
+				k -> new AtomicReference<>()), totalPence, version);
+
+		if (order.getStatus() != OrderStatus.CANCELLED) {
+			addSales(order, 1);
+		}
+	}
+
+	// Turnover excludes cancelled orders; merchant totals keep them, as order history does
+	void orderCancelled(Order order) {
+		addSales(order, -1);
+	}
+
+	void orderReinstated(Order order) {
+		addSales(order, 1);
+	}
+
+	void paymentRecorded(String merchantID, Payment payment) {
+		MerchantTotals merchant = merchantTotals.computeIfAbsent(merchantID, k -> new MerchantTotals());
+		merchant.payments.increment();
+		merchant.paymentPence.add(payment.getAmountPence());
+	}
+
+	void invoiceOutstanding(Invoice invoice, boolean outstanding) {
+		long pence = invoice.getTotalAmountPence();
+		outstandingByDueDay.computeIfAbsent(epochDay(invoice.getDueDate()), k -> new LongAdder())
+				.add(outstanding ? pence : -pence);
+	}
+
+	private void addSales(Order order, int sign) {
+		DayTotals day = salesByDay.computeIfAbsent(epochDay(order.getOrderDate()), k -> new DayTotals());
+		day.orders.add(sign);
+		if (order.getItems() == null) return;
+
+		for (OrderItem item : order.getItems()) {
+			if (item.getProductID() == null) continue;
+			ProductTotals product = day.products.computeIfAbsent(item.getProductID(), k -> new ProductTotals());
+			product.quantity.add(sign * (long) item.getQuantity());
+			product.revenuePence.add(sign * Money.times(item.getUnitPricePence(), item.getQuantity()));
+		}
+	}
+
+	/**
+	 * Non-cancelled sales on every day from the day of start to the day of end,
+	 * inclusive. An end falling exactly on midnight excludes that day.
+	 * @param start
+	 * @param end
+	 */
+	public Turnover getTurnover(Date start, Date end) {
+		Turnover turnover = new Turnover();
+		addTurnover(turnover, epochDay(start), epochDay(new Date(end.getTime() - 1)));
+		return turnover;
+	}
+
+	/**
+	 * Adds the sales of whole days to a turnover.
+	 * @param turnover
+	 * @param firstDay epoch day, inclusive
+	 * @param lastDay epoch day, inclusive
+	 */
+	void addTurnover(Turnover turnover, long firstDay, long lastDay) {
+		addTurnover(turnover, firstDay, lastDay, ParallelReportEngine.sequential());
+	}
+
+	/**
+	 * The same, with the days split into runs summed by the engine. Sums are
+	 * exact, so the result does not depend on how the days were split.
+	 * @param turnover
+	 * @param firstDay epoch day, inclusive
+	 * @param lastDay epoch day, inclusive
+	 * @param engine
+	 */
+	void addTurnover(Turnover turnover, long firstDay, long lastDay, ParallelReportEngine engine) {
+		if (lastDay < firstDay) return;
+
+		List<Long> days = new ArrayList<>(salesByDay.subMap(firstDay, true, lastDay, true).keySet());
+		if (days.isEmpty()) return;
+		// A day holds a total per product sold that day, so even a few days are worth a thread each
+		for (Turnover part : engine.mapSlices(days, 1, run -> {
+			Turnover partial = new Turnover();
+			addDayTurnover(partial, run.get(0), run.get(run.size() - 1));
+			return partial;
+		})) {
+			turnover.add(part);
+		}
+	}
+
+	private void addDayTurnover(Turnover turnover, long firstDay, long lastDay) {
+		for (DayTotals day : salesByDay.subMap(firstDay, true, lastDay, true).values()) {
+			turnover.addOrders(day.orders.sum());
+			for (Map.Entry<String, ProductTotals> entry : day.products.entrySet()) {
+				long quantity = entry.getValue().quantity.sum();
+				long revenue = entry.getValue().revenuePence.sum();
+				if (quantity == 0 && revenue == 0) continue;
+
+				turnover.addProduct(entry.getKey(), quantity, revenue);
+			}
+		}
+	}
+
+	// Replaces the month's totals with ones that count the order; versions only grow, see VersionClock
+	private static void addToMonth(AtomicReference<MonthTotals> month, long totalPence, long version) {
+		while (true) {
+			MonthTotals current = month.get();
+			// Changes made at one version share a value, so only an opened view adds to the chain
+			boolean sameVersion = current != null && current.version == version;
+			MonthTotals next = new MonthTotals(current == null ? 1 : current.orders + 1,
+					current == null ? totalPence : current.salesPence + totalPence, version,
+					sameVersion ? current.previous : current);
+			if (month.compareAndSet(current, next)) {
+				if (!sameVersion) trim(next);
+				return;
+			}
+		}
+	}
+
+	// Cuts the chain after KEPT_VERSIONS values
+	private static void trim(MonthTotals latest) {
+		MonthTotals node = latest;
+		for (int kept = 1; kept < KEPT_VERSIONS && node != null; kept++) {
+			node = node.previous;
+		}
+		if (node != null && node.previous != null) {
+			node.previous = MonthTotals.TRIMMED;
+		}
+	}
+
+	// Order count and sales per month for one merchant, oldest month first
+	public NavigableMap<YearMonth, long[]> getMonthlySales(String merchantID) {
+		return getMonthlySales(merchantID, Long.MAX_VALUE);
+	}
+
+	/**
+	 * The same as of a store version, or null if a month has changed too
+	 * often since then for its totals at that version to be kept.
+	 * @param merchantID
+	 * @param version
+	 */
+	NavigableMap<YearMonth, long[]> getMonthlySales(String merchantID, long version) {
+		NavigableMap<YearMonth, long[]> result = new TreeMap<>();
+		MerchantTotals merchant = merchantTotals.get(merchantID);
+		if (merchant == null) return result;
+
+		for (Map.Entry<YearMonth, AtomicReference<MonthTotals>> entry : merchant.months.entrySet()) {
+			MonthTotals month = entry.getValue().get();
+			while (month != null && month != MonthTotals.TRIMMED && month.version > version) {
+				month = month.previous;
+			}
+			if (month == MonthTotals.TRIMMED) return null;
+			if (month != null) {
+				result.put(entry.getKey(), new long[] {month.orders, month.salesPence});
+			}
+		}
+		return result;
+	}
+
+	public long getOrderCount(String merchantID) {
+		MerchantTotals merchant = merchantTotals.get(merchantID);
+		return merchant == null ? 0 : merchant.orders.sum();
+	}
+
+	public long getOrderPence(String merchantID) {
+		MerchantTotals merchant = merchantTotals.get(merchantID);
+		return merchant == null ? 0 : merchant.orderPence.sum();
+	}
+
+	public long getPaymentCount(String merchantID) {
+		MerchantTotals merchant = merchantTotals.get(merchantID);
+		return merchant == null ? 0 : merchant.payments.sum();
+	}
+
+	public long getPaymentPence(String merchantID) {
+		MerchantTotals merchant = merchantTotals.get(merchantID);
+		return merchant == null ? 0 : merchant.paymentPence.sum();
+	}
+
+	/**
+	 * Unpaid invoice amounts as of the given date, split into the buckets named
+	 * by AGEING_LABELS.
+	 * @param asOf
+	 */
+	public long[] getOutstandingAgeing(Date asOf) {
+		long today = epochDay(asOf);
+		long[] buckets = new long[AGEING_LABELS.length];
+
+		buckets[0] = sum(outstandingByDueDay.tailMap(today, true));
+		long newestDue = today - 1;
+		for (int i = 0; i < AGEING_LIMITS.length; i++) {
+			long oldestDue = today - AGEING_LIMITS[i];
+			buckets[i + 1] = sum(outstandingByDueDay.subMap(oldestDue, true, newestDue, true));
+			newestDue = oldestDue - 1;
+		}
+		buckets[buckets.length - 1] = sum(outstandingByDueDay.headMap(newestDue, true));
+		return buckets;
+	}
+
+	private static long sum(Map<Long, LongAdder> days) {
+		long total = 0;
+		for (LongAdder day : days.values()) {
+			total += day.sum();
+		}
+		return total;
+	}
+
+	private static LocalDate localDate(Date date) {
+		return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+
+	static long epochDay(Date date) {
+		return localDate(date).toEpochDay();
+	}
+
+	static long epochDay(long millis) {
+		return epochDay(new Date(millis));
+	}
+
+	// The first millisecond of an epoch day in the system time zone
+	static long startOfDay(long epochDay) {
+		return LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+
+	/**
+	 * Sales over a date range: quantity and revenue pence per product ID.
+	 */
+	public static class Turnover {
+
+		private final SortedMap<String, long[]> products = new TreeMap<>();
+		private long orders;
+		private long items;
+		private long revenuePence;
+
+		public SortedMap<String, long[]> getProducts() {
+			return this.products;
+		}
+
+		public long getOrders() {
+			return this.orders;
+		}
+
+		public long getItems() {
+			return this.items;
+		}
+
+		public long getRevenuePence() {
+			return this.revenuePence;
+		}
+
+		void addOrders(long count) {
+			this.orders += count;
+		}
+
+		void add(Turnover other) {
+			addOrders(other.orders);
+			for (Map.Entry<String, long[]> product : other.products.entrySet()) {
+				addProduct(product.getKey(), product.getValue()[0], product.getValue()[1]);
+			}
+		}
+
+		void addProduct(String productID, long quantity, long revenuePence) {
+			long[] totals = this.products.computeIfAbsent(productID, k -> new long[2]);
+			totals[0] += quantity;
+			totals[1] += revenuePence;
+			this.items += quantity;
+			this.revenuePence += revenuePence;
+		}
+
+	}
+
+	private static class DayTotals {
+		final LongAdder orders = new LongAdder();
+		final Map<String, ProductTotals> products = new ConcurrentHashMap<>();
+	}
+
+	private static class ProductTotals {
+		final LongAdder quantity = new LongAdder();
+		final LongAdder revenuePence = new LongAdder();
+	}
+
+	private static class MerchantTotals {
+		final LongAdder orders = new LongAdder();
+		final LongAdder orderPence = new LongAdder();
+		final LongAdder payments = new LongAdder();
+		final LongAdder paymentPence = new LongAdder();
+		final Map<YearMonth, AtomicReference<MonthTotals>> months = new ConcurrentSkipListMap<>();
+	}
+
+	// A month's order count and sales as one value, so a reader never sees one without the other.
+	// Each links to the value before it, back to the newest one every recent ReadView can use
+	private static class MonthTotals {
+		// Stands in for the values cut from a chain
+		static final MonthTotals TRIMMED = new MonthTotals(0, 0, 0, null);
+
+		final long orders;
+		final long salesPence;
+		final long version;
+		volatile MonthTotals previous;
+
+		MonthTotals(long orders, long salesPence, long version, MonthTotals previous) {
+			this.orders = orders;
+			this.salesPence = salesPence;
+			this.version = version;
+			this.previous = previous;
+		}
+	}
+
+}
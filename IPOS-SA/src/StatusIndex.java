@@ -0,0 +1,81 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Entities grouped by their current status, with a running count per status,
+ * so "every DISPATCHED order" is read from one group rather than found by a
+ * scan. Each group is in ID order, shorter IDs first, so ORD999 comes before
+ * ORD1000.
+ *
+ * Call update after an entity's status changes. It files the entity under
+ * whatever status it has by the time it finishes, so concurrent changes to
+ * one entity still leave it in exactly one group.
+ */
+public class StatusIndex<S extends Enum<S>, T> {
+
+	static final Comparator<String> ID_ORDER = Comparator.comparingInt(String::length)
+			.thenComparing(Comparator.naturalOrder());
+
+	private final S[] statuses;
+	private final Function<T, S> statusOf;
+	private final Function<T, String> idOf;
+	private final List<ConcurrentSkipListMap<String, T>> groups = new ArrayList<>();
+	private final LongAdder[] counts;
+
+	StatusIndex(Class<S> type, Function<T, S> statusOf, Function<T, String> idOf) {
+		this.statuses = type.getEnumConstants();
+		this.statusOf = statusOf;
+		this.idOf = idOf;
+		this.counts = new LongAdder[statuses.length];
+		for (int i = 0; i < statuses.length; i++) {
+			groups.add(new ConcurrentSkipListMap<>(ID_ORDER));
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Files the entity under its current status and removes it from the rest.
+	 * @param entity
+	 */
+	void update(T entity) {
+		String id = idOf.apply(entity);
+		S status;
+		do {
+			status = statusOf.apply(entity);
+			for (int i = 0; i < statuses.length; i++) {
+				ConcurrentSkipListMap<String, T> group = groups.get(i);
+				if (statuses[i] == status) {
+					if (group.put(id, entity) == null) counts[i].increment();
+				} else if (group.remove(id, entity)) {
+					counts[i].decrement();
+				}
+			}
+		} while (status != statusOf.apply(entity));
+	}
+
+	// Entities with the status, in ID order
+	public List<T> get(S status) {
+		return new ArrayList<>(groups.get(status.ordinal()).values());
+	}
+
+	// Entities with the status from the ID on, in ID order, read in place
+	Iterator<T> from(S status, String fromID) {
+		return groups.get(status.ordinal()).tailMap(fromID, true).values().iterator();
+	}
+
+	public long count(S status) {
+		return counts[status.ordinal()].sum();
+	}
+
+	// Count per status, in declaration order
+	public Map<S, Long> counts() {
+		Map<S, Long> result = new LinkedHashMap<>();
+		for (S status : statuses) {
+			result.put(status, count(status));
+		}
+		return result;
+	}
+
+}
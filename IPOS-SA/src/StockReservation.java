@@ -0,0 +1,53 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stock held for an order until it is committed, released or expires.
+ */
+public class StockReservation {
+
+	public enum State {
+		HELD, COMMITTED, RELEASED, EXPIRED
+	}
+
+	private final String reservationID;
+	private final Product[] products;
+	private final int[] quantities;
+	private final long expiresAt;
+	private final AtomicReference<State> state = new AtomicReference<>(State.HELD);
+
+	StockReservation(String reservationID, Product[] products, int[] quantities, long expiresAt) {
+		this.reservationID = reservationID;
+		this.products = products;
+		this.quantities = quantities;
+		this.expiresAt = expiresAt;
+	}
+
+	public String getReservationID() {
+		return this.reservationID;
+	}
+
+	public long getExpiresAt() {
+		return this.expiresAt;
+	}
+
+	public State getState() {
+		return this.state.get();
+	}
+
+	public int getLineCount() {
+		return this.products.length;
+	}
+
+	public Product getProduct(int line) {
+		return this.products[line];
+	}
+
+	public int getQuantity(int line) {
+		return this.quantities[line];
+	}
+
+	boolean transition(State from, State to) {
+		return this.state.compareAndSet(from, to);
+	}
+
+}
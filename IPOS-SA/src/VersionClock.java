@@ -0,0 +1,56 @@
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * Numbers the states of the order store so a ReadView can see it as it was
+ * at one instant. Changes to orders, payments and order lines are made in a
+ * write section and stamped with the current version. Opening a view waits
+ * for the sections in progress to finish, takes the current version, and
+ * moves every later change on to the next one.
+ *
+ * Write sections share the lock, so they never wait for each other. They
+ * cover only the in-memory change, never the log write, so opening a view
+ * holds up order entry for no longer than the slowest such change.
+ */
+public class VersionClock {
+
+	private final StampedLock lock = new StampedLock();
+	// Stamped on changes made now; changes replayed by recovery are version 0
+	private volatile long version = 1;
+
+	// Returns the stamp to pass to endWrite; sections must not nest
+	long beginWrite() {
+		return lock.readLock();
+	}
+
+	void endWrite(long stamp) {
+		lock.unlockRead(stamp);
+	}
+
+	// Version to stamp on a change; only stable inside a write section
+	long writeVersion() {
+		return version;
+	}
+
+	/**
+	 * Calls capture while no write section is in progress, with the version
+	 * of the latest changes, and returns what it returns. Later changes get
+	 * a higher version.
+	 * @param capture
+	 */
+	<T> T openView(LongFunction<T> capture) {
+		long stamp = lock.writeLock();
+		try {
+			long seen = version;
+			version = seen + 1;
+			return capture.apply(seen);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+}
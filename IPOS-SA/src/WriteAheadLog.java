@@ -0,0 +1,468 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of state changes, split into segment files named after the
+ * first sequence number (LSN) they hold. Appends are copied into a shared
+ * buffer and written by one flusher thread, so every append waiting on the
+ * same fsync is committed by it together (group commit).
+ *
+ * Record layout: payload length, LSN, type, payload, CRC32 of type and payload.
+ */
+public class WriteAheadLog implements Closeable {
+
+	public enum FsyncPolicy {
+		// Each append returns only once its record has been forced to disk
+		EVERY_COMMIT,
+		// Appends return once buffered; the log is forced at a fixed interval
+		INTERVAL,
+		// The log is written but only forced on rotation and close
+		NEVER
+	}
+
+	public interface RecordVisitor {
+		void visit(long lsn, byte type, DataInputStream payload) throws IOException;
+	}
+
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int HEADER_BYTES = 4 + 8 + 1;
+	private static final int TRAILER_BYTES = 4;
+	// Largest payload a record may hold, so a damaged length on disk cannot ask for more memory than this
+	public static final int MAX_RECORD_BYTES = 16 << 20;
+
+	private final Path directory;
+	private final FsyncPolicy fsyncPolicy;
+	private final long fsyncIntervalNanos;
+	private final LatencyRecorder appendLatency = new LatencyRecorder();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushNeeded = lock.newCondition();
+	private final Condition flushed = lock.newCondition();
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+	private long lastLsn;
+	private long writtenLsn;
+	private long durableLsn;
+	private long rotateRequestedAt = -1;
+	private long segmentStartLsn;
+	private boolean closed;
+	private IOException failure;
+
+	private FileChannel channel;
+	private final Thread flusher;
+
+	private WriteAheadLog(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+						  long firstLsn) throws IOException {
+		this.directory = directory;
+		this.fsyncPolicy = fsyncPolicy;
+		this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncIntervalMillis));
+		this.lastLsn = firstLsn - 1;
+		this.writtenLsn = this.lastLsn;
+		this.durableLsn = this.lastLsn;
+		this.segmentStartLsn = firstLsn;
+		this.channel = openSegment(firstLsn);
+
+		this.flusher = new Thread(this::flushLoop, "wal-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Starts a new segment whose first record will get the given LSN.
+	 * @param directory
+	 * @param fsyncPolicy
+	 * @param fsyncIntervalMillis only used by {@link FsyncPolicy#INTERVAL}
+	 * @param firstLsn
+	 */
+	public static WriteAheadLog open(Path directory, FsyncPolicy fsyncPolicy,
+									 long fsyncIntervalMillis, long firstLsn) throws IOException {
+		Files.createDirectories(directory);
+		return new WriteAheadLog(directory, fsyncPolicy, fsyncIntervalMillis, firstLsn);
+	}
+
+	/**
+	 * Appends a record and returns its LSN. Under EVERY_COMMIT this blocks until
+	 * the record is on disk.
+	 * @param type
+	 * @param payload
+	 */
+	public long append(byte type, byte[] payload) {
+		checkRecordSize(payload);
+		long start = System.nanoTime();
+		int crc = checksum(type, payload, 0, payload.length);
+		long lsn;
+
+		lock.lock();
+		try {
+			checkOpen();
+			lsn = ++lastLsn;
+			int size = HEADER_BYTES + payload.length + TRAILER_BYTES;
+			if (pending.remaining() < size) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+						pending.position() + size));
+				pending.flip();
+				larger.put(pending);
+				pending = larger;
+			}
+			pending.putInt(payload.length).putLong(lsn).put(type).put(payload).putInt(crc);
+			flushNeeded.signal();
+
+			if (fsyncPolicy == FsyncPolicy.EVERY_COMMIT) {
+				while (durableLsn < lsn) {
+					checkOpen();
+					flushed.awaitUninterruptibly();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		appendLatency.record(System.nanoTime() - start);
+		return lsn;
+	}
+
+	/**
+	 * Closes the current segment and starts a new one. Returns the first LSN of
+	 * the new segment; every earlier record is in a closed, forced segment.
+	 */
+	public long rotate() throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			long boundary = lastLsn + 1;
+			rotateRequestedAt = boundary;
+			flushNeeded.signal();
+			while (segmentStartLsn < boundary) {
+				checkOpen();
+				flushed.awaitUninterruptibly();
+			}
+			// Appends made while rotating may have gone to the old segment too
+			return segmentStartLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getLastLsn() {
+		lock.lock();
+		try {
+			return lastLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	// Time spent in append, including the wait for fsync under EVERY_COMMIT
+	public LatencyRecorder getAppendLatency() {
+		return appendLatency;
+	}
+
+	private void flushLoop() {
+		long lastSync = System.nanoTime();
+		while (true) {
+			long batchLsn;
+			boolean rotate;
+			lock.lock();
+			try {
+				while (pending.position() == 0 && !closed && rotateRequestedAt < 0 &&
+						!(fsyncPolicy == FsyncPolicy.INTERVAL && durableLsn < writtenLsn &&
+								System.nanoTime() - lastSync >= fsyncIntervalNanos)) {
+					if (fsyncPolicy == FsyncPolicy.INTERVAL && durableLsn < writtenLsn) {
+						flushNeeded.awaitNanos(fsyncIntervalNanos);
+					} else {
+						flushNeeded.awaitUninterruptibly();
+					}
+				}
+				if (closed && pending.position() == 0) {
+					return;
+				}
+				ByteBuffer swap = writing;
+				writing = pending;
+				pending = swap;
+				batchLsn = lastLsn;
+				rotate = rotateRequestedAt >= 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			boolean synced = false;
+			try {
+				writing.flip();
+				while (writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				writing.clear();
+
+				if (fsyncPolicy == FsyncPolicy.EVERY_COMMIT || rotate ||
+						(fsyncPolicy == FsyncPolicy.INTERVAL &&
+								System.nanoTime() - lastSync >= fsyncIntervalNanos)) {
+					channel.force(false);
+					lastSync = System.nanoTime();
+					synced = true;
+				}
+				if (rotate) {
+					channel.close();
+					channel = openSegment(batchLsn + 1);
+				}
+			} catch (IOException e) {
+				lock.lock();
+				try {
+					failure = e;
+					flushed.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				return;
+			}
+
+			lock.lock();
+			try {
+				writtenLsn = batchLsn;
+				if (synced || fsyncPolicy == FsyncPolicy.NEVER) {
+					durableLsn = batchLsn;
+				}
+				if (rotate) {
+					segmentStartLsn = batchLsn + 1;
+					rotateRequestedAt = -1;
+				}
+				flushed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	// A segment that already exists can only hold a torn tail, so it is truncated
+	private FileChannel openSegment(long firstLsn) throws IOException {
+		return FileChannel.open(segmentPath(directory, firstLsn),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	private void checkOpen() {
+		if (failure != null) {
+			throw new IllegalStateException("Write-ahead log failed", failure);
+		}
+		if (closed) {
+			throw new IllegalStateException("Write-ahead log is closed");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) return;
+			closed = true;
+			flushNeeded.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (channel.isOpen()) {
+			channel.force(false);
+			channel.close();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	// Removes segments that only hold records before the given LSN
+	public void deleteSegmentsBefore(long lsn) throws IOException {
+		List<Long> starts = segmentStarts(directory);
+		for (int i = 0; i + 1 < starts.size(); i++) {
+			if (starts.get(i + 1) <= lsn) {
+				Files.deleteIfExists(segmentPath(directory, starts.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * Visits every record with afterLsn &lt; LSN &lt; beforeLsn, oldest first, and
+	 * returns the highest LSN seen. A record torn by a crash can only be the
+	 * last one written, so one is skipped only at the end of the last segment;
+	 * a bad record anywhere else fails the replay.
+	 * @param directory
+	 * @param afterLsn
+	 * @param beforeLsn
+	 * @param visitor
+	 */
+	public static long replay(Path directory, long afterLsn, long beforeLsn,
+							  RecordVisitor visitor) throws IOException {
+		long highest = afterLsn;
+		if (!Files.isDirectory(directory)) {
+			return highest;
+		}
+
+		List<Long> starts = segmentStarts(directory);
+		for (int i = 0; i < starts.size(); i++) {
+			if (starts.get(i) >= beforeLsn) break;
+			// Skip segments that end before the replay starts
+			if (i + 1 < starts.size() && starts.get(i + 1) <= afterLsn + 1) continue;
+
+			long last = readRecords(segmentPath(directory, starts.get(i)), i == starts.size() - 1, (lsn, type, payload) -> {
+				if (lsn > afterLsn && lsn < beforeLsn) {
+					visitor.visit(lsn, type, payload);
+				}
+			});
+			highest = Math.max(highest, Math.min(last, beforeLsn - 1));
+		}
+		return highest;
+	}
+
+	/**
+	 * Visits every record in one file, such as a snapshot written whole, and
+	 * returns the last LSN read. Fails on any bad record.
+	 * @param file
+	 * @param visitor
+	 */
+	public static long readRecords(Path file, RecordVisitor visitor) throws IOException {
+		return readRecords(file, false, visitor);
+	}
+
+	/**
+	 * Visits every record in one file and returns the last LSN read. Each
+	 * length read is checked against MAX_RECORD_BYTES and the bytes left in
+	 * the file before anything is allocated for it.
+	 * @param file
+	 * @param tornTailAllowed whether a bad record that ends the file, or is followed
+	 *                        only by zeros, is a write cut short by a crash and skipped
+	 * @param visitor
+	 */
+	public static long readRecords(Path file, boolean tornTailAllowed, RecordVisitor visitor)
+			throws IOException {
+		long last = 0;
+		long fileBytes = Files.size(file);
+		long position = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(file), 1 << 16))) {
+			byte[] buffer = new byte[256];
+			while (position < fileBytes) {
+				long left = fileBytes - position;
+				if (left < HEADER_BYTES + TRAILER_BYTES) {
+					badRecord(file, position, tornTailAllowed);
+					break;
+				}
+				int length = in.readInt();
+				long lsn = in.readLong();
+				byte type = in.readByte();
+				if (length < 0 || length > MAX_RECORD_BYTES) {
+					// No write makes such a length; zeros left by a crash read as 0 and fail the checksum below
+					throw corrupt(file, position, "length " + length);
+				}
+				if (length > left - HEADER_BYTES - TRAILER_BYTES) {
+					badRecord(file, position, tornTailAllowed);
+					break;
+				}
+				if (buffer.length < length) {
+					buffer = new byte[Math.max(length, (int) Math.min(MAX_RECORD_BYTES, buffer.length * 2L))];
+				}
+				in.readFully(buffer, 0, length);
+				int crc = in.readInt();
+				long next = position + HEADER_BYTES + length + TRAILER_BYTES;
+				if (crc != checksum(type, buffer, 0, length)) {
+					boolean zeros = length == 0 && lsn == 0 && type == 0 && crc == 0 && zerosToEnd(in);
+					if (next < fileBytes && !zeros) throw corrupt(file, position, "checksum mismatch");
+					badRecord(file, position, tornTailAllowed);
+					break;
+				}
+
+				visitor.visit(lsn, type, new DataInputStream(
+						new ByteArrayInputStream(buffer, 0, length)));
+				last = lsn;
+				position = next;
+			}
+		}
+		return last;
+	}
+
+	// A cut-short record ends the file; it is only expected where the last write was going
+	private static void badRecord(Path file, long position, boolean tornTailAllowed) throws IOException {
+		if (!tornTailAllowed) {
+			throw corrupt(file, position, "record cut short");
+		}
+	}
+
+	private static IOException corrupt(Path file, long position, String problem) {
+		return new IOException("Corrupt log record at byte " + position + " of " + file + ": " + problem);
+	}
+
+	private static boolean zerosToEnd(InputStream in) throws IOException {
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (b != 0) return false;
+		}
+		return true;
+	}
+
+	private static void checkRecordSize(byte[] payload) {
+		if (payload.length > MAX_RECORD_BYTES) {
+			throw new IllegalArgumentException("Log record of " + payload.length +
+					" bytes is larger than " + MAX_RECORD_BYTES);
+		}
+	}
+
+	/**
+	 * Writes one record in log format, for files such as snapshots that are
+	 * read back with {@link #readRecords}.
+	 * @param out
+	 * @param lsn
+	 * @param type
+	 * @param payload
+	 */
+	public static void writeRecord(DataOutputStream out, long lsn, byte type, byte[] payload)
+			throws IOException {
+		checkRecordSize(payload);
+		out.writeInt(payload.length);
+		out.writeLong(lsn);
+		out.writeByte(type);
+		out.write(payload);
+		out.writeInt(checksum(type, payload, 0, payload.length));
+	}
+
+	private static int checksum(byte type, byte[] payload, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(payload, offset, length);
+		return (int) crc.getValue();
+	}
+
+	private static Path segmentPath(Path directory, long firstLsn) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+	}
+
+	private static List<Long> segmentStarts(Path directory) throws IOException {
+		List<Long> starts = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				starts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+						name.length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		Collections.sort(starts);
+		return starts;
+	}
+
+}